@@ -0,0 +1,73 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.util.Random;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.Payload;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.emulator.SyntheticDocuments;
+import com.google.protobuf.ByteString;
+
+/**
+ * Synthetic FDFE responses made of {@link SyntheticDocuments}. Generation
+ * is seeded, so every run parses the same bytes.
+ *
+ * @author akdeniz
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    static byte[] details(long seed) {
+        Random random = new Random(seed);
+        DetailsResponse details = DetailsResponse.newBuilder().setDocV2(doc(random, 0))
+                .setServerLogsCookie(bytes(random, 64)).build();
+        return wrap(Payload.newBuilder().setDetailsResponse(details));
+    }
+
+    static byte[] bulkDetails(long seed, int entries) {
+        Random random = new Random(seed);
+        BulkDetailsResponse.Builder bulkDetails = BulkDetailsResponse.newBuilder();
+        for (int i = 0; i < entries; i++) {
+            bulkDetails.addEntry(BulkDetailsEntry.newBuilder().setDoc(doc(random, i)));
+        }
+        return wrap(Payload.newBuilder().setBulkDetailsResponse(bulkDetails));
+    }
+
+    static byte[] list(long seed, int children) {
+        Random random = new Random(seed);
+        DocV2.Builder container = DocV2.newBuilder().setDocid("apps_topselling_free").setTitle("Top Free")
+                .setBackendId(3).setDocType(1);
+        for (int i = 0; i < children; i++) {
+            container.addChild(doc(random, i));
+        }
+        return wrap(Payload.newBuilder().setListResponse(ListResponse.newBuilder().addDoc(container)));
+    }
+
+    private static byte[] wrap(Payload.Builder payload) {
+        return ResponseWrapper.newBuilder().setPayload(payload).build().toByteArray();
+    }
+
+    static DocV2 doc(Random random, int index) {
+        return SyntheticDocuments.app("com.example." + word(random, 8) + ".app" + index);
+    }
+
+    private static String word(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static ByteString bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+}
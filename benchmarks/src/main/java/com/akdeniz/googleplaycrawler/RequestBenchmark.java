@@ -0,0 +1,79 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.akdeniz.googleplaycrawler.misc.Base64;
+
+/**
+ * Per request overhead on our side: building headers, buffering response
+ * body and decoding base64 tokens and signatures.
+ *
+ * @author akdeniz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    @Param({"16384", "1048576"})
+    public int bodySize;
+
+    private GooglePlayAPI service;
+    private byte[] body;
+    private String signature;
+    private String encodedBody;
+
+    @Setup
+    public void setUp() {
+        service = new GooglePlayAPI("benchmark@example.com", "password", "3a8b1c2d4e5f6a7b");
+        service.setToken("DQAAAL0AAAB" + new String(new char[200]).replace('\0', 'x'));
+        service.setLocalization("en-US");
+
+        Random random = new Random(1);
+        body = new byte[bodySize];
+        random.nextBytes(body);
+
+        byte[] sha1 = new byte[20];
+        random.nextBytes(sha1);
+        signature = Base64.encodeToString(sha1, Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+        encodedBody = Base64.encodeToString(body, Base64.DEFAULT);
+    }
+
+    @Benchmark
+    public String[][] headerParameters() {
+        return service.getHeaderParameters(service.getToken(), null, "23");
+    }
+
+    @Benchmark
+    public byte[] readAll() throws IOException {
+        return Utils.readAll(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public byte[] decodeSignature() {
+        return Base64.decode(signature, Base64.URL_SAFE);
+    }
+
+    @Benchmark
+    public byte[] decodeBody() {
+        return Base64.decode(encodedBody, Base64.DEFAULT);
+    }
+}
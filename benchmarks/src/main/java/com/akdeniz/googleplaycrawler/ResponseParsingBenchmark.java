@@ -0,0 +1,101 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.PayloadField;
+
+/**
+ * Cost of turning FDFE response bodies into {@link ResponseWrapper}s, both
+ * from a byte array and from a stream, and of parsing only the payload
+ * field that is needed through {@link LazyResponseWrapper} as
+ * {@link GooglePlayAPI} does.
+ *
+ * @author akdeniz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    @Param({"20", "100"})
+    public int documents;
+
+    private byte[] details;
+    private byte[] bulkDetails;
+    private byte[] list;
+
+    @Setup
+    public void setUp() {
+        details = Payloads.details(1);
+        bulkDetails = Payloads.bulkDetails(2, documents);
+        list = Payloads.list(3, documents);
+    }
+
+    @Benchmark
+    public ResponseWrapper details() throws IOException {
+        return ResponseWrapper.parseFrom(details);
+    }
+
+    @Benchmark
+    public ResponseWrapper detailsFromStream() throws IOException {
+        return ResponseWrapper.parseFrom(new ByteArrayInputStream(details));
+    }
+
+    @Benchmark
+    public DetailsResponse detailsLazy() throws IOException {
+        return LazyResponseWrapper.read(new ByteArrayInputStream(details), details.length)
+                .getPayload(PayloadField.DETAILS);
+    }
+
+    @Benchmark
+    public ResponseWrapper bulkDetails() throws IOException {
+        return ResponseWrapper.parseFrom(bulkDetails);
+    }
+
+    @Benchmark
+    public ResponseWrapper bulkDetailsFromStream() throws IOException {
+        return ResponseWrapper.parseFrom(new ByteArrayInputStream(bulkDetails));
+    }
+
+    @Benchmark
+    public BulkDetailsResponse bulkDetailsLazy() throws IOException {
+        return LazyResponseWrapper.read(new ByteArrayInputStream(bulkDetails), bulkDetails.length)
+                .getPayload(PayloadField.BULK_DETAILS);
+    }
+
+    @Benchmark
+    public ResponseWrapper list() throws IOException {
+        return ResponseWrapper.parseFrom(list);
+    }
+
+    @Benchmark
+    public ResponseWrapper listFromStream() throws IOException {
+        return ResponseWrapper.parseFrom(new ByteArrayInputStream(list));
+    }
+
+    @Benchmark
+    public ListResponse listLazy() throws IOException {
+        return LazyResponseWrapper.read(new ByteArrayInputStream(list), list.length).getPayload(PayloadField.LIST);
+    }
+}
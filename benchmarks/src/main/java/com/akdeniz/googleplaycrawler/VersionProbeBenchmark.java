@@ -0,0 +1,81 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AppDetails;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.PayloadField;
+
+/**
+ * Cost of getting versions of <code>bulkDetails</code> entries by parsing
+ * whole response, by parsing only its payload field, and by scanning them
+ * with {@link VersionProbe}.
+ *
+ * @author akdeniz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionProbeBenchmark {
+
+    @Param({"20", "100"})
+    public int documents;
+
+    private byte[] bulkDetails;
+
+    @Setup
+    public void setUp() {
+        bulkDetails = Payloads.bulkDetails(2, documents);
+    }
+
+    @Benchmark
+    public List<VersionProbe> fullParse() throws IOException {
+        return versions(ResponseWrapper.parseFrom(bulkDetails).getPayload().getBulkDetailsResponse());
+    }
+
+    @Benchmark
+    public List<VersionProbe> payloadParse() throws IOException {
+        return versions(LazyResponseWrapper.wrap(bulkDetails).getPayload(PayloadField.BULK_DETAILS));
+    }
+
+    @Benchmark
+    public List<VersionProbe> probe() throws IOException {
+        return VersionProbe.BULK_DETAILS_PROJECTION.project(LazyResponseWrapper.wrap(bulkDetails));
+    }
+
+    private static List<VersionProbe> versions(BulkDetailsResponse response) {
+        List<VersionProbe> versions = new ArrayList<VersionProbe>(response.getEntryCount());
+        for (BulkDetailsEntry entry : response.getEntryList()) {
+            if (!entry.hasDoc()) {
+                versions.add(null);
+                continue;
+            }
+            DocV2 doc = entry.getDoc();
+            AppDetails appDetails = doc.getDetails().getAppDetails();
+            versions.add(new VersionProbe(doc.getDocid(), appDetails.getVersionCode(), appDetails.getVersionString(),
+                    appDetails.getUploadDate(), doc.getOfferCount() > 0 ? doc.getOffer(0).getOfferType() : 0));
+        }
+        return versions;
+    }
+}
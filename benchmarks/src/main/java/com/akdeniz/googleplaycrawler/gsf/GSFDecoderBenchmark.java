@@ -0,0 +1,101 @@
+package com.akdeniz.googleplaycrawler.gsf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.akdeniz.googleplaycrawler.gsf.GoogleServicesFramework.AppData;
+import com.akdeniz.googleplaycrawler.gsf.GoogleServicesFramework.DataMessageStanza;
+import com.akdeniz.googleplaycrawler.gsf.GoogleServicesFramework.LoginResponse;
+
+/**
+ * Decoding of MTalk frames received while listening for GCM notifications.
+ * It is in this package to reach package private {@link GSFRequestDecoder}.
+ *
+ * @author akdeniz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GSFDecoderBenchmark {
+
+    private ByteBuffer loginResponse;
+    private ByteBuffer dataMessage;
+
+    @Setup
+    public void setUp() {
+        loginResponse = frame(0x03, LoginResponse.newBuilder().setPacketid("abcdefg-12").setJid("user@example.com")
+                .setServertimestamp(System.currentTimeMillis()).setStreamid(1).setLaststreamid(0).build()
+                .toByteArray());
+
+        DataMessageStanza.Builder dataMessage = DataMessageStanza.newBuilder().setPacketid("abcdefg-13")
+                .setFrom("google.com").setTo("user@example.com").setCategory("com.android.vending")
+                .setToken("1234567890").setStreamid(2).setLaststreamid(1);
+        for (int i = 0; i < 8; i++) {
+            dataMessage.addAppdata(AppData.newBuilder().setKey("key" + i)
+                    .setValue("value of a download notification " + i));
+        }
+        this.dataMessage = frame(0x08, dataMessage.build().toByteArray());
+    }
+
+    private static ByteBuffer frame(int tag, byte[] data) {
+        ByteBuffer frame = ByteBuffer.allocate(1 + 5 + data.length);
+        frame.put((byte) tag);
+        int length = data.length;
+        while ((length & ~0x7F) != 0) {
+            frame.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        frame.put((byte) length);
+        frame.put(data);
+        frame.flip();
+        return frame;
+    }
+
+    @Benchmark
+    public boolean loginResponse(Blackhole blackhole) throws IOException {
+        loginResponse.rewind();
+        return GSFRequestDecoder.parse(loginResponse, new BlackholeOutput(blackhole));
+    }
+
+    @Benchmark
+    public boolean dataMessage(Blackhole blackhole) throws IOException {
+        dataMessage.rewind();
+        return GSFRequestDecoder.parse(dataMessage, new BlackholeOutput(blackhole));
+    }
+
+    private static class BlackholeOutput implements ProtocolDecoderOutput {
+        private final Blackhole blackhole;
+
+        BlackholeOutput(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(Object message) {
+            blackhole.consume(message);
+        }
+
+        @Override
+        public void flush(NextFilter nextFilter, IoSession session) {
+        }
+    }
+}
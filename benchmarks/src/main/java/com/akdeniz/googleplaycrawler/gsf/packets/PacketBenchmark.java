@@ -0,0 +1,52 @@
+package com.akdeniz.googleplaycrawler.gsf.packets;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Varint length prefix of MTalk packets. It is in this package to reach
+ * protected {@link Packet#length(int)}.
+ *
+ * @author akdeniz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+
+    @Param({"100", "20000", "3000000"})
+    public int length;
+
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        encoded = Packet.length(length);
+    }
+
+    @Benchmark
+    public ByteBuffer length() {
+        return Packet.length(length);
+    }
+
+    @Benchmark
+    public int unlength() {
+        encoded.rewind();
+        return Packet.unlength(encoded);
+    }
+}
@@ -0,0 +1,107 @@
+package com.akdeniz.googleplaycrawler.timing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits a <code>com.akdeniz.googleplaycrawler.Request</code> JDK Flight
+ * Recorder event for every request, so that slow ones can be inspected in a
+ * recording next to GC and I/O events. Requires a JVM with JFR (8u262+ or
+ * 11+), which is why it is built in its own module rather than the crawler
+ * jar; check {@link #isAvailable()} before referring to this class.
+ *
+ * @author akdeniz
+ */
+public class JfrTimingListener implements RequestTimingListener {
+
+    public static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void onRequest(RequestTiming timing) {
+        RequestEvent event = new RequestEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.endpoint = timing.getEndpoint().name();
+        event.uri = timing.getUri();
+        event.statusCode = timing.getStatusCode();
+        event.retries = timing.getRetries();
+        event.queue = timing.getQueueNanos();
+        event.connect = timing.getConnectNanos();
+        event.tls = timing.getTlsNanos();
+        event.firstByte = timing.getWaitNanos();
+        event.transfer = timing.getTransferNanos();
+        event.parse = timing.getParseNanos();
+        event.total = timing.getTotalNanos();
+        event.responseBytes = timing.getResponseBytes();
+        event.serverLatency = timing.getServerLatencyMillis();
+        event.commit();
+    }
+
+    @Name("com.akdeniz.googleplaycrawler.Request")
+    @Label("Google Play Request")
+    @Category("Google Play Crawler")
+    @Description("Phases of a request sent to Google Play")
+    @StackTrace(false)
+    static class RequestEvent extends Event {
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("URI")
+        String uri;
+
+        @Label("Status Code")
+        int statusCode;
+
+        @Label("Retries")
+        int retries;
+
+        @Label("Queue")
+        @Timespan(Timespan.NANOSECONDS)
+        long queue;
+
+        @Label("Connect")
+        @Timespan(Timespan.NANOSECONDS)
+        long connect;
+
+        @Label("TLS Handshake")
+        @Timespan(Timespan.NANOSECONDS)
+        long tls;
+
+        @Label("Time To First Byte")
+        @Timespan(Timespan.NANOSECONDS)
+        long firstByte;
+
+        @Label("Transfer")
+        @Timespan(Timespan.NANOSECONDS)
+        long transfer;
+
+        @Label("Parse")
+        @Timespan(Timespan.NANOSECONDS)
+        long parse;
+
+        @Label("Total")
+        @Timespan(Timespan.NANOSECONDS)
+        long total;
+
+        @Label("Response Bytes")
+        long responseBytes;
+
+        @Label("Server Latency")
+        @Timespan(Timespan.MILLISECONDS)
+        long serverLatency;
+    }
+}
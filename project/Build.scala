@@ -50,6 +50,8 @@ object Build extends Build {
       "org.apache.httpcomponents" % "httpcore" % "4.2.2",
       "org.apache.httpcomponents" % "httpclient-cache" % "4.2.2",
       "org.apache.httpcomponents" % "httpmime" % "4.2.2",
+      "org.apache.httpcomponents" % "httpasyncclient" % "4.0-beta3",
+      "com.squareup.okhttp3" % "okhttp" % "3.14.9",
       "org.apache.mina" % "mina-core" % "2.0.7",
       "org.slf4j" % "slf4j-simple" % "1.7.2",
       "org.testng" % "testng" % "6.1.1" % "test"
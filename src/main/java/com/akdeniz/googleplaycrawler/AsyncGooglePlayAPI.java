@@ -0,0 +1,404 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsRequest;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.HttpCookie;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.GooglePlay.ReviewResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.SearchResponse;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI.REVIEW_SORT;
+import com.akdeniz.googleplaycrawler.http.InflatingEntity;
+import com.akdeniz.googleplaycrawler.metrics.EndpointMetrics;
+import com.akdeniz.googleplaycrawler.metrics.MeteredEntity;
+import com.akdeniz.googleplaycrawler.ratelimit.RateLimiter;
+
+/**
+ * Non-blocking counterpart of {@link GooglePlayAPI}. Requests are executed on
+ * an <code>Apache HttpAsyncClient</code> I/O reactor, so a handful of threads
+ * can keep thousands of requests in flight.
+ * <p>
+ * Authentication is not handled here: given {@link GooglePlayAPI} instance
+ * must already be logged in. Its token, android id and localization are read
+ * on every request, and request headers are built by the same
+ * <code>getHeaderParameters</code> logic.
+ * </p>
+ * <p>
+ * Requests wait for permits of {@link GooglePlayAPI#getRateLimiter()} and
+ * 429 responses are retried with its backoff, without blocking any thread.
+ * Responses are parsed on an executor rather than on the I/O reactor.
+ * </p>
+ * <p>
+ * Responses are buffered in memory before they are handed to the caller,
+ * except APK files, which are streamed into a file by
+ * {@link #download(String, int, int, String, File)}.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class AsyncGooglePlayAPI implements Closeable {
+
+    /**
+     * Parses responses unless another executor is given, shared by all
+     * instances.
+     */
+    private static final ExecutorService PARSER = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), Utils.daemonThreadFactory("async-parse"));
+
+    /**
+     * Sends requests that wait for a permit or a backoff delay.
+     */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(Utils.daemonThreadFactory("async-delay"));
+
+    private final GooglePlayAPI api;
+    private final HttpAsyncClient client;
+    private final Executor executor;
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    /**
+     * Creates an async API on top of given session with a default pooled I/O
+     * reactor.
+     */
+    public AsyncGooglePlayAPI(GooglePlayAPI api) throws IOReactorException {
+        this(api, createDefaultClient());
+    }
+
+    /**
+     * Creates an async API on top of given session and client. Client is
+     * started if it is not started yet.
+     */
+    public AsyncGooglePlayAPI(GooglePlayAPI api, HttpAsyncClient client) {
+        this(api, client, PARSER);
+    }
+
+    /**
+     * @param executor executor that responses are read and parsed on
+     */
+    public AsyncGooglePlayAPI(GooglePlayAPI api, HttpAsyncClient client, Executor executor) {
+        this.api = api;
+        this.client = client;
+        this.executor = executor;
+        if (client.getStatus() == IOReactorStatus.INACTIVE) {
+            client.start();
+        }
+    }
+
+    /**
+     * Async client with a pooled connection manager that allows as many
+     * concurrent connections as {@link GooglePlayAPI#getConnectionManager()}.
+     */
+    public static HttpAsyncClient createDefaultClient() throws IOReactorException {
+        PoolingClientAsyncConnectionManager connManager =
+                new PoolingClientAsyncConnectionManager(new DefaultConnectingIOReactor());
+        connManager.setMaxTotal(100);
+        connManager.setDefaultMaxPerRoute(30);
+        return new DefaultHttpAsyncClient(connManager);
+    }
+
+    /**
+     * @see GooglePlayAPI#details(String)
+     */
+    public CompletableFuture<DetailsResponse> details(String packageName) {
+        return executeGETRequest(GooglePlayAPI.DETAILS_URL, new String[][]{{"doc", packageName},})
+                .thenApply(responseWrapper -> responseWrapper.getPayload().getDetailsResponse());
+    }
+
+    /**
+     * @see GooglePlayAPI#bulkDetails(List)
+     */
+    public CompletableFuture<BulkDetailsResponse> bulkDetails(List<String> packageNames) {
+        byte[] request = BulkDetailsRequest.newBuilder().addAllDocid(packageNames).build().toByteArray();
+        HttpUriRequest httppost = GooglePlayAPI.createPostRequest(GooglePlayAPI.BULKDETAILS_URL,
+                new ByteArrayEntity(request), api.getHeaderParameters(api.getToken(), "application/x-protobuf", "23"));
+
+        return executeFdfe(httppost)
+                .thenApply(responseWrapper -> responseWrapper.getPayload().getBulkDetailsResponse());
+    }
+
+    /**
+     * @see GooglePlayAPI#search(String, Integer, Integer)
+     */
+    public CompletableFuture<SearchResponse> search(String query, Integer offset, Integer numberOfResult) {
+        return executeGETRequest(GooglePlayAPI.SEARCH_URL,
+                new String[][]{{"c", "3"}, {"q", query}, {"o", (offset == null) ? null : String.valueOf(offset)},
+                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},})
+                .thenApply(responseWrapper -> responseWrapper.getPayload().getSearchResponse());
+    }
+
+    /**
+     * @see GooglePlayAPI#list(String, String, Integer, Integer)
+     */
+    public CompletableFuture<ListResponse> list(String categoryId, String subCategoryId, Integer offset,
+                                                Integer numberOfResult) {
+        return executeGETRequest(GooglePlayAPI.LIST_URL, new String[][]{{"c", "3"}, {"cat", categoryId},
+                {"ctr", subCategoryId}, {"o", (offset == null) ? null : String.valueOf(offset)},
+                {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},})
+                .thenApply(responseWrapper -> responseWrapper.getPayload().getListResponse());
+    }
+
+    /**
+     * @see GooglePlayAPI#reviews(String, REVIEW_SORT, Integer, Integer)
+     */
+    public CompletableFuture<ReviewResponse> reviews(String packageName, REVIEW_SORT sort, Integer offset,
+                                                     Integer numberOfResult) {
+        return executeGETRequest(GooglePlayAPI.REVIEWS_URL,
+                new String[][]{{"doc", packageName}, {"sort", (sort == null) ? null : String.valueOf(sort.value)},
+                        {"o", (offset == null) ? null : String.valueOf(offset)},
+                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)}})
+                .thenApply(responseWrapper -> responseWrapper.getPayload().getReviewResponse());
+    }
+
+    /**
+     * Downloads APK into given file as it is received, without keeping it in
+     * memory. Target file is deleted if download fails.
+     *
+     * @return future of target file
+     * @see GooglePlayAPI#download(String, int, int, String)
+     */
+    public CompletableFuture<File> download(String packageName, int versionCode, int offerType, String sdk,
+                                            final File target) {
+        return purchase(packageName, versionCode, offerType, sdk).thenCompose(appDeliveryData -> {
+            HttpCookie downloadAuthCookie = appDeliveryData.getDownloadAuthCookie(0);
+            HttpUriRequest httpget = GooglePlayAPI.createGetRequest(appDeliveryData.getDownloadUrl(), null,
+                    GooglePlayAPI.getDownloadHeaderParameters(
+                            downloadAuthCookie.getName() + "=" + downloadAuthCookie.getValue()));
+            return execute(httpget, target);
+        }).handle((response, ex) -> {
+            if (ex != null) {
+                target.delete();
+                throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+            }
+            return target;
+        });
+    }
+
+    private CompletableFuture<AndroidAppDeliveryData> purchase(String packageName, int versionCode, int offerType,
+                                                               String sdk) {
+        HttpUriRequest httppost;
+        try {
+            httppost = GooglePlayAPI.createPostRequest(GooglePlayAPI.PURCHASE_URL,
+                    GooglePlayAPI.createFormEntity(new String[][]{{"ot", String.valueOf(offerType)},
+                            {"doc", packageName}, {"vc", String.valueOf(versionCode)},}),
+                    api.getHeaderParameters(api.getToken(), null, sdk));
+        } catch (IOException e) {
+            return failed(e);
+        }
+
+        return executeFdfe(httppost).thenApply(responseWrapper ->
+                responseWrapper.getPayload().getBuyResponse().getPurchaseStatusResponse().getAppDeliveryData());
+    }
+
+    /* =======================Helper Functions====================== */
+
+    private CompletableFuture<ResponseWrapper> executeGETRequest(String path, String[][] datapost) {
+        return executeFdfe(GooglePlayAPI.createGetRequest(path, datapost,
+                api.getHeaderParameters(api.getToken(), null, "23")));
+    }
+
+    private CompletableFuture<ResponseWrapper> executeFdfe(HttpUriRequest request) {
+        return execute(request).thenApplyAsync(response -> {
+            try {
+                return ResponseWrapper.parseFrom(response.getEntity().getContent());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Executes given request without blocking. Returned future fails with
+     * {@link GooglePlayException} if server does not respond with 200, after
+     * 429 responses are retried up to {@link GooglePlayAPI#getMaxRetries()}
+     * times.
+     */
+    private CompletableFuture<HttpResponse> execute(final HttpUriRequest request) {
+        return execute(request, null);
+    }
+
+    /**
+     * @param target file that response body is written into, or
+     *               <code>null</code> to buffer it in memory
+     */
+    private CompletableFuture<HttpResponse> execute(final HttpUriRequest request, File target) {
+        return execute(request, Endpoint.fromUri(request.getURI()), target, 0);
+    }
+
+    private CompletableFuture<HttpResponse> execute(final HttpUriRequest request, final Endpoint endpoint,
+                                                    final File target, final int retry) {
+        RateLimiter rateLimiter = api.getRateLimiter();
+        long waitNanos = rateLimiter == null ? 0 : rateLimiter.reserve(endpoint);
+        CompletableFuture<HttpResponse> sent = waitNanos > 0
+                ? delayed(waitNanos, () -> send(request, endpoint, target))
+                : send(request, endpoint, target);
+        return sent.thenComposeAsync(response -> handle(request, endpoint, target, retry, response), executor);
+    }
+
+    private CompletableFuture<HttpResponse> handle(HttpUriRequest request, Endpoint endpoint, File target, int retry,
+                                                   HttpResponse response) {
+        RateLimiter rateLimiter = api.getRateLimiter();
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == 200) {
+            if (rateLimiter != null) {
+                rateLimiter.onSuccess(endpoint);
+            }
+            return CompletableFuture.completedFuture(response);
+        }
+
+        String msg;
+        try {
+            msg = new String(Utils.readAll(response.getEntity().getContent()));
+        } catch (IOException e) {
+            return failed(e);
+        }
+        if (statusCode == 429) {
+            if (rateLimiter != null) {
+                rateLimiter.onThrottled(endpoint);
+            }
+            if (retry < api.getMaxRetries()) {
+                if (api.getMetrics() != null) {
+                    api.getMetrics().get(endpoint).onRetry();
+                }
+                long delay = api.getBackoff().delayMillis(retry, GooglePlayAPI.getRetryAfterMillis(response));
+                logger.warn("429 on {}, retrying in {} ms: {}", endpoint, delay, msg);
+                return delayed(TimeUnit.MILLISECONDS.toNanos(delay), () -> execute(request, endpoint, target, retry + 1));
+            }
+        }
+        return failed(new GooglePlayException(msg, statusCode));
+    }
+
+    /**
+     * Hands given request to I/O reactor. Returned future completes with any
+     * response the server gives, or fails if request cannot be executed.
+     */
+    private CompletableFuture<HttpResponse> send(final HttpUriRequest request, Endpoint endpoint, final File target) {
+        final CompletableFuture<HttpResponse> future = new CompletableFuture<HttpResponse>();
+        final EndpointMetrics endpointMetrics = api.getMetrics() == null ? null : api.getMetrics().get(endpoint);
+        final long started = System.nanoTime();
+        FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                if (endpointMetrics != null) {
+                    endpointMetrics.onResponse(response.getStatusLine().getStatusCode(), System.nanoTime() - started);
+                    if (target != null) {
+                        endpointMetrics.addBytesReceived(target.length());
+                    } else if (response.getEntity() != null) {
+                        response.setEntity(new MeteredEntity(response.getEntity(), endpointMetrics));
+                    }
+                    if (request instanceof HttpEntityEnclosingRequest
+                            && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+                        endpointMetrics.addBytesSent(((HttpEntityEnclosingRequest) request).getEntity().getContentLength());
+                    }
+                }
+                InflatingEntity.decode(response, endpointMetrics);
+                future.complete(response);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                if (endpointMetrics != null) {
+                    endpointMetrics.onError(System.nanoTime() - started);
+                }
+                future.completeExceptionally(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        };
+        HttpHost targetHost = api.getTargetHost();
+        try {
+            if (target != null) {
+                HttpAsyncRequestProducer producer = targetHost == null
+                        ? HttpAsyncMethods.create(request) : HttpAsyncMethods.create(targetHost, request);
+                HttpAsyncResponseConsumer<HttpResponse> consumer = HttpAsyncMethods.createZeroCopyConsumer(target);
+                client.execute(producer, consumer, callback);
+            } else if (targetHost == null) {
+                client.execute(request, callback);
+            } else {
+                client.execute(targetHost, request, callback);
+            }
+        } catch (RuntimeException e) {
+            callback.failed(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs given task after a delay without blocking the caller.
+     */
+    private static <T> CompletableFuture<T> delayed(long delayNanos, final Supplier<CompletableFuture<T>> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            SCHEDULER.schedule(() -> {
+                try {
+                    task.get().whenComplete((result, ex) -> {
+                        if (ex != null) {
+                            future.completeExceptionally(ex);
+                        } else {
+                            future.complete(result);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable ex) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+
+    /**
+     * Shuts down underlying I/O reactor.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            client.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while shutting down!", e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+
+/**
+ * Coalesces single <code>details</code> lookups into
+ * <code>bulkDetails</code> requests.
+ * <p>
+ * Package names submitted concurrently are gathered until either
+ * <code>maxBatchSize</code> names are waiting or <code>maxDelayMillis</code>
+ * has passed since the first one, then they are sent as one
+ * {@link GooglePlay.BulkDetailsRequest}. Each caller gets back its own
+ * {@link BulkDetailsEntry}. Entries of unknown packages have no
+ * <code>doc</code> set.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class BulkDetailsCoalescer implements Closeable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 50;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final GooglePlayAPI service;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService dispatcher;
+
+    private Map<String, CompletableFuture<BulkDetailsEntry>> pending =
+            new LinkedHashMap<String, CompletableFuture<BulkDetailsEntry>>();
+    private ScheduledFuture<?> flushTask;
+    private boolean closed;
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    public BulkDetailsCoalescer(GooglePlayAPI service) {
+        this(service, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param maxBatchSize   maximum number of package names sent in one request
+     * @param maxDelayMillis maximum time a lookup waits for others to join its batch
+     * @param concurrency    maximum number of <code>bulkDetails</code> requests in flight
+     */
+    public BulkDetailsCoalescer(GooglePlayAPI service, int maxBatchSize, long maxDelayMillis, int concurrency) {
+        if (maxBatchSize < 1 || maxDelayMillis < 0 || concurrency < 1) {
+            throw new IllegalArgumentException("Invalid coalescer window!");
+        }
+        this.service = service;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Utils.daemonThreadFactory("coalescer-timer"));
+        this.dispatcher = Executors.newFixedThreadPool(concurrency, Utils.daemonThreadFactory("coalescer-dispatch"));
+    }
+
+    /**
+     * Equivalent of {@link GooglePlayAPI#details(String)} but the lookup is
+     * served by a shared <code>bulkDetails</code> request. Blocks until the
+     * batch containing given package is answered.
+     */
+    public BulkDetailsEntry details(String packageName) throws IOException {
+        try {
+            return submit(packageName).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + packageName);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Queues given package name for the next batch. Lookups of the same
+     * package within one window share a single future.
+     */
+    public CompletableFuture<BulkDetailsEntry> submit(String packageName) {
+        Map<String, CompletableFuture<BulkDetailsEntry>> batch = null;
+        CompletableFuture<BulkDetailsEntry> future;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Coalescer is closed!");
+            }
+            future = pending.get(packageName);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<BulkDetailsEntry>();
+            pending.put(packageName, future);
+
+            if (pending.size() >= maxBatchSize) {
+                batch = takePending();
+            } else if (flushTask == null) {
+                flushTask = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return future;
+    }
+
+    /**
+     * Sends waiting lookups immediately without waiting for the window to
+     * close.
+     */
+    public void flush() {
+        Map<String, CompletableFuture<BulkDetailsEntry>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        dispatch(batch);
+    }
+
+    private Map<String, CompletableFuture<BulkDetailsEntry>> takePending() {
+        Map<String, CompletableFuture<BulkDetailsEntry>> batch = pending;
+        pending = new LinkedHashMap<String, CompletableFuture<BulkDetailsEntry>>();
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return batch;
+    }
+
+    /**
+     * Sends given batch on dispatcher. If dispatcher is already shut down,
+     * lookups of the batch fail instead of waiting forever.
+     */
+    private void dispatch(Map<String, CompletableFuture<BulkDetailsEntry>> batch) {
+        try {
+            dispatcher.execute(newRequest(batch));
+        } catch (RejectedExecutionException e) {
+            IOException failure = new IOException("Coalescer is closed!", e);
+            for (CompletableFuture<BulkDetailsEntry> future : batch.values()) {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private Runnable newRequest(final Map<String, CompletableFuture<BulkDetailsEntry>> batch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                List<String> packageNames = new ArrayList<String>(batch.keySet());
+                try {
+                    BulkDetailsResponse response = service.bulkDetails(packageNames);
+                    complete(packageNames, response.getEntryList(), batch);
+                } catch (Exception e) {
+                    logger.warn("bulkDetails of {} packages failed: {}", packageNames.size(), e.getMessage());
+                    for (CompletableFuture<BulkDetailsEntry> future : batch.values()) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Server answers with one entry per requested docid in request order. If
+     * entry count does not match, entries are matched by their docid instead.
+     */
+    private static void complete(List<String> packageNames, List<BulkDetailsEntry> entries,
+                                 Map<String, CompletableFuture<BulkDetailsEntry>> batch) {
+        if (entries.size() == packageNames.size()) {
+            for (int i = 0; i < packageNames.size(); i++) {
+                batch.get(packageNames.get(i)).complete(entries.get(i));
+            }
+            return;
+        }
+
+        Map<String, BulkDetailsEntry> byDocid = new HashMap<String, BulkDetailsEntry>();
+        for (BulkDetailsEntry entry : entries) {
+            if (entry.hasDoc()) {
+                byDocid.put(entry.getDoc().getDocid(), entry);
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<BulkDetailsEntry>> waiting : batch.entrySet()) {
+            BulkDetailsEntry entry = byDocid.get(waiting.getKey());
+            waiting.getValue().complete(entry != null ? entry : BulkDetailsEntry.getDefaultInstance());
+        }
+    }
+
+    /**
+     * Flushes waiting lookups and stops accepting new ones. Requests already
+     * sent are allowed to finish. Timer is stopped first, so that no
+     * scheduled flush reaches the dispatcher after it is shut down.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        flush();
+        dispatcher.shutdown();
+    }
+}
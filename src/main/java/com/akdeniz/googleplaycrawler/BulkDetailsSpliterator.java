@@ -0,0 +1,166 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Decodes {@link BulkDetailsEntry} messages one at a time from an encoded
+ * {@link ResponseWrapper} stream, so that memory is bounded by one entry
+ * however many packages are requested. Entries are decoded as they are
+ * advanced to; fields that follow the entries are not read.
+ * <p>
+ * Size counter of {@link CodedInputStream} is reset for every entry, so
+ * responses larger than its 64 MB limit can be read. IO errors are thrown
+ * as {@link UncheckedIOException}.
+ * </p>
+ *
+ * @author akdeniz
+ * @see GooglePlayAPI#bulkDetailsStream(java.util.List)
+ */
+public class BulkDetailsSpliterator implements Spliterator<BulkDetailsEntry>, Closeable {
+
+    private static final int ENTRY_TAG =
+            (BulkDetailsResponse.ENTRY_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    private final InputStream content;
+    private final CodedInputStream in;
+    private final long expectedEntries;
+
+    /**
+     * Bytes left in <code>bulkDetailsResponse</code> field, or -1 if it is
+     * not found yet.
+     */
+    private long remaining = -1;
+    private long bytesRead;
+    private boolean done;
+
+    /**
+     * @param expectedEntries number of requested packages, used as size estimate
+     */
+    public BulkDetailsSpliterator(InputStream content, long expectedEntries) {
+        this.content = content;
+        this.in = CodedInputStream.newInstance(content);
+        this.expectedEntries = expectedEntries;
+    }
+
+    /**
+     * Bytes decoded so far.
+     */
+    public long getBytesRead() {
+        return bytesRead + in.getTotalBytesRead();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BulkDetailsEntry> action) {
+        if (done) {
+            return false;
+        }
+        try {
+            if (remaining < 0 && !seekEntries()) {
+                done = true;
+                return false;
+            }
+            while (remaining > 0) {
+                retire();
+                int tag = in.readTag();
+                if (tag != ENTRY_TAG) {
+                    in.skipField(tag);
+                    remaining -= in.getTotalBytesRead();
+                    continue;
+                }
+                int limit = in.pushLimit(in.readRawVarint32());
+                BulkDetailsEntry entry = BulkDetailsEntry.PARSER.parseFrom(in);
+                in.popLimit(limit);
+                remaining -= in.getTotalBytesRead();
+                action.accept(entry);
+                return true;
+            }
+            done = true;
+            return false;
+        } catch (IOException e) {
+            done = true;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Skips to content of <code>payload.bulkDetailsResponse</code>. Limits
+     * are tracked by hand instead of {@link CodedInputStream#pushLimit(int)},
+     * since they would be invalidated by resetting size counter.
+     *
+     * @return <code>false</code> if response does not have such field
+     */
+    private boolean seekEntries() throws IOException {
+        long payloadRemaining = -1;
+        while (true) {
+            retire();
+            int tag = in.readTag();
+            if (tag == 0) {
+                return false;
+            }
+            if (payloadRemaining < 0) {
+                if (tag == lengthDelimited(ResponseWrapper.PAYLOAD_FIELD_NUMBER)) {
+                    payloadRemaining = in.readRawVarint32() & 0xFFFFFFFFL;
+                } else {
+                    in.skipField(tag);
+                }
+                continue;
+            }
+            if (tag == lengthDelimited(GooglePlay.Payload.BULKDETAILSRESPONSE_FIELD_NUMBER)) {
+                int length = in.readRawVarint32();
+                if (length < 0) {
+                    throw new InvalidProtocolBufferException("CodedInputStream encountered an embedded string "
+                            + "or message which claimed to have negative size.");
+                }
+                remaining = length;
+                return true;
+            }
+            in.skipField(tag);
+            payloadRemaining -= in.getTotalBytesRead();
+            if (payloadRemaining <= 0) {
+                payloadRemaining = -1;
+            }
+        }
+    }
+
+    private void retire() {
+        bytesRead += in.getTotalBytesRead();
+        in.resetSizeCounter();
+    }
+
+    private static int lengthDelimited(int fieldNumber) {
+        return (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    @Override
+    public Spliterator<BulkDetailsEntry> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return done ? 0 : expectedEntries;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        content.close();
+    }
+}
@@ -0,0 +1,42 @@
+package com.akdeniz.googleplaycrawler;
+
+/**
+ * Result of a conditional request. If server answered with
+ * <code>304 Not Modified</code>, response is the one received before and
+ * {@link #isModified()} is <code>false</code>, so callers that diff
+ * responses can skip it altogether.
+ *
+ * @author akdeniz
+ */
+public class ConditionalResponse<T> {
+
+    private final T response;
+    private final String etag;
+    private final boolean modified;
+
+    public ConditionalResponse(T response, String etag, boolean modified) {
+        this.response = response;
+        this.etag = etag;
+        this.modified = modified;
+    }
+
+    public T getResponse() {
+        return response;
+    }
+
+    /**
+     * @return entity tag of response, or <code>null</code> if server did not
+     * send one
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return <code>false</code> if response has not changed since it was
+     * last fetched
+     */
+    public boolean isModified() {
+        return modified;
+    }
+}
@@ -0,0 +1,50 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.net.URI;
+
+/**
+ * Server endpoints that {@link GooglePlayAPI} talks to. Used to keep rate
+ * limits and statistics separate per endpoint.
+ *
+ * @author akdeniz
+ */
+public enum Endpoint {
+    DETAILS("/fdfe/details"), BULK_DETAILS("/fdfe/bulkDetails"), LIST("/fdfe/list"), BROWSE("/fdfe/browse"),
+    SEARCH("/fdfe/search"), REVIEWS("/fdfe/rev"), RECOMMENDATIONS("/fdfe/rec"), PURCHASE("/fdfe/purchase"),
+    ADD_REVIEW("/fdfe/addReview"), UPLOAD_DEVICE_CONFIG("/fdfe/uploadDeviceConfig"), AUTH("/auth"),
+    CHECKIN("/checkin"), C2DM_REGISTER("/c2dm/register2"), OTHER(null), DOWNLOAD(null);
+
+    private final String path;
+
+    private Endpoint(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Request path of this endpoint on <code>android.clients.google.com</code>,
+     * or <code>null</code> for downloads and unknown endpoints.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Resolves endpoint of given request URI. Requests that do not go to a
+     * known API path are APK downloads served by content hosts.
+     */
+    public static Endpoint fromUri(URI uri) {
+        String requestPath = uri.getPath();
+        if (requestPath == null) {
+            return OTHER;
+        }
+        for (Endpoint endpoint : values()) {
+            if (endpoint.path != null && endpoint.path.equals(requestPath)) {
+                return endpoint;
+            }
+        }
+        if (requestPath.startsWith("/fdfe/")) {
+            return OTHER;
+        }
+        return DOWNLOAD;
+    }
+}
@@ -2,11 +2,25 @@ package com.akdeniz.googleplaycrawler;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
@@ -17,29 +31,51 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 
 import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
 import com.akdeniz.googleplaycrawler.GooglePlay.AndroidCheckinRequest;
 import com.akdeniz.googleplaycrawler.GooglePlay.AndroidCheckinResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.BrowseResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsRequest;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
 import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsRequest.Builder;
 import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.BuyResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.DeviceConfigurationProto;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
 import com.akdeniz.googleplaycrawler.GooglePlay.HttpCookie;
 import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.PreFetch;
 import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.GooglePlay.Review;
 import com.akdeniz.googleplaycrawler.GooglePlay.ReviewResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.SearchResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.UploadDeviceConfigRequest;
 import com.akdeniz.googleplaycrawler.GooglePlay.UploadDeviceConfigResponse;
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.PayloadField;
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.Projection;
+import com.akdeniz.googleplaycrawler.PagedSpliterator.PageFetcher;
+import com.akdeniz.googleplaycrawler.cache.CacheEntry;
+import com.akdeniz.googleplaycrawler.cache.ResponseCache;
+import com.akdeniz.googleplaycrawler.http.HttpTransport;
+import com.akdeniz.googleplaycrawler.http.InflatingEntity;
+import com.akdeniz.googleplaycrawler.metrics.EndpointMetrics;
+import com.akdeniz.googleplaycrawler.metrics.MeteredEntity;
+import com.akdeniz.googleplaycrawler.metrics.MetricsRegistry;
+import com.akdeniz.googleplaycrawler.ratelimit.Backoff;
+import com.akdeniz.googleplaycrawler.ratelimit.RateLimiter;
+import com.akdeniz.googleplaycrawler.replay.ExchangeWriter;
+import com.akdeniz.googleplaycrawler.replay.RecordingHttpClient;
+import com.akdeniz.googleplaycrawler.timing.RequestTimer;
+import com.akdeniz.googleplaycrawler.timing.RequestTimingListener;
+import com.akdeniz.googleplaycrawler.timing.TimingSocketFactory;
 import org.slf4j.Logger;
 
 /**
@@ -59,23 +95,41 @@ import org.slf4j.Logger;
  */
 public class GooglePlayAPI {
 
-    private static final String CHECKIN_URL = "https://android.clients.google.com/checkin";
-    private static final String URL_LOGIN = "https://android.clients.google.com/auth";
-    private static final String C2DM_REGISTER_URL = "https://android.clients.google.com/c2dm/register2";
-    private static final String FDFE_URL = "https://android.clients.google.com/fdfe/";
-    private static final String LIST_URL = FDFE_URL + "list";
-    private static final String BROWSE_URL = FDFE_URL + "browse";
-    private static final String DETAILS_URL = FDFE_URL + "details";
-    private static final String SEARCH_URL = FDFE_URL + "search";
-    private static final String BULKDETAILS_URL = FDFE_URL + "bulkDetails";
-    private static final String PURCHASE_URL = FDFE_URL + "purchase";
-    private static final String REVIEWS_URL = FDFE_URL + "rev";
-    private static final String ADDREVIEW_URL = FDFE_URL + "addReview";
-    private static final String UPLOADDEVICECONFIG_URL = FDFE_URL + "uploadDeviceConfig";
-    private static final String RECOMMENDATIONS_URL = FDFE_URL + "rec";
+    static final String CHECKIN_URL = "https://android.clients.google.com/checkin";
+    static final String URL_LOGIN = "https://android.clients.google.com/auth";
+    static final String C2DM_REGISTER_URL = "https://android.clients.google.com/c2dm/register2";
+    static final String FDFE_URL = "https://android.clients.google.com/fdfe/";
+    static final String LIST_URL = FDFE_URL + "list";
+    static final String BROWSE_URL = FDFE_URL + "browse";
+    static final String DETAILS_URL = FDFE_URL + "details";
+    static final String SEARCH_URL = FDFE_URL + "search";
+    static final String BULKDETAILS_URL = FDFE_URL + "bulkDetails";
+    static final String PURCHASE_URL = FDFE_URL + "purchase";
+    static final String REVIEWS_URL = FDFE_URL + "rev";
+    static final String ADDREVIEW_URL = FDFE_URL + "addReview";
+    static final String UPLOADDEVICECONFIG_URL = FDFE_URL + "uploadDeviceConfig";
+    static final String RECOMMENDATIONS_URL = FDFE_URL + "rec";
+
+    /** <code>patchFormat</code> values of {@link GooglePlay.AndroidAppPatchData} */
+    public static final int PATCH_FORMAT_GDIFF = 1;
+    public static final int PATCH_FORMAT_GZIPPED_GDIFF = 2;
 
     private static final String ACCOUNT_TYPE_HOSTED_OR_GOOGLE = "HOSTED_OR_GOOGLE";
 
+    /** Default number of package names sent in one <code>bulkDetails</code> request */
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 100;
+    public static final int DEFAULT_BULK_CONCURRENCY = 4;
+    /** Number of results asked in one request by paged streams */
+    public static final int PAGE_SIZE = 20;
+
+    /**
+     * Threads that send chunks of large <code>bulkDetails</code> requests,
+     * shared by all instances. Concurrency of a single call is limited by
+     * {@link #setBulkConcurrency(int)}.
+     */
+    private static final ExecutorService BULK_EXECUTOR =
+            Executors.newCachedThreadPool(Utils.daemonThreadFactory("bulk-chunk"));
+
     public static enum REVIEW_SORT {
         NEWEST(0), HIGHRATING(1), HELPFUL(2);
 
@@ -101,8 +155,21 @@ public class GooglePlayAPI {
     private String email;
     private String password;
     private HttpClient client;
+    private HttpHost targetHost;
     private String securityToken;
     private String localization;
+    private RateLimiter rateLimiter;
+    private MetricsRegistry metrics;
+    private RequestTimingListener timingListener;
+    private Backoff backoff = new Backoff(2000, 60000);
+    private int maxRetries = 1;
+    private int bulkChunkSize = DEFAULT_BULK_CHUNK_SIZE;
+    private int bulkConcurrency = DEFAULT_BULK_CONCURRENCY;
+    private ResponseCache responseCache;
+    private long cacheSoftTtl = 60 * 60 * 1000;
+    private long cacheTtl = 24 * 60 * 60 * 1000;
+    /** ETags and encoded responses of conditional requests, when there is no <code>responseCache</code> */
+    private final ResponseCache validated = new ResponseCache(null, ResponseCache.DEFAULT_MAX_MEMORY_BYTES);
 
     private Logger logger = Utils.getLogger(this.getClass());
 
@@ -129,17 +196,21 @@ public class GooglePlayAPI {
     public GooglePlayAPI(String email, String password) {
         this.setEmail(email);
         this.password = password;
-        setClient(new DefaultHttpClient(getConnectionManager()));
+        setClient(HttpTransport.getDefault().newClient());
     }
 
     /**
-     * Connection manager to allow concurrent connections.
+     * Creates a separate connection manager to allow concurrent connections.
+     * Instances share {@link HttpTransport#getDefault()} unless another
+     * client is set, so this is only needed for a private pool, e.g. one
+     * with a custom scheme.
      *
      * @return {@link ClientConnectionManager} instance
      */
     public static ClientConnectionManager getConnectionManager() {
-        PoolingClientConnectionManager connManager =
-                new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        SchemeRegistry schemeRegistry = SchemeRegistryFactory.createDefault();
+        TimingSocketFactory.instrument(schemeRegistry);
+        PoolingClientConnectionManager connManager = new PoolingClientConnectionManager(schemeRegistry);
         connManager.setMaxTotal(100);
         connManager.setDefaultMaxPerRoute(30);
         return connManager;
@@ -248,11 +319,9 @@ public class GooglePlayAPI {
      */
     public SearchResponse search(String query, Integer offset, Integer numberOfResult) throws IOException {
 
-        ResponseWrapper responseWrapper = executeGETRequest(SEARCH_URL,
+        return executeGETRequest(SEARCH_URL,
                 new String[][]{{"c", "3"}, {"q", query}, {"o", (offset == null) ? null : String.valueOf(offset)},
-                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},});
-
-        return responseWrapper.getPayload().getSearchResponse();
+                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},}, PayloadField.SEARCH);
     }
 
     /**
@@ -261,23 +330,226 @@ public class GooglePlayAPI {
      * <code>bulkDetails</code>.
      */
     public DetailsResponse details(String packageName) throws IOException {
-        ResponseWrapper responseWrapper = executeGETRequest(DETAILS_URL, new String[][]{{"doc", packageName},});
+        return executeGETRequest(DETAILS_URL, new String[][]{{"doc", packageName},}, PayloadField.DETAILS);
+    }
 
-        return responseWrapper.getPayload().getDetailsResponse();
+    /**
+     * Fetches details of passed package name unless it has not changed since
+     * it was last fetched. Server is asked with the ETag of previous response,
+     * and on <code>304 Not Modified</code> previous response is parsed from
+     * its stored bytes.
+     */
+    public ConditionalResponse<DetailsResponse> detailsIfModified(String packageName) throws IOException {
+        return executeConditionalGETRequest(DETAILS_URL, new String[][]{{"doc", packageName},},
+                PayloadField.DETAILS);
     }
 
     /**
-     * Equivalent of details but bulky one!
+     * Equivalent of details but bulky one! Lists longer than
+     * <code>bulkChunkSize</code> are split into chunks that are sent
+     * concurrently, and their entries are merged back in order of given
+     * package names.
+     *
+     * @see #setBulkChunkSize(int)
      */
     public BulkDetailsResponse bulkDetails(List<String> packageNames) throws IOException {
+        List<BulkDetailsResponse> chunks = executeBulkRequests(packageNames, PayloadField.BULK_DETAILS);
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        BulkDetailsResponse.Builder merged = BulkDetailsResponse.newBuilder();
+        for (BulkDetailsResponse chunk : chunks) {
+            merged.addAllEntry(chunk.getEntryList());
+        }
+        return merged.build();
+    }
+
+    /**
+     * Streaming equivalent of <code>bulkDetails</code>. Entries are decoded
+     * one at a time as returned stream is consumed, so memory is bounded by
+     * a single entry whatever number of packages is requested. Lists longer
+     * than <code>bulkChunkSize</code> are sent in chunks one after another,
+     * each when the previous one is consumed, so entries keep the order of
+     * given package names. Returned stream holds a connection and must be
+     * closed.
+     * <p>
+     * IO errors during consumption are thrown as
+     * {@link UncheckedIOException}.
+     * </p>
+     */
+    public Stream<BulkDetailsEntry> bulkDetailsStream(List<String> packageNames) throws IOException {
+        if (packageNames.size() <= bulkChunkSize) {
+            return executeBulkStream(packageNames);
+        }
+
+        List<List<String>> chunks = bulkChunks(packageNames);
+        Stream<BulkDetailsEntry> first = executeBulkStream(chunks.get(0));
+        return Stream.concat(first, chunks.subList(1, chunks.size()).stream().flatMap(
+                new Function<List<String>, Stream<BulkDetailsEntry>>() {
+                    @Override
+                    public Stream<BulkDetailsEntry> apply(List<String> chunk) {
+                        try {
+                            return executeBulkStream(chunk);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }));
+    }
+
+    private Stream<BulkDetailsEntry> executeBulkStream(List<String> packageNames) throws IOException {
 
         Builder bulkDetailsRequestBuilder = BulkDetailsRequest.newBuilder();
         bulkDetailsRequestBuilder.addAllDocid(packageNames);
 
-        ResponseWrapper responseWrapper = executePOSTRequest(BULKDETAILS_URL, bulkDetailsRequestBuilder.build().toByteArray(),
-                "application/x-protobuf");
+        HttpUriRequest request = createPostRequest(BULKDETAILS_URL,
+                new ByteArrayEntity(bulkDetailsRequestBuilder.build().toByteArray()),
+                getHeaderParameters(this.getToken(), "application/x-protobuf", "23"));
+        final RequestTimer timer = new RequestTimer(request.getURI());
+        HttpResponse response = execute(request, timer);
+        final BulkDetailsSpliterator spliterator =
+                new BulkDetailsSpliterator(response.getEntity().getContent(), packageNames.size());
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                timer.transferred(spliterator.getBytesRead());
+                parsed(timer, -1);
+                try {
+                    spliterator.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
 
-        return responseWrapper.getPayload().getBulkDetailsResponse();
+    /**
+     * Hands entries of <code>bulkDetails</code> to given consumer as they
+     * are decoded.
+     *
+     * @see #bulkDetailsStream(List)
+     */
+    public void bulkDetails(List<String> packageNames, Consumer<? super BulkDetailsEntry> consumer)
+            throws IOException {
+        Stream<BulkDetailsEntry> entries = bulkDetailsStream(packageNames);
+        try {
+            entries.forEach(consumer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            entries.close();
+        }
+    }
+
+    /**
+     * Fetches only version fields of passed package name. Response is
+     * scanned instead of parsed, which is considerably cheaper than
+     * <code>details</code> when nothing else is needed.
+     *
+     * @return version fields, or <code>null</code> if there is no such package
+     */
+    public VersionProbe detailsVersion(String packageName) throws IOException {
+        return executeGETRequest(DETAILS_URL, new String[][]{{"doc", packageName},}, VersionProbe.DETAILS_PROJECTION);
+    }
+
+    /**
+     * Equivalent of <code>detailsVersion</code> but bulky one! Versions are
+     * returned in order of given package names, and unknown packages are
+     * <code>null</code>.
+     */
+    public List<VersionProbe> bulkVersions(List<String> packageNames) throws IOException {
+        List<List<VersionProbe>> chunks = executeBulkRequests(packageNames, VersionProbe.BULK_DETAILS_PROJECTION);
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        List<VersionProbe> merged = new ArrayList<VersionProbe>(packageNames.size());
+        for (List<VersionProbe> chunk : chunks) {
+            merged.addAll(chunk);
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * Sends <code>bulkDetails</code> requests of at most
+     * <code>bulkChunkSize</code> package names each, up to
+     * <code>bulkConcurrency</code> of them at once. The calling thread sends
+     * chunks too. A chunk that fails is retried once on its own after the
+     * others are done, so a single bad chunk does not fail the whole call.
+     *
+     * @return results of chunks in order of given package names
+     */
+    private <T> List<T> executeBulkRequests(List<String> packageNames, final Projection<T> projection)
+            throws IOException {
+        if (packageNames.size() <= bulkChunkSize) {
+            return Collections.singletonList(executeBulkRequest(packageNames, projection));
+        }
+
+        final List<List<String>> chunks = bulkChunks(packageNames);
+        final List<T> results = new ArrayList<T>(Collections.<T>nCopies(chunks.size(), null));
+        final IOException[] failures = new IOException[chunks.size()];
+        final AtomicInteger next = new AtomicInteger();
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = next.getAndIncrement()) < chunks.size()) {
+                    try {
+                        results.set(chunk, executeBulkRequest(chunks.get(chunk), projection));
+                    } catch (IOException e) {
+                        failures[chunk] = e;
+                    }
+                }
+            }
+        };
+
+        List<Future<?>> helpers = new ArrayList<Future<?>>();
+        for (int i = 1; i < Math.min(bulkConcurrency, chunks.size()); i++) {
+            helpers.add(BULK_EXECUTOR.submit(worker));
+        }
+        try {
+            worker.run();
+            for (Future<?> helper : helpers) {
+                helper.get();
+            }
+        } catch (InterruptedException e) {
+            next.set(chunks.size());
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bulkDetails chunks");
+        } catch (ExecutionException e) {
+            next.set(chunks.size());
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+
+        for (int chunk = 0; chunk < chunks.size(); chunk++) {
+            if (failures[chunk] != null) {
+                logger.warn("bulkDetails chunk {} of {} failed, retrying: {}", chunk + 1, chunks.size(),
+                        failures[chunk].getMessage());
+                results.set(chunk, executeBulkRequest(chunks.get(chunk), projection));
+            }
+        }
+        return results;
+    }
+
+    private List<List<String>> bulkChunks(List<String> packageNames) {
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        for (int from = 0; from < packageNames.size(); from += bulkChunkSize) {
+            chunks.add(packageNames.subList(from, Math.min(from + bulkChunkSize, packageNames.size())));
+        }
+        return chunks;
+    }
+
+    private <T> T executeBulkRequest(List<String> packageNames, Projection<T> projection) throws IOException {
+
+        Builder bulkDetailsRequestBuilder = BulkDetailsRequest.newBuilder();
+        bulkDetailsRequestBuilder.addAllDocid(packageNames);
+
+        return executePOSTRequest(BULKDETAILS_URL, bulkDetailsRequestBuilder.build().toByteArray(),
+                "application/x-protobuf", projection);
     }
 
     /**
@@ -290,10 +562,8 @@ public class GooglePlayAPI {
 
     public BrowseResponse browse(String categoryId, String subCategoryId) throws IOException {
 
-        ResponseWrapper responseWrapper = executeGETRequest(BROWSE_URL, new String[][]{{"c", "3"}, {"cat", categoryId},
-                {"ctr", subCategoryId}});
-
-        return responseWrapper.getPayload().getBrowseResponse();
+        return executeGETRequest(BROWSE_URL, new String[][]{{"c", "3"}, {"cat", categoryId},
+                {"ctr", subCategoryId}}, PayloadField.BROWSE);
     }
 
     /**
@@ -313,11 +583,22 @@ public class GooglePlayAPI {
      * respectively. These values are determined by Google Play Store.
      */
     public ListResponse list(String categoryId, String subCategoryId, Integer offset, Integer numberOfResult) throws IOException {
-        ResponseWrapper responseWrapper = executeGETRequest(LIST_URL, new String[][]{{"c", "3"}, {"cat", categoryId},
+        return executeGETRequest(LIST_URL, new String[][]{{"c", "3"}, {"cat", categoryId},
                 {"ctr", subCategoryId}, {"o", (offset == null) ? null : String.valueOf(offset)},
-                {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},});
+                {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},}, PayloadField.LIST);
+    }
 
-        return responseWrapper.getPayload().getListResponse();
+    /**
+     * Conditional equivalent of <code>list</code>.
+     *
+     * @see #detailsIfModified(String)
+     */
+    public ConditionalResponse<ListResponse> listIfModified(String categoryId, String subCategoryId, Integer offset,
+                                                            Integer numberOfResult) throws IOException {
+        return executeConditionalGETRequest(LIST_URL, new String[][]{
+                {"c", "3"}, {"cat", categoryId}, {"ctr", subCategoryId},
+                {"o", (offset == null) ? null : String.valueOf(offset)},
+                {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)},}, PayloadField.LIST);
     }
 
     /**
@@ -326,15 +607,44 @@ public class GooglePlayAPI {
      **/
     public InputStream download(String packageName, int versionCode, int offerType, String sdk) throws IOException {
 
-        BuyResponse buyResponse = purchase(packageName, versionCode, offerType, sdk);
-
-        AndroidAppDeliveryData appDeliveryData = buyResponse.getPurchaseStatusResponse().getAppDeliveryData();
+        AndroidAppDeliveryData appDeliveryData = deliveryData(packageName, versionCode, offerType, sdk);
 
-        String downloadUrl = appDeliveryData.getDownloadUrl();
         HttpCookie downloadAuthCookie = appDeliveryData.getDownloadAuthCookie(0);
+        String cookie = downloadAuthCookie.getName() + "=" + downloadAuthCookie.getValue();
+
+        // gzipped variant is considerably smaller, it is inflated while read
+        if (appDeliveryData.hasGzippedDownloadUrl()) {
+            return new GZIPInputStream(executeDownload(appDeliveryData.getGzippedDownloadUrl(), cookie), 64 * 1024);
+        }
+        return executeDownload(appDeliveryData.getDownloadUrl(), cookie);
+
+    }
+
+    /**
+     * Fetches download url, size, signature and download cookie of given
+     * application package name, version and offer type.
+     *
+     * @see com.akdeniz.googleplaycrawler.download.ApkDownloader
+     */
+    public AndroidAppDeliveryData deliveryData(String packageName, int versionCode, int offerType, String sdk)
+            throws IOException {
 
-        return executeDownload(downloadUrl, downloadAuthCookie.getName() + "=" + downloadAuthCookie.getValue());
+        return deliveryData(packageName, versionCode, offerType, sdk, -1);
+    }
 
+    /**
+     * Fetches delivery data like {@link #deliveryData(String, int, int, String)}
+     * but also tells server that <code>baseVersionCode</code> of the package
+     * is already held, so that it may offer a GDIFF patch against it in
+     * <code>patchData</code>.
+     *
+     * @param baseVersionCode held version of the package, or -1 if there is none
+     */
+    public AndroidAppDeliveryData deliveryData(String packageName, int versionCode, int offerType, String sdk,
+                                               int baseVersionCode) throws IOException {
+
+        BuyResponse buyResponse = purchase(packageName, versionCode, offerType, sdk, baseVersionCode);
+        return buyResponse.getPurchaseStatusResponse().getAppDeliveryData();
     }
 
     /**
@@ -353,12 +663,14 @@ public class GooglePlayAPI {
      * This function is used for fetching download url and donwload cookie,
      * rather than actual purchasing.
      */
-    private BuyResponse purchase(String packageName, int versionCode, int offerType, String sdk) throws IOException {
-
-        ResponseWrapper responseWrapper = executePOSTRequest(PURCHASE_URL, new String[][]{{"ot", String.valueOf(offerType)},
-                {"doc", packageName}, {"vc", String.valueOf(versionCode)},}, sdk);
+    private BuyResponse purchase(String packageName, int versionCode, int offerType, String sdk, int baseVersionCode)
+            throws IOException {
 
-        return responseWrapper.getPayload().getBuyResponse();
+        String bvc = baseVersionCode < 0 ? null : String.valueOf(baseVersionCode);
+        return executePOSTRequest(PURCHASE_URL, new String[][]{{"ot", String.valueOf(offerType)},
+                {"doc", packageName}, {"vc", String.valueOf(versionCode)}, {"bvc", bvc},
+                {"pf", bvc == null ? null : String.valueOf(PATCH_FORMAT_GDIFF)},
+                {"pf", bvc == null ? null : String.valueOf(PATCH_FORMAT_GZIPPED_GDIFF)},}, sdk, PayloadField.BUY);
     }
 
     /**
@@ -366,13 +678,47 @@ public class GooglePlayAPI {
      */
     public InputStream executeDownload(String url, String cookie) throws IOException {
 
-        String[][] headerParams = new String[][]{{"Cookie", cookie},
-                {"User-Agent", "AndroidDownloadManager/5.1.1 (Linux; U; Android 5.1.1; SAMSUNG-SM-G530AZ Build/LMY47V)"},};
-
-        HttpEntity httpEntity = executeGet(url, null, headerParams);
+        HttpEntity httpEntity = executeGet(url, null, getDownloadHeaderParameters(cookie));
         return httpEntity.getContent();
     }
 
+    /**
+     * Fetches given byte range of url content with provided cookie string.
+     * Server may ignore the range and answer with whole content, so status
+     * code (200 or 206) of returned response must be checked.
+     *
+     * @param rangeEnd last byte to fetch (inclusive), or a negative value to fetch until the end
+     */
+    public HttpResponse executeDownload(String url, String cookie, long rangeStart, long rangeEnd) throws IOException {
+        return executeDownload(url, cookie, rangeStart, rangeEnd, null);
+    }
+
+    /**
+     * Fetches given byte range of url content only if content still has given
+     * ETag. Otherwise server answers with whole content and 200.
+     *
+     * @param ifRange strong ETag of content, or <code>null</code> to fetch the range unconditionally
+     */
+    public HttpResponse executeDownload(String url, String cookie, long rangeStart, long rangeEnd, String ifRange)
+            throws IOException {
+
+        HttpGet httpget = createGetRequest(url, null, getDownloadHeaderParameters(cookie));
+        httpget.setHeader("Range", "bytes=" + rangeStart + "-" + (rangeEnd < 0 ? "" : String.valueOf(rangeEnd)));
+        if (ifRange != null) {
+            httpget.setHeader("If-Range", ifRange);
+        }
+        return execute(httpget);
+    }
+
+    /**
+     * Gets header parameters for download requests that are authorized with
+     * given cookie string.
+     */
+    static String[][] getDownloadHeaderParameters(String cookie) {
+        return new String[][]{{"Cookie", cookie},
+                {"User-Agent", "AndroidDownloadManager/5.1.1 (Linux; U; Android 5.1.1; SAMSUNG-SM-G530AZ Build/LMY47V)"},};
+    }
+
     /**
      * Fetches the reviews of given package name by sorting passed choice.
      * <p>
@@ -381,12 +727,10 @@ public class GooglePlayAPI {
      */
     public ReviewResponse reviews(String packageName, REVIEW_SORT sort, Integer offset, Integer numberOfResult)
             throws IOException {
-        ResponseWrapper responseWrapper = executeGETRequest(REVIEWS_URL,
+        return executeGETRequest(REVIEWS_URL,
                 new String[][]{{"doc", packageName}, {"sort", (sort == null) ? null : String.valueOf(sort.value)},
                         {"o", (offset == null) ? null : String.valueOf(offset)},
-                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)}});
-
-        return responseWrapper.getPayload().getReviewResponse();
+                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)}}, PayloadField.REVIEW);
     }
 
     /**
@@ -406,9 +750,8 @@ public class GooglePlayAPI {
             request = UploadDeviceConfigRequest.newBuilder()
                     .setDeviceConfiguration(Utils.getDeviceConfigurationProto(device)).build();
         }
-        ResponseWrapper responseWrapper = executePOSTRequest(UPLOADDEVICECONFIG_URL, request.toByteArray(),
-                "application/x-protobuf");
-        return responseWrapper.getPayload().getUploadDeviceConfigResponse();
+        return executePOSTRequest(UPLOADDEVICECONFIG_URL, request.toByteArray(), "application/x-protobuf",
+                PayloadField.UPLOAD_DEVICE_CONFIG);
     }
 
     /**
@@ -419,51 +762,287 @@ public class GooglePlayAPI {
      */
     public ListResponse recommendations(String packageName, RECOMMENDATION_TYPE type, Integer offset, Integer numberOfResult)
             throws IOException {
-        ResponseWrapper responseWrapper = executeGETRequest(RECOMMENDATIONS_URL,
+        return executeGETRequest(RECOMMENDATIONS_URL,
                 new String[][]{{"c", "3"}, {"doc", packageName}, {"rt", (type == null) ? null : String.valueOf(type.value)},
                         {"o", (offset == null) ? null : String.valueOf(offset)},
-                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)}});
+                        {"n", (numberOfResult == null) ? null : String.valueOf(numberOfResult)}}, PayloadField.LIST);
+    }
 
-        return responseWrapper.getPayload().getListResponse();
+    /**
+     * Applications of <code>list</code>, fetched page by page as returned
+     * stream is consumed. It ends at the end of the listing or after
+     * <code>limit</code> results, whichever comes first.
+     *
+     * @see PagedSpliterator
+     */
+    public Stream<DocV2> listStream(final String categoryId, final String subCategoryId, int offset, int limit) {
+        return pagedStream(new PageFetcher<DocV2>() {
+            @Override
+            public List<DocV2> fetch(int pageOffset, int count) throws IOException {
+                ListResponse response = list(categoryId, subCategoryId, pageOffset, count);
+                return response.getDocCount() == 0 ? Collections.<DocV2>emptyList()
+                        : response.getDoc(0).getChildList();
+            }
+        }, offset, limit);
+    }
+
+    /**
+     * Paged stream of <code>search</code> results.
+     *
+     * @see #listStream(String, String, int, int)
+     */
+    public Stream<DocV2> searchStream(final String query, int offset, int limit) {
+        return pagedStream(new PageFetcher<DocV2>() {
+            @Override
+            public List<DocV2> fetch(int pageOffset, int count) throws IOException {
+                SearchResponse response = search(query, pageOffset, count);
+                return response.getDocCount() == 0 ? Collections.<DocV2>emptyList()
+                        : response.getDoc(0).getChildList();
+            }
+        }, offset, limit);
+    }
+
+    /**
+     * Paged stream of <code>reviews</code>.
+     *
+     * @see #listStream(String, String, int, int)
+     */
+    public Stream<Review> reviewsStream(final String packageName, final REVIEW_SORT sort, int offset, int limit) {
+        return pagedStream(new PageFetcher<Review>() {
+            @Override
+            public List<Review> fetch(int pageOffset, int count) throws IOException {
+                return reviews(packageName, sort, pageOffset, count).getGetResponse().getReviewList();
+            }
+        }, offset, limit);
+    }
+
+    /**
+     * Paged stream of <code>recommendations</code>.
+     *
+     * @see #listStream(String, String, int, int)
+     */
+    public Stream<DocV2> recommendationsStream(final String packageName, final RECOMMENDATION_TYPE type, int offset,
+                                               int limit) {
+        return pagedStream(new PageFetcher<DocV2>() {
+            @Override
+            public List<DocV2> fetch(int pageOffset, int count) throws IOException {
+                ListResponse response = recommendations(packageName, type, pageOffset, count);
+                return response.getDocCount() == 0 ? Collections.<DocV2>emptyList()
+                        : response.getDoc(0).getChildList();
+            }
+        }, offset, limit);
     }
 
     /* =======================Helper Functions====================== */
 
     /**
-     * Executes GET request and returns result as {@link ResponseWrapper}.
+     * Closing returned stream cancels pages being prefetched, including
+     * those of its splits if it is parallel.
+     */
+    private static <T> Stream<T> pagedStream(PageFetcher<T> fetcher, int offset, int limit) {
+        final PagedSpliterator<T> spliterator = new PagedSpliterator<T>(fetcher, offset, limit, PAGE_SIZE);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                spliterator.close();
+            }
+        });
+    }
+
+    /**
+     * Executes GET request and returns given projection of its response.
      * Standard header parameters will be used for request.
      *
      * @see getHeaderParameters
      */
-    private ResponseWrapper executeGETRequest(String path, String[][] datapost) throws IOException {
+    private <T> T executeGETRequest(final String path, final String[][] datapost, final Projection<T> projection)
+            throws IOException {
+
+        if (responseCache == null) {
+            return executeFdfe(createGetRequest(path, datapost, getHeaderParameters(this.getToken(), null, "23")),
+                    projection);
+        }
+
+        HttpGet httpget = createGetRequest(path, datapost, getHeaderParameters(this.getToken(), null, "23"));
+        final String key = getCacheKey(httpget.getURI().toString());
+        CacheEntry entry = responseCache.get(key);
+        if (entry == null) {
+            return executeAndCache(httpget, key, projection);
+        }
+
+        // stale entries are served while a fresh copy is fetched in background
+        if (!entry.isFresh(System.currentTimeMillis())) {
+            responseCache.revalidate(key, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executeAndCache(createGetRequest(path, datapost,
+                                getHeaderParameters(getToken(), null, "23")), key, projection);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        return projection.project(LazyResponseWrapper.wrap(entry.getResponse()));
+    }
+
+    /**
+     * Executes given request and stores its response, and any
+     * {@link PreFetch} responses it carries, in <code>responseCache</code>.
+     */
+    private <T> T executeAndCache(HttpUriRequest request, String key, Projection<T> projection) throws IOException {
+
+        RequestTimer timer = new RequestTimer(request.getURI());
+        HttpResponse response = execute(request, timer);
+        byte[] content = readContent(response, timer);
+        LazyResponseWrapper responseWrapper = LazyResponseWrapper.wrap(content);
+        T result = projection.project(responseWrapper);
+        parsed(timer, responseWrapper.getServerLatencyMillis());
+
+        if (responseWrapper.getCommands().getClearCache()) {
+            responseCache.clear();
+        }
+
+        long now = System.currentTimeMillis();
+        Header etag = response.getFirstHeader("ETag");
+        responseCache.put(key, new CacheEntry(content, etag == null ? null : etag.getValue(), now + cacheSoftTtl,
+                now + cacheTtl));
+
+        for (PreFetch preFetch : responseWrapper.getPreFetchList()) {
+            String url = preFetch.getUrl().startsWith("http") ? preFetch.getUrl() : FDFE_URL + preFetch.getUrl();
+            responseCache.put(getCacheKey(url), new CacheEntry(preFetch.getResponse().toByteArray(),
+                    preFetch.hasEtag() ? preFetch.getEtag() : null, now + preFetch.getSoftTtl(),
+                    now + preFetch.getTtl()));
+        }
+        return result;
+    }
+
+    /**
+     * Executes GET request with <code>If-None-Match</code> header if an ETag
+     * of the same request is known, either in <code>responseCache</code> or,
+     * without one, in memory. Only the ETag and encoded bytes of a response
+     * are kept, and they are parsed only when server answers
+     * <code>304 Not Modified</code>.
+     */
+    private <T> ConditionalResponse<T> executeConditionalGETRequest(String path, String[][] datapost,
+                                                                    Projection<T> projection) throws IOException {
+
+        HttpGet httpget = createGetRequest(path, datapost, getHeaderParameters(this.getToken(), null, "23"));
+        String key = getCacheKey(httpget.getURI().toString());
+        ResponseCache validators = responseCache != null ? responseCache : validated;
 
-        HttpEntity httpEntity = executeGet(path, datapost, getHeaderParameters(this.getToken(), null, "23"));
-        return GooglePlay.ResponseWrapper.parseFrom(httpEntity.getContent());
+        // expired entries are still good for validation
+        CacheEntry previous = validators.getValidator(key);
+        if (previous != null) {
+            httpget.setHeader("If-None-Match", previous.getEtag());
+        }
+
+        RequestTimer timer = new RequestTimer(httpget.getURI());
+        HttpResponse response = execute(httpget, timer);
+        long now = System.currentTimeMillis();
+        if (response.getStatusLine().getStatusCode() == 304) {
+            EntityUtils.consume(response.getEntity());
+            if (previous == null) {
+                throw new GooglePlayException("Not modified without a previous response of " + httpget.getURI(), 304);
+            }
+            T result = projection.project(LazyResponseWrapper.wrap(previous.getResponse()));
+            notifyTiming(timer);
+            if (validators == responseCache) {
+                responseCache.put(key, new CacheEntry(previous.getResponse(), previous.getEtag(),
+                        now + cacheSoftTtl, now + cacheTtl));
+            }
+            return new ConditionalResponse<T>(result, previous.getEtag(), false);
+        }
+
+        byte[] content = readContent(response, timer);
+        LazyResponseWrapper responseWrapper = LazyResponseWrapper.wrap(content);
+        T result = projection.project(responseWrapper);
+        parsed(timer, responseWrapper.getServerLatencyMillis());
 
+        Header etag = response.getFirstHeader("ETag");
+        if (etag == null) {
+            validators.remove(key);
+            return new ConditionalResponse<T>(result, null, true);
+        }
+        if (validators == responseCache) {
+            responseCache.put(key, new CacheEntry(content, etag.getValue(), now + cacheSoftTtl, now + cacheTtl));
+        } else {
+            validated.put(key, new CacheEntry(content, etag.getValue(), Long.MAX_VALUE, Long.MAX_VALUE));
+        }
+        return new ConditionalResponse<T>(result, etag.getValue(), true);
     }
 
     /**
-     * Executes POST request and returns result as {@link ResponseWrapper}.
+     * Responses depend on requested url, localization and device profile.
+     */
+    private String getCacheKey(String url) {
+        return url + "|" + localization + "|" + androidID;
+    }
+
+    /**
+     * Executes POST request and returns given projection of its response.
      * Standard header parameters will be used for request.
      *
      * @see getHeaderParameters
      */
-    private ResponseWrapper executePOSTRequest(String path, String[][] datapost, String sdk) throws IOException {
-
-        HttpEntity httpEntity = executePost(path, datapost, getHeaderParameters(this.getToken(), null, sdk));
-        return GooglePlay.ResponseWrapper.parseFrom(httpEntity.getContent());
+    private <T> T executePOSTRequest(String path, String[][] datapost, String sdk, Projection<T> projection)
+            throws IOException {
 
+        return executeFdfe(createPostRequest(path, createFormEntity(datapost),
+                getHeaderParameters(this.getToken(), null, sdk)), projection);
     }
 
     /**
-     * Executes POST request and returns result as {@link ResponseWrapper}.
+     * Executes POST request and returns given projection of its response.
      * Content type can be specified for given byte array.
      */
-    private ResponseWrapper executePOSTRequest(String url, byte[] datapost, String contentType) throws IOException {
+    private <T> T executePOSTRequest(String url, byte[] datapost, String contentType, Projection<T> projection)
+            throws IOException {
+
+        return executeFdfe(createPostRequest(url, new ByteArrayEntity(datapost),
+                getHeaderParameters(this.getToken(), contentType, "23")), projection);
+    }
+
+    /**
+     * Executes FDFE request and parses only what given projection needs.
+     * Body is inflated, if it is gzip encoded, into a buffer that is reused
+     * by next request of the same thread.
+     */
+    private <T> T executeFdfe(HttpUriRequest request, Projection<T> projection) throws IOException {
+
+        RequestTimer timer = new RequestTimer(request.getURI());
+        HttpResponse response = execute(request, timer);
+        HttpEntity entity = response.getEntity();
+        InputStream content = entity.getContent();
+        LazyResponseWrapper responseWrapper;
+        try {
+            responseWrapper = LazyResponseWrapper.read(content, entity.getContentLength());
+        } finally {
+            content.close();
+        }
+        timer.transferred(responseWrapper.getSerializedSize());
+        T result = projection.project(responseWrapper);
+        parsed(timer, responseWrapper.getServerLatencyMillis());
+        return result;
+    }
+
+    private static byte[] readContent(HttpResponse response, RequestTimer timer) throws IOException {
+        byte[] content = EntityUtils.toByteArray(response.getEntity());
+        timer.transferred(content.length);
+        return content;
+    }
 
-        HttpEntity httpEntity = executePost(url, new ByteArrayEntity(datapost), getHeaderParameters(this.getToken(), contentType, "23"));
-        return GooglePlay.ResponseWrapper.parseFrom(httpEntity.getContent());
+    private void parsed(RequestTimer timer, long serverLatencyMillis) {
+        timer.parsed(serverLatencyMillis);
+        notifyTiming(timer);
+    }
 
+    private void notifyTiming(RequestTimer timer) {
+        RequestTimingListener listener = timingListener;
+        if (listener != null) {
+            listener.onRequest(timer.finish());
+        }
     }
 
     /**
@@ -471,6 +1050,30 @@ public class GooglePlayAPI {
      * parameters.
      */
     private HttpEntity executePost(String url, String[][] postParams, String[][] headerParams) throws IOException {
+        return executePost(url, createFormEntity(postParams), headerParams);
+    }
+
+    /**
+     * Executes POST request on given URL with {@link HttpEntity} typed POST
+     * parameters and header parameters.
+     */
+    private HttpEntity executePost(String url, HttpEntity postData, String[][] headerParams) throws IOException {
+        return executeHttpRequest(createPostRequest(url, postData, headerParams));
+    }
+
+    /**
+     * Executes GET request on given URL with GET parameters and header
+     * parameters.
+     */
+    private HttpEntity executeGet(String url, String[][] getParams, String[][] headerParams) throws IOException {
+        return executeHttpRequest(createGetRequest(url, getParams, headerParams));
+    }
+
+    /**
+     * Builds url encoded form entity from given POST parameters. Parameters
+     * with <code>null</code> name or value are skipped.
+     */
+    static UrlEncodedFormEntity createFormEntity(String[][] postParams) throws IOException {
 
         List<NameValuePair> formparams = new ArrayList<NameValuePair>();
 
@@ -480,36 +1083,25 @@ public class GooglePlayAPI {
             }
         }
 
-        UrlEncodedFormEntity entity = new UrlEncodedFormEntity(formparams, "UTF-8");
-
-        return executePost(url, entity, headerParams);
+        return new UrlEncodedFormEntity(formparams, "UTF-8");
     }
 
     /**
-     * Executes POST request on given URL with {@link HttpEntity} typed POST
+     * Builds POST request on given URL with {@link HttpEntity} typed POST
      * parameters and header parameters.
      */
-    private HttpEntity executePost(String url, HttpEntity postData, String[][] headerParams) throws IOException {
+    static HttpPost createPostRequest(String url, HttpEntity postData, String[][] headerParams) {
         HttpPost httppost = new HttpPost(url);
-
-        if (headerParams != null) {
-            for (String[] param : headerParams) {
-                if (param[0] != null && param[1] != null) {
-                    httppost.setHeader(param[0], param[1]);
-                }
-            }
-        }
-
+        setHeaders(httppost, headerParams);
         httppost.setEntity(postData);
-
-        return executeHttpRequest(httppost);
+        return httppost;
     }
 
     /**
-     * Executes GET request on given URL with GET parameters and header
+     * Builds GET request on given URL with GET parameters and header
      * parameters.
      */
-    private HttpEntity executeGet(String url, String[][] getParams, String[][] headerParams) throws IOException {
+    static HttpGet createGetRequest(String url, String[][] getParams, String[][] headerParams) {
 
         if (getParams != null) {
             List<NameValuePair> formparams = new ArrayList<NameValuePair>();
@@ -524,51 +1116,156 @@ public class GooglePlayAPI {
         }
 
         HttpGet httpget = new HttpGet(url);
+        setHeaders(httpget, headerParams);
+        return httpget;
+    }
 
+    private static void setHeaders(HttpUriRequest request, String[][] headerParams) {
         if (headerParams != null) {
             for (String[] param : headerParams) {
                 if (param[0] != null && param[1] != null) {
-                    httpget.setHeader(param[0], param[1]);
+                    request.setHeader(param[0], param[1]);
                 }
             }
         }
-
-        return executeHttpRequest(httpget);
     }
 
     /**
-     * Executes given GET/POST request
+     * Executes given GET/POST request and returns response entity.
      */
     private HttpEntity executeHttpRequest(HttpUriRequest request) throws ClientProtocolException, IOException {
+        return execute(request).getEntity();
+    }
+
+    /**
+     * Executes given GET/POST request and returns successful (200 or 206)
+     * response, or 304 if request is conditional. Requests throttled by
+     * server with 429 are retried up to <code>maxRetries</code> times with
+     * jittered exponential backoff.
+     */
+    private HttpResponse execute(HttpUriRequest request) throws ClientProtocolException, IOException {
+        RequestTimer timer = new RequestTimer(request.getURI());
+        HttpResponse response = execute(request, timer);
+        notifyTiming(timer);
+        return response;
+    }
+
+    /**
+     * Executes request like {@link #execute(HttpUriRequest)}, recording its
+     * phases up to response headers to given timer. Timing is reported here
+     * only if request fails, otherwise caller reports it once response is
+     * consumed.
+     */
+    private HttpResponse execute(HttpUriRequest request, RequestTimer timer) throws IOException {
         HttpClient client = getClient();
-        for(int i=2;i>0;--i) {
-            HttpResponse response = client.execute(request);
+        Endpoint endpoint = timer.getEndpoint();
+        EndpointMetrics endpointMetrics = metrics == null ? null : metrics.get(endpoint);
+        for (int retry = 0; ; retry++) {
+            acquirePermit(endpoint);
+            timer.beforeSend();
+            long started = System.nanoTime();
+            HttpResponse response;
+            try {
+                response = targetHost == null ? client.execute(request) : client.execute(targetHost, request);
+            } catch (IOException e) {
+                if (endpointMetrics != null) {
+                    endpointMetrics.onError(System.nanoTime() - started);
+                }
+                timer.headersReceived(0);
+                notifyTiming(timer);
+                throw e;
+            }
             int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode != 200) {
-                byte[] content = Utils.readAll(response.getEntity().getContent());
-                String msg = new String(content);
-                if(statusCode == 429 && i != 1) {
-                    logger.warn("429 {}", msg);
-                    try {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+            timer.headersReceived(statusCode);
+            if (endpointMetrics != null) {
+                endpointMetrics.onResponse(statusCode, System.nanoTime() - started);
+                meter(request, response, endpointMetrics);
+            }
+            InflatingEntity.decode(response, endpointMetrics);
+            if (statusCode == 200 || statusCode == 206
+                    || (statusCode == 304 && request.containsHeader("If-None-Match"))) {
+                if (rateLimiter != null) {
+                    rateLimiter.onSuccess(endpoint);
+                }
+                return response;
+            }
+
+            byte[] content = Utils.readAll(response.getEntity().getContent());
+            String msg = new String(content);
+            if (statusCode == 429) {
+                if (rateLimiter != null) {
+                    rateLimiter.onThrottled(endpoint);
+                }
+                if (retry < maxRetries) {
+                    if (endpointMetrics != null) {
+                        endpointMetrics.onRetry();
                     }
+                    long delay = backoff.delayMillis(retry, getRetryAfterMillis(response));
+                    logger.warn("429 on {}, retrying in {} ms: {}", endpoint, delay, msg);
+                    sleep(delay);
                     continue;
-                }else{
-                    throw new GooglePlayException(msg);
                 }
             }
-            return response.getEntity();
+            notifyTiming(timer);
+            throw new GooglePlayException(msg, statusCode);
+        }
+    }
+
+    private static void meter(HttpUriRequest request, HttpResponse response, EndpointMetrics endpointMetrics) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && entity.getContentLength() > 0) {
+                endpointMetrics.addBytesSent(entity.getContentLength());
+            }
+        }
+        if (response.getEntity() != null) {
+            response.setEntity(new MeteredEntity(response.getEntity(), endpointMetrics));
+        }
+    }
+
+    private void acquirePermit(Endpoint endpoint) throws IOException {
+        if (rateLimiter == null) {
+            return;
+        }
+        try {
+            rateLimiter.acquire(endpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + endpoint + " permit!");
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off!");
+        }
+    }
+
+    /**
+     * Parses delay-seconds form of <code>Retry-After</code> header.
+     *
+     * @return delay in milliseconds, or -1 if there is no such header
+     */
+    static long getRetryAfterMillis(HttpResponse response) {
+        Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Long.parseLong(retryAfter.getValue().trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // HTTP-date form is not supported, fall back to backoff
+            }
         }
-        return null;
+        return -1;
     }
 
     /**
      * Gets header parameters for GET/POST requests. If no content type is
      * given, default one is used!
      */
-    private String[][] getHeaderParameters(String token, String contentType, String sdk) {
+    String[][] getHeaderParameters(String token, String contentType, String sdk) {
 
         Map<String, String> sdkMap = new HashMap<>();
         sdkMap.put("10", "2.3.3 Gingerbread");
@@ -605,6 +1302,7 @@ public class GooglePlayAPI {
                 {"X-DFE-SmallestScreenWidthDp", "320"},
                 {"X-DFE-Filter-Level", "3"},
                 {"Host", "android.clients.google.com"},
+                {"Accept-Encoding", "gzip"},
                 {"Content-Type", (contentType != null) ? contentType : "application/x-www-form-urlencoded; charset=UTF-8"}};
     }
 
@@ -647,6 +1345,38 @@ public class GooglePlayAPI {
         this.client = client;
     }
 
+    public HttpHost getTargetHost() {
+        return targetHost;
+    }
+
+    /**
+     * Sends every request to given host instead of the one in its URL, e.g.
+     * to an {@link com.akdeniz.googleplaycrawler.emulator.FdfeEmulator}.
+     * <code>null</code> (default) sends requests to Google servers.
+     */
+    public void setTargetHost(HttpHost targetHost) {
+        this.targetHost = targetHost;
+    }
+
+    /**
+     * Wraps current client, so that every exchange of this instance is
+     * appended to given archive. Recorded archive can be served back by a
+     * {@link com.akdeniz.googleplaycrawler.replay.ReplayHttpClient}.
+     */
+    public void startRecording(ExchangeWriter writer) {
+        setClient(new RecordingHttpClient(getClient(), writer));
+    }
+
+    /**
+     * Restores client that was wrapped by <code>startRecording</code>.
+     * Archive is not closed.
+     */
+    public void stopRecording() {
+        if (client instanceof RecordingHttpClient) {
+            setClient(((RecordingHttpClient) client).getDelegate());
+        }
+    }
+
     public String getEmail() {
         return email;
     }
@@ -655,6 +1385,125 @@ public class GooglePlayAPI {
         this.email = email;
     }
 
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets {@link RateLimiter} that every request waits on before it is sent.
+     * <code>null</code> (default) disables limiting. Sharing one limiter among
+     * instances that use the same account keeps them under a common quota.
+     *
+     * @see com.akdeniz.googleplaycrawler.ratelimit.AdaptiveRateLimiter
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets {@link MetricsRegistry} that request counts, bytes and latencies
+     * are recorded to. <code>null</code> (default) disables recording.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    public RequestTimingListener getTimingListener() {
+        return timingListener;
+    }
+
+    /**
+     * Sets listener that receives phase timings of every request.
+     * <code>null</code> (default) disables reporting. Requests can be
+     * recorded as JFR events with <code>JfrTimingListener</code> of the
+     * <code>jfr</code> module.
+     */
+    public void setTimingListener(RequestTimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
+    public Backoff getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * Sets backoff policy used between retries of throttled requests.
+     */
+    public void setBackoff(Backoff backoff) {
+        this.backoff = backoff;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * How many times a request throttled with 429 is retried before
+     * {@link GooglePlayException} is thrown. (default : 1)
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    /**
+     * Maximum number of package names sent in one <code>bulkDetails</code>
+     * request. Longer lists are split. (default : 100)
+     */
+    public void setBulkChunkSize(int bulkChunkSize) {
+        if (bulkChunkSize < 1) {
+            throw new IllegalArgumentException("Invalid bulk chunk size!");
+        }
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
+    public int getBulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    /**
+     * Maximum number of chunks of a single <code>bulkDetails</code> call
+     * that are in flight at once. (default : 4)
+     */
+    public void setBulkConcurrency(int bulkConcurrency) {
+        if (bulkConcurrency < 1) {
+            throw new IllegalArgumentException("Invalid bulk concurrency!");
+        }
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets cache that GET requests (details, browse, list, search, reviews...)
+     * are served from. Responses embedded as {@link PreFetch} entries are
+     * cached too, so that following requests for them never hit network.
+     * <code>null</code> (default) disables caching.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Validity of cached responses that do not come with their own TTL, as
+     * {@link PreFetch} entries do. A response is refreshed in background
+     * after <code>softTtl</code> and is not used at all after <code>ttl</code>.
+     * (default : 1 hour and 1 day)
+     */
+    public void setCacheTtl(long softTtlMillis, long ttlMillis) {
+        this.cacheSoftTtl = softTtlMillis;
+        this.cacheTtl = ttlMillis;
+    }
+
     public String getLocalization() {
         return localization;
     }
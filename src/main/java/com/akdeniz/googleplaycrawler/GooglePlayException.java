@@ -4,7 +4,24 @@ import java.io.IOException;
 
 public class GooglePlayException extends IOException {
 
+	private static final long serialVersionUID = 1L;
+
+	private int statusCode = -1;
+
 	public GooglePlayException(String message) {
 		super(message);
 	}
+
+	public GooglePlayException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * HTTP status code that server responded with, or <code>-1</code> if
+	 * failure is not caused by an HTTP error.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
 }
@@ -0,0 +1,309 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BrowseResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.BuyResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.PreFetch;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.GooglePlay.ReviewResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.SearchResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ServerCommands;
+import com.akdeniz.googleplaycrawler.GooglePlay.ServerMetadata;
+import com.akdeniz.googleplaycrawler.GooglePlay.UploadDeviceConfigResponse;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.google.protobuf.WireFormat;
+
+/**
+ * View of an encoded {@link ResponseWrapper} that parses only the fields it
+ * is asked for. Getting a {@link PayloadField} parses that single response
+ * of the payload, while documents of other fields, <code>preFetch</code>,
+ * <code>notification</code> and <code>targets</code> are skipped over
+ * without being materialized.
+ * <p>
+ * Responses read by {@link #read(InputStream, long)} share a per-thread
+ * buffer, so such a wrapper must not be used after its thread reads another
+ * response. Parsed messages do not refer to the buffer.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public final class LazyResponseWrapper {
+
+    /**
+     * Buffers larger than this are not kept for reuse.
+     */
+    private static final int MAX_POOLED_BUFFER = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
+
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+
+    private LazyResponseWrapper(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Wraps given encoded response without copying it.
+     */
+    public static LazyResponseWrapper wrap(byte[] buffer) {
+        return new LazyResponseWrapper(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Reads whole stream into the buffer of current thread.
+     *
+     * @param contentLength expected length, or a negative value if unknown
+     */
+    public static LazyResponseWrapper read(InputStream in, long contentLength) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        if (contentLength > buffer.length) {
+            buffer = new byte[(int) contentLength];
+        }
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                int b = in.read();
+                if (b == -1) {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[length++] = (byte) b;
+            }
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        if (buffer.length <= MAX_POOLED_BUFFER) {
+            BUFFERS.set(buffer);
+        }
+        return new LazyResponseWrapper(buffer, 0, length);
+    }
+
+    /**
+     * Encoded size of response.
+     */
+    public int getSerializedSize() {
+        return length;
+    }
+
+    /**
+     * Parses given field of payload.
+     *
+     * @return parsed response, or default instance if payload does not have
+     * such field
+     */
+    public <T extends MessageLite> T getPayload(PayloadField<T> field) throws InvalidProtocolBufferException {
+        T result = null;
+        int[] payloads = ranges(buffer, offset, length, ResponseWrapper.PAYLOAD_FIELD_NUMBER);
+        for (int i = 0; i < payloads.length; i += 2) {
+            int[] fields = ranges(buffer, payloads[i], payloads[i + 1], field.number);
+            for (int j = 0; j < fields.length; j += 2) {
+                result = merge(result, field.parser, fields[j], fields[j + 1]);
+            }
+        }
+        return result == null ? field.defaultInstance : result;
+    }
+
+    /**
+     * Hands each occurrence of given payload field to scanner, without
+     * parsing or copying it.
+     */
+    public void scanPayload(int fieldNumber, FieldScanner scanner) throws InvalidProtocolBufferException {
+        int[] payloads = ranges(buffer, offset, length, ResponseWrapper.PAYLOAD_FIELD_NUMBER);
+        for (int i = 0; i < payloads.length; i += 2) {
+            int[] fields = ranges(buffer, payloads[i], payloads[i + 1], fieldNumber);
+            for (int j = 0; j < fields.length; j += 2) {
+                scanner.scan(buffer, fields[j], fields[j + 1]);
+            }
+        }
+    }
+
+    public ServerCommands getCommands() throws InvalidProtocolBufferException {
+        ServerCommands commands = parse(ResponseWrapper.COMMANDS_FIELD_NUMBER, ServerCommands.PARSER);
+        return commands == null ? ServerCommands.getDefaultInstance() : commands;
+    }
+
+    public ServerMetadata getServerMetadata() throws InvalidProtocolBufferException {
+        ServerMetadata serverMetadata = parse(ResponseWrapper.SERVERMETADATA_FIELD_NUMBER, ServerMetadata.PARSER);
+        return serverMetadata == null ? ServerMetadata.getDefaultInstance() : serverMetadata;
+    }
+
+    /**
+     * Latency that server reports in {@link ServerMetadata}, or -1 if it
+     * does not.
+     */
+    public long getServerLatencyMillis() throws InvalidProtocolBufferException {
+        ServerMetadata serverMetadata = getServerMetadata();
+        return serverMetadata.hasLatencyMillis() ? serverMetadata.getLatencyMillis() : -1;
+    }
+
+    public List<PreFetch> getPreFetchList() throws InvalidProtocolBufferException {
+        int[] ranges = ranges(buffer, offset, length, ResponseWrapper.PREFETCH_FIELD_NUMBER);
+        List<PreFetch> preFetches = new ArrayList<PreFetch>(ranges.length / 2);
+        for (int i = 0; i < ranges.length; i += 2) {
+            preFetches.add(PreFetch.PARSER.parseFrom(buffer, ranges[i], ranges[i + 1]));
+        }
+        return preFetches;
+    }
+
+    /**
+     * Parses whole response.
+     */
+    public ResponseWrapper toResponseWrapper() throws InvalidProtocolBufferException {
+        return ResponseWrapper.PARSER.parseFrom(buffer, offset, length);
+    }
+
+    /**
+     * Copies encoded response, e.g. to be cached.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer, offset, offset + length);
+    }
+
+    private <T extends MessageLite> T parse(int fieldNumber, Parser<T> parser)
+            throws InvalidProtocolBufferException {
+        T result = null;
+        int[] ranges = ranges(buffer, offset, length, fieldNumber);
+        for (int i = 0; i < ranges.length; i += 2) {
+            result = merge(result, parser, ranges[i], ranges[i + 1]);
+        }
+        return result;
+    }
+
+    /**
+     * Repeated occurrences of a non-repeated message are merged, as
+     * protobuf does.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends MessageLite> T merge(T previous, Parser<T> parser, int start, int size)
+            throws InvalidProtocolBufferException {
+        if (previous == null) {
+            return parser.parseFrom(buffer, start, size);
+        }
+        return (T) previous.toBuilder().mergeFrom(buffer, start, size).build();
+    }
+
+    /**
+     * Finds occurrences of given length delimited field in a message,
+     * skipping all other fields.
+     *
+     * @return offset and length pairs of field contents
+     */
+    private static int[] ranges(byte[] buffer, int offset, int length, int fieldNumber)
+            throws InvalidProtocolBufferException {
+        int expectedTag = (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+        int[] ranges = new int[2];
+        int count = 0;
+        CodedInputStream in = CodedInputStream.newInstance(buffer, offset, length);
+        try {
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                if (tag != expectedTag) {
+                    in.skipField(tag);
+                    continue;
+                }
+                int size = in.readRawVarint32();
+                if (count == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, count * 2);
+                }
+                ranges[count++] = offset + in.getTotalBytesRead();
+                ranges[count++] = size;
+                in.skipRawBytes(size);
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+        return count == ranges.length ? ranges : Arrays.copyOf(ranges, count);
+    }
+
+    /**
+     * Extracts a result from a response.
+     */
+    public interface Projection<T> {
+
+        public T project(LazyResponseWrapper response) throws InvalidProtocolBufferException;
+    }
+
+    /**
+     * Reads encoded content of a field.
+     */
+    public interface FieldScanner {
+
+        public void scan(byte[] buffer, int offset, int length) throws InvalidProtocolBufferException;
+    }
+
+    /**
+     * A response field of {@link GooglePlay.Payload}.
+     */
+    public static final class PayloadField<T extends MessageLite> implements Projection<T> {
+
+        public static final PayloadField<ListResponse> LIST =
+                new PayloadField<ListResponse>(GooglePlay.Payload.LISTRESPONSE_FIELD_NUMBER,
+                        ListResponse.PARSER, ListResponse.getDefaultInstance());
+        public static final PayloadField<DetailsResponse> DETAILS =
+                new PayloadField<DetailsResponse>(GooglePlay.Payload.DETAILSRESPONSE_FIELD_NUMBER,
+                        DetailsResponse.PARSER, DetailsResponse.getDefaultInstance());
+        public static final PayloadField<ReviewResponse> REVIEW =
+                new PayloadField<ReviewResponse>(GooglePlay.Payload.REVIEWRESPONSE_FIELD_NUMBER,
+                        ReviewResponse.PARSER, ReviewResponse.getDefaultInstance());
+        public static final PayloadField<BuyResponse> BUY =
+                new PayloadField<BuyResponse>(GooglePlay.Payload.BUYRESPONSE_FIELD_NUMBER,
+                        BuyResponse.PARSER, BuyResponse.getDefaultInstance());
+        public static final PayloadField<SearchResponse> SEARCH =
+                new PayloadField<SearchResponse>(GooglePlay.Payload.SEARCHRESPONSE_FIELD_NUMBER,
+                        SearchResponse.PARSER, SearchResponse.getDefaultInstance());
+        public static final PayloadField<BrowseResponse> BROWSE =
+                new PayloadField<BrowseResponse>(GooglePlay.Payload.BROWSERESPONSE_FIELD_NUMBER,
+                        BrowseResponse.PARSER, BrowseResponse.getDefaultInstance());
+        public static final PayloadField<BulkDetailsResponse> BULK_DETAILS =
+                new PayloadField<BulkDetailsResponse>(GooglePlay.Payload.BULKDETAILSRESPONSE_FIELD_NUMBER,
+                        BulkDetailsResponse.PARSER, BulkDetailsResponse.getDefaultInstance());
+        public static final PayloadField<UploadDeviceConfigResponse> UPLOAD_DEVICE_CONFIG =
+                new PayloadField<UploadDeviceConfigResponse>(
+                        GooglePlay.Payload.UPLOADDEVICECONFIGRESPONSE_FIELD_NUMBER,
+                        UploadDeviceConfigResponse.PARSER, UploadDeviceConfigResponse.getDefaultInstance());
+
+        private final int number;
+        private final Parser<T> parser;
+        private final T defaultInstance;
+
+        public PayloadField(int number, Parser<T> parser, T defaultInstance) {
+            this.number = number;
+            this.parser = parser;
+            this.defaultInstance = defaultInstance;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        @Override
+        public T project(LazyResponseWrapper response) throws InvalidProtocolBufferException {
+            return response.getPayload(this);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Traverses a paginated listing such as <code>list</code>,
+ * <code>search</code> or <code>reviews</code> results over an offset range.
+ * Pages are fetched lazily, and the page after the current one is fetched
+ * in background while the current one is consumed. A page shorter than
+ * asked marks the end of the listing.
+ * <p>
+ * Unstarted spliterators split their remaining range in two at a page
+ * boundary, so the listing can be fetched by a parallel stream. Only the
+ * first {@link #MAX_SPLIT_PAGES} pages of the range are split, and the rest
+ * is fetched sequentially, so that a range without a known end, such as
+ * <code>limit = Integer.MAX_VALUE</code>, does not send requests at absurd
+ * offsets. Splits share the end of the listing once one of them finds it,
+ * so ranges past it are not requested. IO errors are thrown as
+ * {@link UncheckedIOException}.
+ * </p>
+ *
+ * @author akdeniz
+ * @see GooglePlayAPI#listStream(String, String, int, int)
+ */
+public class PagedSpliterator<T> implements Spliterator<T> {
+
+    /** Number of pages, from the start of a range, that are split */
+    public static final int MAX_SPLIT_PAGES = 16;
+
+    private static final ExecutorService PREFETCHER =
+            Executors.newCachedThreadPool(Utils.daemonThreadFactory("page-prefetch"));
+
+    private final PageFetcher<T> fetcher;
+    private final int pageSize;
+    private final int end;
+    private final int splitEnd;
+    private final Listing<T> listing;
+
+    private int fetchOffset;
+    private List<T> page;
+    private int index;
+    private volatile Future<List<T>> prefetch;
+    private volatile boolean done;
+
+    /**
+     * @param offset   offset of the first result
+     * @param limit    maximum number of results, also bounds splitting
+     * @param pageSize number of results asked in one request
+     */
+    public PagedSpliterator(PageFetcher<T> fetcher, int offset, int limit, int pageSize) {
+        this(fetcher, offset, limit > Integer.MAX_VALUE - offset ? Integer.MAX_VALUE : offset + limit,
+                (int) Math.min(Integer.MAX_VALUE, offset + (long) MAX_SPLIT_PAGES * pageSize), pageSize,
+                new Listing<T>());
+        if (offset < 0 || limit < 0 || pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page range!");
+        }
+    }
+
+    private PagedSpliterator(PageFetcher<T> fetcher, int offset, int end, int splitEnd, int pageSize,
+                             Listing<T> listing) {
+        this.fetcher = fetcher;
+        this.fetchOffset = offset;
+        this.end = end;
+        this.splitEnd = Math.min(end, splitEnd);
+        this.pageSize = pageSize;
+        this.listing = listing;
+        listing.spliterators.add(this);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (page == null || index >= page.size()) {
+            if (done) {
+                page = null;
+                return false;
+            }
+            page = nextPage();
+            index = 0;
+        }
+        action.accept(page.get(index++));
+        return true;
+    }
+
+    private List<T> nextPage() {
+        int offset = fetchOffset;
+        int count = Math.min(pageSize, end() - offset);
+        if (count <= 0 || listing.closed) {
+            done = true;
+            return null;
+        }
+        List<T> result;
+        try {
+            result = prefetch != null ? await(prefetch) : fetcher.fetch(offset, count);
+        } catch (IOException e) {
+            done = true;
+            throw new UncheckedIOException(e);
+        } finally {
+            prefetch = null;
+        }
+        fetchOffset = offset + count;
+
+        if (result.size() < count) {
+            listing.end.accumulateAndGet(offset + result.size(), Math::min);
+            done = true;
+        } else if (fetchOffset < end()) {
+            final int nextOffset = fetchOffset;
+            final int nextCount = Math.min(pageSize, end() - nextOffset);
+            prefetch = PREFETCHER.submit(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws IOException {
+                    return fetcher.fetch(nextOffset, nextCount);
+                }
+            });
+            // listing may be closed while page is being submitted
+            if (listing.closed) {
+                cancelPrefetch();
+            }
+        } else {
+            done = true;
+        }
+        return result;
+    }
+
+    private List<T> await(Future<List<T>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for page at " + fetchOffset);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Listing is closed while waiting for page at " + fetchOffset);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private int end() {
+        return Math.min(end, listing.end.get());
+    }
+
+    /**
+     * Splits off the first half of remaining pages that are within
+     * {@link #MAX_SPLIT_PAGES} of the start, if nothing is fetched yet.
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        if (done || page != null || prefetch != null) {
+            return null;
+        }
+        int pages = (int) (((long) Math.min(splitEnd, end()) - fetchOffset + pageSize - 1) / pageSize);
+        if (pages < 2) {
+            return null;
+        }
+        int middle = fetchOffset + pages / 2 * pageSize;
+        Spliterator<T> prefix = new PagedSpliterator<T>(fetcher, fetchOffset, middle, middle, pageSize, listing);
+        fetchOffset = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (done && page == null) {
+            return 0;
+        }
+        long remaining = Math.max(0, end() - fetchOffset);
+        return page == null ? remaining : remaining + page.size() - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Cancels pages being fetched in background by this spliterator and all
+     * spliterators split from the same one, so closing a parallel stream
+     * stops all of them.
+     */
+    public void close() {
+        listing.closed = true;
+        for (PagedSpliterator<T> spliterator : listing.spliterators) {
+            spliterator.done = true;
+            spliterator.cancelPrefetch();
+        }
+    }
+
+    private void cancelPrefetch() {
+        Future<List<T>> pending = prefetch;
+        if (pending != null) {
+            pending.cancel(true);
+        }
+    }
+
+    /**
+     * State shared by a spliterator and its splits.
+     */
+    private static class Listing<T> {
+        final AtomicInteger end = new AtomicInteger(Integer.MAX_VALUE);
+        final Set<PagedSpliterator<T>> spliterators =
+                Collections.newSetFromMap(new ConcurrentHashMap<PagedSpliterator<T>, Boolean>());
+        volatile boolean closed;
+    }
+
+    /**
+     * Fetches one page of a listing.
+     */
+    public interface PageFetcher<T> {
+
+        /**
+         * @return at most <code>count</code> results starting at
+         * <code>offset</code>; fewer if listing ends
+         */
+        public List<T> fetch(int offset, int count) throws IOException;
+    }
+}
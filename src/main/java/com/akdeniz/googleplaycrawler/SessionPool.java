@@ -0,0 +1,386 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.ratelimit.Backoff;
+
+/**
+ * Pool of authenticated {@link GooglePlayAPI} sessions, one per account, to
+ * spread load over several quotas.
+ * <p>
+ * Each request is routed to the healthy session with the fewest requests in
+ * flight. A session is taken out of rotation when server rejects its
+ * credentials (401/403), in which case it logs in again in background, or
+ * when it keeps getting 429 after retries, in which case it rests for
+ * <code>cooldownMillis</code>. Other sessions keep serving meanwhile. A
+ * session that is rejected again right after logging in, or that has no
+ * android id, checks in its device before logging in.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class SessionPool implements Closeable {
+
+    public static interface SessionCallable<T> {
+        public T call(GooglePlayAPI service) throws IOException;
+    }
+
+    private static enum State {
+        HEALTHY, COOLING, LOGGING_IN
+    }
+
+    private static class Session {
+        final GooglePlayAPI service;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile State state = State.LOGGING_IN;
+        volatile long coolingUntil;
+        volatile Properties device = defaultDevice();
+        int throttles;
+        int loginFailures;
+        boolean loggedInByPool;
+        boolean checkinNeeded;
+
+        Session(GooglePlayAPI service) {
+            this.service = service;
+        }
+
+        @Override
+        public String toString() {
+            return service.getEmail();
+        }
+    }
+
+    private final List<Session> sessions = new ArrayList<Session>();
+    private final ScheduledExecutorService loginExecutor;
+    private final Backoff loginBackoff = new Backoff(5000, 10 * 60 * 1000);
+
+    private int throttleThreshold = 3;
+    private long cooldownMillis = 60 * 1000;
+    private long acquireTimeoutMillis = 2 * 60 * 1000;
+    private boolean closed;
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    /**
+     * Creates a pool of given sessions. Sessions that already have a token
+     * are put in rotation immediately, others log in in background.
+     */
+    public SessionPool(List<GooglePlayAPI> services) {
+        if (services.isEmpty()) {
+            throw new IllegalArgumentException("At least one session is required!");
+        }
+        loginExecutor = Executors.newScheduledThreadPool(Math.min(services.size(), 4),
+                Utils.daemonThreadFactory("session-login"));
+        for (GooglePlayAPI service : services) {
+            Session session = new Session(service);
+            sessions.add(session);
+            if (service.getToken() != null) {
+                session.state = State.HEALTHY;
+            } else {
+                scheduleLogin(session, 0);
+            }
+        }
+    }
+
+    /**
+     * Creates a pool from <code>crawler.conf</code> styled configuration
+     * files. Each file must define <code>email, password and androidid</code>,
+     * <code>localization</code> and <code>device</code> are optional.
+     */
+    public static SessionPool fromConfigFiles(List<String> confFiles) throws IOException {
+        List<GooglePlayAPI> services = new ArrayList<GooglePlayAPI>();
+        List<Properties> devices = new ArrayList<Properties>();
+        for (String confFile : confFiles) {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(confFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            String androidid = properties.getProperty("androidid");
+            String email = properties.getProperty("email");
+            String password = properties.getProperty("password");
+            if (androidid == null || email == null || password == null) {
+                throw new GooglePlayException("Lack of information for login in " + confFile + "!");
+            }
+            GooglePlayAPI service = new GooglePlayAPI(email, password, androidid);
+            service.setLocalization(properties.getProperty("localization"));
+            services.add(service);
+
+            String device = properties.getProperty("device");
+            if (device == null) {
+                devices.add(defaultDevice());
+            } else {
+                try {
+                    Properties deviceProperties = Utils.parseDeviceProperties(device);
+                    deviceProperties.setProperty("default", "false");
+                    devices.add(deviceProperties);
+                } catch (Exception e) {
+                    throw new GooglePlayException("Unknown device " + device + " in " + confFile + "!");
+                }
+            }
+        }
+        SessionPool pool = new SessionPool(services);
+        for (int i = 0; i < services.size(); i++) {
+            pool.setDevice(services.get(i), devices.get(i));
+        }
+        return pool;
+    }
+
+    private static Properties defaultDevice() {
+        Properties device = new Properties();
+        device.setProperty("default", "true");
+        return device;
+    }
+
+    /**
+     * Sets device properties that given session checks in with when it has to.
+     * Default device is used otherwise.
+     *
+     * @see GooglePlayAPI#checkin(Properties)
+     */
+    public void setDevice(GooglePlayAPI service, Properties device) {
+        for (Session session : sessions) {
+            if (session.service == service) {
+                session.device = device;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Session is not in pool!");
+    }
+
+    /**
+     * Executes given callable on the least loaded healthy session. If the
+     * session fails with an authentication or throttling error, callable is
+     * retried once on each other session before the error is rethrown.
+     */
+    public <T> T execute(SessionCallable<T> callable) throws IOException {
+        IOException lastError = null;
+        Set<Session> tried = new HashSet<Session>();
+        for (int attempt = 0; attempt < sessions.size(); attempt++) {
+            Session session = acquire(tried);
+            tried.add(session);
+            try {
+                T result = callable.call(session.service);
+                onSuccess(session);
+                return result;
+            } catch (GooglePlayException e) {
+                if (!onFailure(session, e)) {
+                    throw e;
+                }
+                lastError = e;
+            } finally {
+                release(session);
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * Waits for the least loaded healthy session that is not excluded.
+     */
+    private Session acquire(Set<Session> excluded) throws IOException {
+        long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new GooglePlayException("Session pool is closed!");
+                }
+                long now = System.currentTimeMillis();
+                Session best = null;
+                long nextWakeup = deadline;
+                for (Session session : sessions) {
+                    if (session.state == State.COOLING) {
+                        if (session.coolingUntil <= now) {
+                            session.state = State.HEALTHY;
+                            logger.info("Session {} is back in rotation", session);
+                        } else {
+                            nextWakeup = Math.min(nextWakeup, session.coolingUntil);
+                        }
+                    }
+                    if (session.state == State.HEALTHY && !excluded.contains(session)
+                            && (best == null || session.inFlight.get() < best.inFlight.get())) {
+                        best = session;
+                    }
+                }
+                if (best != null) {
+                    best.inFlight.incrementAndGet();
+                    return best;
+                }
+                if (now >= deadline) {
+                    throw new GooglePlayException("No healthy session available!");
+                }
+                try {
+                    wait(nextWakeup - now);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a session!");
+                }
+            }
+        }
+    }
+
+    private void release(Session session) {
+        session.inFlight.decrementAndGet();
+    }
+
+    private synchronized void onSuccess(Session session) {
+        session.throttles = 0;
+        session.loggedInByPool = false;
+    }
+
+    /**
+     * Takes session out of rotation if given error is its fault.
+     *
+     * @return whether request should be retried on another session
+     */
+    private synchronized boolean onFailure(Session session, GooglePlayException e) {
+        int statusCode = e.getStatusCode();
+        if (statusCode == 401 || statusCode == 403) {
+            if (session.state != State.LOGGING_IN) {
+                logger.warn("Session {} is rejected with {}, logging in again", session, statusCode);
+                // a fresh token is rejected, so device registration must be stale
+                session.checkinNeeded = session.loggedInByPool;
+                session.state = State.LOGGING_IN;
+                scheduleLogin(session, 0);
+            }
+            return true;
+        }
+        if (statusCode == 429) {
+            if (++session.throttles >= throttleThreshold && session.state == State.HEALTHY) {
+                logger.warn("Session {} is throttled {} times in a row, cooling down for {} ms", session,
+                        session.throttles, cooldownMillis);
+                session.state = State.COOLING;
+                session.coolingUntil = System.currentTimeMillis() + cooldownMillis;
+                session.throttles = 0;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void scheduleLogin(final Session session, long delayMillis) {
+        if (closed) {
+            return;
+        }
+        loginExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                login(session);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void login(Session session) {
+        try {
+            boolean checkin;
+            synchronized (this) {
+                checkin = session.checkinNeeded || session.service.getAndroidID() == null;
+            }
+            if (checkin) {
+                logger.info("Session {} is checking in", session);
+                session.service.checkin(session.device);
+            }
+            session.service.login();
+            synchronized (this) {
+                session.checkinNeeded = false;
+                session.loggedInByPool = true;
+                session.loginFailures = 0;
+                session.throttles = 0;
+                session.state = State.HEALTHY;
+                notifyAll();
+            }
+            logger.info("Session {} is logged in", session);
+        } catch (Exception e) {
+            long delay;
+            synchronized (this) {
+                delay = loginBackoff.delayMillis(session.loginFailures++);
+            }
+            logger.warn("Login of session {} failed, retrying in {} ms: {}", session, delay, e.getMessage());
+            scheduleLogin(session, delay);
+        }
+    }
+
+    /**
+     * Number of sessions that are currently in rotation.
+     */
+    public synchronized int getHealthyCount() {
+        int count = 0;
+        for (Session session : sessions) {
+            if (session.state == State.HEALTHY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * All sessions of this pool regardless of their state.
+     */
+    public List<GooglePlayAPI> getSessions() {
+        List<GooglePlayAPI> services = new ArrayList<GooglePlayAPI>();
+        for (Session session : sessions) {
+            services.add(session.service);
+        }
+        return Collections.unmodifiableList(services);
+    }
+
+    /**
+     * How many consecutive 429 failures take a session out of rotation.
+     * (default : 3)
+     */
+    public void setThrottleThreshold(int throttleThreshold) {
+        this.throttleThreshold = throttleThreshold;
+    }
+
+    /**
+     * How long a throttled session rests before it is used again.
+     * (default : 60 sec)
+     */
+    public void setCooldownMillis(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+    }
+
+    /**
+     * How long a request waits for a healthy session before failing.
+     * (default : 2 min)
+     */
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    /**
+     * Stops background logins and fails requests waiting for a session.
+     * Sessions can still be used directly.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        loginExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,350 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.FieldScanner;
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.Projection;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Version fields of a document: <code>AppDetails.versionCode</code>,
+ * <code>versionString</code>, <code>uploadDate</code> and
+ * <code>offerType</code> of its first offer. They are scanned directly from
+ * encoded {@link GooglePlay.DocV2}, skipping descriptions, images,
+ * permissions and every other field without decoding them, which is much
+ * cheaper than parsing documents when only versions are needed.
+ * <p>
+ * Missing fields have protobuf default values.
+ * </p>
+ *
+ * @author akdeniz
+ * @see GooglePlayAPI#bulkVersions(List)
+ */
+public class VersionProbe {
+
+    // DocV2
+    private static final int DOCID = 1;
+    private static final int OFFER = 8;
+    private static final int DETAILS = 13;
+    // Offer
+    private static final int OFFER_TYPE = 8;
+    // DocumentDetails
+    private static final int APP_DETAILS = 1;
+    // AppDetails
+    private static final int VERSION_CODE = 3;
+    private static final int VERSION_STRING = 4;
+    private static final int UPLOAD_DATE = 16;
+    // DetailsResponse
+    private static final int DOC_V2 = 4;
+    // BulkDetailsResponse and BulkDetailsEntry
+    private static final int ENTRY = 1;
+    private static final int DOC = 1;
+
+    /**
+     * Probe of <code>details</code> response, or <code>null</code> if it
+     * has no document.
+     */
+    public static final Projection<VersionProbe> DETAILS_PROJECTION = new Projection<VersionProbe>() {
+        @Override
+        public VersionProbe project(LazyResponseWrapper response) throws InvalidProtocolBufferException {
+            final VersionProbe[] probe = new VersionProbe[1];
+            response.scanPayload(GooglePlay.Payload.DETAILSRESPONSE_FIELD_NUMBER, new FieldScanner() {
+                @Override
+                public void scan(byte[] buffer, int offset, int length) throws InvalidProtocolBufferException {
+                    VersionProbe scanned = scanDetailsResponse(buffer, offset, length);
+                    if (scanned != null) {
+                        probe[0] = scanned;
+                    }
+                }
+            });
+            return probe[0];
+        }
+    };
+
+    /**
+     * Probes of <code>bulkDetails</code> entries, in requested order.
+     * Entries of unknown packages are <code>null</code>.
+     */
+    public static final Projection<List<VersionProbe>> BULK_DETAILS_PROJECTION =
+            new Projection<List<VersionProbe>>() {
+                @Override
+                public List<VersionProbe> project(LazyResponseWrapper response)
+                        throws InvalidProtocolBufferException {
+                    final List<VersionProbe> probes = new ArrayList<VersionProbe>();
+                    response.scanPayload(GooglePlay.Payload.BULKDETAILSRESPONSE_FIELD_NUMBER, new FieldScanner() {
+                        @Override
+                        public void scan(byte[] buffer, int offset, int length)
+                                throws InvalidProtocolBufferException {
+                            scanBulkDetailsResponse(buffer, offset, length, probes);
+                        }
+                    });
+                    return Collections.unmodifiableList(probes);
+                }
+            };
+
+    private final String docid;
+    private final int versionCode;
+    private final String versionString;
+    private final String uploadDate;
+    private final int offerType;
+
+    public VersionProbe(String docid, int versionCode, String versionString, String uploadDate, int offerType) {
+        this.docid = docid;
+        this.versionCode = versionCode;
+        this.versionString = versionString;
+        this.uploadDate = uploadDate;
+        this.offerType = offerType;
+    }
+
+    public String getDocid() {
+        return docid;
+    }
+
+    public int getVersionCode() {
+        return versionCode;
+    }
+
+    public String getVersionString() {
+        return versionString;
+    }
+
+    public String getUploadDate() {
+        return uploadDate;
+    }
+
+    public int getOfferType() {
+        return offerType;
+    }
+
+    @Override
+    public String toString() {
+        return docid + "," + versionCode + "," + versionString;
+    }
+
+    /**
+     * Scans encoded {@link GooglePlay.DetailsResponse}.
+     *
+     * @return probe of its document, or <code>null</code> if there is none
+     */
+    public static VersionProbe scanDetailsResponse(byte[] buffer, int offset, int length)
+            throws InvalidProtocolBufferException {
+        WireScanner in = new WireScanner(buffer, offset, offset + length);
+        VersionProbe probe = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag == lengthDelimited(DOC_V2)) {
+                int end = in.readEnd();
+                probe = scanDoc(in, end);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return probe;
+    }
+
+    /**
+     * Scans encoded {@link GooglePlay.BulkDetailsResponse} and adds a probe,
+     * or <code>null</code> for entries without document, to given list.
+     */
+    public static void scanBulkDetailsResponse(byte[] buffer, int offset, int length, List<VersionProbe> probes)
+            throws InvalidProtocolBufferException {
+        WireScanner in = new WireScanner(buffer, offset, offset + length);
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag != lengthDelimited(ENTRY)) {
+                in.skipField(tag);
+                continue;
+            }
+            int entryEnd = in.readEnd();
+            VersionProbe probe = null;
+            while (in.position() < entryEnd) {
+                int entryTag = in.readTag();
+                if (entryTag == lengthDelimited(DOC)) {
+                    int end = in.readEnd();
+                    probe = scanDoc(in, end);
+                } else {
+                    in.skipField(entryTag);
+                }
+            }
+            in.checkEnd(entryEnd);
+            probes.add(probe);
+        }
+    }
+
+    private static VersionProbe scanDoc(WireScanner in, int end) throws InvalidProtocolBufferException {
+        String docid = "";
+        int versionCode = 0;
+        String versionString = "";
+        String uploadDate = "";
+        int offerType = 0;
+        boolean offerSeen = false;
+        while (in.position() < end) {
+            int tag = in.readTag();
+            if (tag == lengthDelimited(DOCID)) {
+                docid = in.readString();
+            } else if (tag == lengthDelimited(OFFER) && !offerSeen) {
+                offerSeen = true;
+                int offerEnd = in.readEnd();
+                while (in.position() < offerEnd) {
+                    int offerTag = in.readTag();
+                    if (offerTag == varint(OFFER_TYPE)) {
+                        offerType = (int) in.readVarint();
+                    } else {
+                        in.skipField(offerTag);
+                    }
+                }
+                in.checkEnd(offerEnd);
+            } else if (tag == lengthDelimited(DETAILS)) {
+                int detailsEnd = in.readEnd();
+                while (in.position() < detailsEnd) {
+                    int detailsTag = in.readTag();
+                    if (detailsTag != lengthDelimited(APP_DETAILS)) {
+                        in.skipField(detailsTag);
+                        continue;
+                    }
+                    int appDetailsEnd = in.readEnd();
+                    while (in.position() < appDetailsEnd) {
+                        int appTag = in.readTag();
+                        if (appTag == varint(VERSION_CODE)) {
+                            versionCode = (int) in.readVarint();
+                        } else if (appTag == lengthDelimited(VERSION_STRING)) {
+                            versionString = in.readString();
+                        } else if (appTag == lengthDelimited(UPLOAD_DATE)) {
+                            uploadDate = in.readString();
+                        } else {
+                            in.skipField(appTag);
+                        }
+                    }
+                    in.checkEnd(appDetailsEnd);
+                }
+                in.checkEnd(detailsEnd);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        in.checkEnd(end);
+        return new VersionProbe(docid, versionCode, versionString, uploadDate, offerType);
+    }
+
+    private static int lengthDelimited(int fieldNumber) {
+        return (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    private static int varint(int fieldNumber) {
+        return (fieldNumber << 3) | WireFormat.WIRETYPE_VARINT;
+    }
+
+    /**
+     * Minimal protobuf wire format reader over a byte array. Unlike
+     * {@link com.google.protobuf.CodedInputStream}, it keeps no buffer or
+     * size limits of its own and skipping a field only moves its position.
+     */
+    private static class WireScanner {
+
+        private final byte[] buffer;
+        private final int limit;
+        private int position;
+
+        WireScanner(byte[] buffer, int offset, int limit) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = limit;
+        }
+
+        boolean hasMore() {
+            return position < limit;
+        }
+
+        int position() {
+            return position;
+        }
+
+        int readTag() throws InvalidProtocolBufferException {
+            int tag = (int) readVarint();
+            if ((tag >>> 3) == 0) {
+                throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+            }
+            return tag;
+        }
+
+        long readVarint() throws InvalidProtocolBufferException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw truncated();
+                }
+                byte b = buffer[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new InvalidProtocolBufferException("Protocol message contained a malformed varint.");
+        }
+
+        /**
+         * Reads length of a length delimited field.
+         *
+         * @return position where its content ends
+         */
+        int readEnd() throws InvalidProtocolBufferException {
+            int length = (int) readVarint();
+            if (length < 0 || length > limit - position) {
+                throw truncated();
+            }
+            return position + length;
+        }
+
+        /**
+         * Fails if content of a nested message did not end where its length
+         * says.
+         */
+        void checkEnd(int end) throws InvalidProtocolBufferException {
+            if (position != end) {
+                throw truncated();
+            }
+        }
+
+        String readString() throws InvalidProtocolBufferException {
+            int end = readEnd();
+            String value = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+            position = end;
+            return value;
+        }
+
+        void skipField(int tag) throws InvalidProtocolBufferException {
+            switch (tag & 7) {
+                case WireFormat.WIRETYPE_VARINT:
+                    readVarint();
+                    break;
+                case WireFormat.WIRETYPE_FIXED64:
+                    skip(8);
+                    break;
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    position = readEnd();
+                    break;
+                case WireFormat.WIRETYPE_FIXED32:
+                    skip(4);
+                    break;
+                default:
+                    throw new InvalidProtocolBufferException("Protocol message tag had unsupported wire type.");
+            }
+        }
+
+        private void skip(int count) throws InvalidProtocolBufferException {
+            if (count > limit - position) {
+                throw truncated();
+            }
+            position += count;
+        }
+
+        private static InvalidProtocolBufferException truncated() {
+            return new InvalidProtocolBufferException("While parsing a protocol message, the input ended "
+                    + "unexpectedly in the middle of a field.");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.akdeniz.googleplaycrawler.cache;
+
+/**
+ * Cached response body of a FDFE request with its validity times. After
+ * <code>softExpiresAt</code> entry is still served, but it should be
+ * refreshed; after <code>expiresAt</code> it must not be used at all.
+ *
+ * @author akdeniz
+ */
+public class CacheEntry {
+
+    private final byte[] response;
+    private final String etag;
+    private final long softExpiresAt;
+    private final long expiresAt;
+
+    public CacheEntry(byte[] response, String etag, long softExpiresAt, long expiresAt) {
+        this.response = response;
+        this.etag = etag;
+        this.softExpiresAt = Math.min(softExpiresAt, expiresAt);
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Serialized {@link com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper}.
+     */
+    public byte[] getResponse() {
+        return response;
+    }
+
+    /**
+     * @return entity tag of response, or <code>null</code> if server did not
+     * send one
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getSoftExpiresAt() {
+        return softExpiresAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isFresh(long now) {
+        return now < softExpiresAt;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+}
@@ -0,0 +1,281 @@
+package com.akdeniz.googleplaycrawler.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.Utils;
+
+/**
+ * Two level cache of FDFE responses: a memory LRU bounded by response bytes
+ * in front of a directory that keeps entries across runs.
+ * <p>
+ * Keys are opaque to this class. {@link com.akdeniz.googleplaycrawler.GooglePlayAPI}
+ * builds them from request url, localization and android id, so that
+ * responses of different locales or device profiles never mix.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class ResponseCache implements Closeable {
+
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File directory;
+    private final long maxMemoryBytes;
+
+    private final LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    private final ExecutorService revalidator =
+            Executors.newSingleThreadExecutor(Utils.daemonThreadFactory("cache-revalidate"));
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    /**
+     * Memory only cache.
+     */
+    public ResponseCache() {
+        this(null, DEFAULT_MAX_MEMORY_BYTES);
+    }
+
+    public ResponseCache(File directory) {
+        this(directory, DEFAULT_MAX_MEMORY_BYTES);
+    }
+
+    /**
+     * @param directory      where entries are persisted, or <code>null</code>
+     *                       to keep them in memory only
+     * @param maxMemoryBytes total size of responses kept in memory
+     */
+    public ResponseCache(File directory, long maxMemoryBytes) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * @return entry of given key, or <code>null</code> if it is not cached or
+     * it is expired. Expired entries with an ETag are kept for
+     * {@link #getValidator(String)}, others are dropped.
+     */
+    public CacheEntry get(String key) {
+        CacheEntry entry = lookup(key);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            if (entry.getEtag() == null) {
+                remove(key);
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return entry of given key if it has an ETag, even if it is expired,
+     * so that it can be revalidated with a conditional request
+     */
+    public CacheEntry getValidator(String key) {
+        CacheEntry entry = lookup(key);
+        return entry != null && entry.getEtag() != null ? entry : null;
+    }
+
+    private CacheEntry lookup(String key) {
+        CacheEntry entry;
+        synchronized (this) {
+            entry = memory.get(key);
+        }
+        if (entry == null && directory != null) {
+            entry = read(key);
+            if (entry != null) {
+                putInMemory(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    public void put(String key, CacheEntry entry) {
+        if (entry.isExpired(System.currentTimeMillis())) {
+            return;
+        }
+        putInMemory(key, entry);
+        if (directory != null) {
+            write(key, entry);
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            CacheEntry entry = memory.remove(key);
+            if (entry != null) {
+                memoryBytes -= entry.getResponse().length;
+            }
+        }
+        if (directory != null) {
+            file(key).delete();
+        }
+    }
+
+    /**
+     * Drops every entry, e.g. when server sends <code>clearCache</code>
+     * command.
+     */
+    public void clear() {
+        synchronized (this) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs given refresh of a stale entry in background, unless a refresh of
+     * the same key is already running.
+     */
+    public void revalidate(final String key, final Runnable refresh) {
+        if (!revalidating.add(key)) {
+            return;
+        }
+        try {
+            revalidator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("Revalidation of {} failed: {}", key, e.getMessage());
+                    } finally {
+                        revalidating.remove(key);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            revalidating.remove(key);
+            throw e;
+        }
+    }
+
+    private synchronized void putInMemory(String key, CacheEntry entry) {
+        CacheEntry previous = memory.put(key, entry);
+        if (previous != null) {
+            memoryBytes -= previous.getResponse().length;
+        }
+        memoryBytes += entry.getResponse().length;
+
+        Iterator<Map.Entry<String, CacheEntry>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().getValue().getResponse().length;
+            eldest.remove();
+        }
+    }
+
+    private CacheEntry read(String key) {
+        File file = file(key);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                    return null;
+                }
+                long softExpiresAt = in.readLong();
+                long expiresAt = in.readLong();
+                String etag = in.readBoolean() ? in.readUTF() : null;
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                return new CacheEntry(response, etag, softExpiresAt, expiresAt);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable cache entry {}: {}", file, e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void write(String key, CacheEntry entry) {
+        File file = file(key);
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeLong(entry.getSoftExpiresAt());
+                out.writeLong(entry.getExpiresAt());
+                out.writeBoolean(entry.getEtag() != null);
+                if (entry.getEtag() != null) {
+                    out.writeUTF(entry.getEtag());
+                }
+                out.writeInt(entry.getResponse().length);
+                out.write(entry.getResponse());
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not persist cache entry {}: {}", file, e.getMessage());
+            temp.delete();
+        }
+    }
+
+    private File file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            return new File(directory, Utils.bytesToHex(digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops background revalidations.
+     */
+    @Override
+    public void close() {
+        revalidator.shutdownNow();
+    }
+}
@@ -1,14 +1,22 @@
 package com.akdeniz.googleplaycrawler.cli;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -25,15 +33,16 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import com.akdeniz.googleplaycrawler.BulkDetailsCoalescer;
 import com.akdeniz.googleplaycrawler.GooglePlayAPI;
 import com.akdeniz.googleplaycrawler.GooglePlayAPI.RECOMMENDATION_TYPE;
 import com.akdeniz.googleplaycrawler.GooglePlayAPI.REVIEW_SORT;
 import com.akdeniz.googleplaycrawler.GooglePlayException;
+import com.akdeniz.googleplaycrawler.SessionPool;
 import com.akdeniz.googleplaycrawler.GooglePlay.AppDetails;
 import com.akdeniz.googleplaycrawler.GooglePlay.BrowseLink;
 import com.akdeniz.googleplaycrawler.GooglePlay.BrowseResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
-import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
 import com.akdeniz.googleplaycrawler.GooglePlay.GetReviewsResponse;
@@ -41,6 +50,7 @@ import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.Offer;
 import com.akdeniz.googleplaycrawler.GooglePlay.ReviewResponse;
 import com.akdeniz.googleplaycrawler.GooglePlay.SearchResponse;
+import com.akdeniz.googleplaycrawler.download.ApkDownloader;
 import com.akdeniz.googleplaycrawler.gsf.GoogleServicesFramework.BindAccountResponse;
 import com.akdeniz.googleplaycrawler.gsf.GoogleServicesFramework.LoginResponse;
 import com.akdeniz.googleplaycrawler.gsf.packets.BindAccountRequestPacket;
@@ -49,9 +59,17 @@ import com.akdeniz.googleplaycrawler.gsf.packets.LoginRequestPacket;
 import com.akdeniz.googleplaycrawler.gsf.MTalkConnector;
 import com.akdeniz.googleplaycrawler.gsf.MessageFilter;
 import com.akdeniz.googleplaycrawler.gsf.NotificationListener;
+import com.akdeniz.googleplaycrawler.http.Http2HttpClient;
+import com.akdeniz.googleplaycrawler.metrics.MetricsRegistry;
+import com.akdeniz.googleplaycrawler.misc.JsonBuilder;
+import com.akdeniz.googleplaycrawler.ratelimit.AdaptiveRateLimiter;
+import com.akdeniz.googleplaycrawler.replay.ExchangeWriter;
+import com.akdeniz.googleplaycrawler.replay.ReplayHttpClient;
+import com.akdeniz.googleplaycrawler.server.CrawlerServer;
 import com.akdeniz.googleplaycrawler.Utils;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.impl.choice.CollectionArgumentChoice;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -72,9 +90,13 @@ public class googleplay {
     private ArgumentParser parser;
     private GooglePlayAPI service;
     private Namespace namespace;
+    private static HttpClient http2Client;
+    private HttpClient replayClient;
+    private ExchangeWriter recordWriter;
 
     public static enum COMMAND {
-        LIST, DOWNLOAD, CHECKIN, CATEGORIES, SEARCH, PERMISSIONS, REVIEWS, REGISTER, USEGCM, RECOMMENDATIONS, LIST_DEVICES
+        LIST, DOWNLOAD, CHECKIN, CATEGORIES, SEARCH, PERMISSIONS, REVIEWS, REGISTER, USEGCM, RECOMMENDATIONS, LIST_DEVICES,
+        BATCH, SERVE
     }
 
     private static final String LIST_HEADER = new StringJoiner(DELIMETER).add("Title").add("Package").add("Creator")
@@ -107,6 +129,18 @@ public class googleplay {
         parser.addArgument("-a", "--host").nargs("?").help("Proxy host").setDefault(FeatureControl.SUPPRESS);
         parser.addArgument("-l", "--port").type(Integer.class).nargs("?").help("Proxy port")
                 .setDefault(FeatureControl.SUPPRESS);
+        parser.addArgument("--record").nargs("?").help("Archive file to append every HTTP exchange to")
+                .setDefault(FeatureControl.SUPPRESS);
+        parser.addArgument("--replay").nargs("?")
+                .help("Archive file to serve HTTP exchanges from instead of Google servers")
+                .setDefault(FeatureControl.SUPPRESS);
+        parser.addArgument("--replayspeed").type(Double.class).nargs("?")
+                .help("Multiplier of recorded response times on replay, 0 for no delay (default : 1)")
+                .setDefault(1.0);
+        parser.addArgument("--http2").action(Arguments.storeTrue())
+                .help("Multiplex requests over HTTP/2 connections instead of HTTP/1.1 connection pool");
+        parser.addArgument("--ratelimit").action(Arguments.storeTrue())
+                .help("Adapt request rate of each endpoint to 429 responses instead of sending as fast as possible");
 
         Subparsers subparsers = parser.addSubparsers().description("Command to be executed.");
 
@@ -114,8 +148,35 @@ public class googleplay {
         Subparser downloadParser = subparsers.addParser("download", true).description("download file(s)!")
                 .setDefault("command", COMMAND.DOWNLOAD);
         downloadParser.addArgument("sdk").required(true).help("set application sdk");
+        downloadParser.addArgument("--apk").action(Arguments.storeTrue())
+                .help("also download APK of each application into working directory instead of only printing its version");
         downloadParser.addArgument("packagename").nargs("+").help("applications to download");
 
+	/* =================Batch Arguments============== */
+        Subparser batchParser = subparsers.addParser("batch", true)
+                .description("resolves package names read line by line and prints one JSON record per package!")
+                .setDefault("command", COMMAND.BATCH);
+        batchParser.addArgument("-i", "--input").required(false)
+                .help("file that lists package names, one per line (default : stdin)");
+        batchParser.addArgument("-c", "--concurrency").type(Integer.class).required(false)
+                .help("how many bulkDetails requests can be in flight").setDefault(BulkDetailsCoalescer.DEFAULT_CONCURRENCY);
+        batchParser.addArgument("-b", "--batchsize").type(Integer.class).required(false)
+                .help("how many packages are asked in one bulkDetails request")
+                .setDefault(BulkDetailsCoalescer.DEFAULT_MAX_BATCH_SIZE);
+
+	/* =================Serve Arguments============== */
+        Subparser serveParser = subparsers.addParser("serve", true)
+                .description("serves details, bulkDetails, search, list, reviews and download over local HTTP!")
+                .setDefault("command", COMMAND.SERVE);
+        serveParser.addArgument("-b", "--bind").required(false).help("address to listen on (default : 127.0.0.1)")
+                .setDefault("127.0.0.1");
+        serveParser.addArgument("-P", "--listen").type(Integer.class).required(false)
+                .help("port to listen on (default : 8080)").setDefault(8080);
+        serveParser.addArgument("-n", "--threads").type(Integer.class).required(false)
+                .help("how many requests can be served concurrently (default : 32)").setDefault(32);
+        serveParser.addArgument("-s", "--sessions").nargs("*").required(false)
+                .help("configuration files of accounts to spread requests over. Login arguments are used if none is given.");
+
 	/* =================Check-In Arguments============== */
         Subparser checkinParser = subparsers.addParser("checkin", true).description("checkin section!")
                 .setDefault("command", COMMAND.CHECKIN);
@@ -236,6 +297,12 @@ public class googleplay {
                 case RECOMMENDATIONS:
                     recommendationsCommand();
                     break;
+                case BATCH:
+                    batchCommand();
+                    break;
+                case SERVE:
+                    serveCommand();
+                    break;
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -309,6 +376,106 @@ public class googleplay {
         }
     }
 
+    /**
+     * Reads package names as a stream and resolves them concurrently through
+     * shared <code>bulkDetails</code> requests. Each record is printed as soon
+     * as its batch is answered, so output order may differ from input order.
+     * Lines may carry more columns after package name, separated by
+     * whitespace, "," or "|", as in <code>pname.log</code>.
+     */
+    private void batchCommand() throws Exception {
+        login();
+
+        String input = namespace.getString("input");
+        int concurrency = namespace.getInt("concurrency");
+        int batchSize = namespace.getInt("batchsize");
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                input == null ? System.in : new FileInputStream(input), "UTF-8"));
+        final PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, "UTF-8");
+        // keeps memory flat on arbitrarily long inputs
+        final Semaphore inFlight = new Semaphore(concurrency * batchSize * 2);
+        BulkDetailsCoalescer coalescer = new BulkDetailsCoalescer(service, batchSize,
+                BulkDetailsCoalescer.DEFAULT_MAX_DELAY_MILLIS, concurrency);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String packageName = line.trim().split("[\\s,|]+", 2)[0];
+                if (packageName.isEmpty()) {
+                    continue;
+                }
+                inFlight.acquire();
+                coalescer.submit(packageName).whenComplete((entry, error) -> {
+                    String record = error != null ? new JsonBuilder().add("package", packageName)
+                            .add("error", String.valueOf(error.getMessage())).toString() : toJson(packageName, entry);
+                    synchronized (out) {
+                        out.println(record);
+                        out.flush();
+                    }
+                    inFlight.release();
+                });
+            }
+            coalescer.flush();
+            inFlight.acquire(concurrency * batchSize * 2);
+        } finally {
+            coalescer.close();
+            reader.close();
+        }
+    }
+
+    private void serveCommand() throws Exception {
+        List<String> sessions = namespace.getList("sessions");
+        SessionPool pool;
+        if (sessions == null || sessions.isEmpty()) {
+            login();
+            pool = new SessionPool(Collections.singletonList(service));
+        } else {
+            pool = SessionPool.fromConfigFiles(sessions);
+            for (GooglePlayAPI session : pool.getSessions()) {
+                configureSession(session);
+            }
+        }
+        MetricsRegistry metrics = new MetricsRegistry();
+        for (GooglePlayAPI session : pool.getSessions()) {
+            session.setMetrics(metrics);
+        }
+        metrics.registerMBeans("serve");
+
+        final CrawlerServer server = new CrawlerServer(pool,
+                new InetSocketAddress(namespace.getString("bind"), namespace.getInt("listen")),
+                namespace.getInt("threads"));
+        server.exposeMetrics(metrics);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.close();
+            }
+        });
+        server.start();
+        System.out.println("Serving on http://" + namespace.getString("bind") + ":" + namespace.getInt("listen") + "/");
+
+        // serve until killed
+        Thread.currentThread().join();
+    }
+
+    private static String toJson(String packageName, BulkDetailsEntry entry) {
+        JsonBuilder json = new JsonBuilder().add("package", packageName);
+        if (!entry.hasDoc()) {
+            return json.add("found", false).toString();
+        }
+        DocV2 doc = entry.getDoc();
+        AppDetails appDetails = doc.getDetails().getAppDetails();
+        json.add("found", true).add("title", doc.getTitle()).add("creator", doc.getCreator())
+                .add("versionCode", appDetails.getVersionCode()).add("versionString", appDetails.getVersionString())
+                .add("installationSize", appDetails.getInstallationSize())
+                .add("numDownloads", appDetails.getNumDownloads()).add("uploadDate", appDetails.getUploadDate());
+        if (doc.getOfferCount() > 0) {
+            Offer offer = doc.getOffer(0);
+            json.add("offerType", offer.getOfferType()).add("price", offer.getFormattedAmount());
+        }
+        return json.toString();
+    }
+
     private void recommendationsCommand() throws Exception {
         login();
 
@@ -362,16 +529,17 @@ public class googleplay {
         login();
 
         List<String> packages = namespace.getList("package");
-        BulkDetailsResponse bulkDetails = service.bulkDetails(packages);
-
-        for (BulkDetailsEntry bulkDetailsEntry : bulkDetails.getEntryList()) {
+        service.bulkDetails(packages, bulkDetailsEntry -> {
+            if (!bulkDetailsEntry.hasDoc()) {
+                return;
+            }
             DocV2 doc = bulkDetailsEntry.getDoc();
             AppDetails appDetails = doc.getDetails().getAppDetails();
             System.out.println(doc.getDocid());
             for (String permission : appDetails.getPermissionList()) {
                 System.out.println("\t" + permission);
             }
-        }
+        });
 
     }
 
@@ -482,18 +650,83 @@ public class googleplay {
     private void createLoginableService(String androidid, String email, String password, String localization) throws Exception {
         service = new GooglePlayAPI(email, password, androidid);
         service.setLocalization(localization);
-        HttpClient proxiedHttpClient = getProxiedHttpClient();
-        if (proxiedHttpClient != null) {
-            service.setClient(proxiedHttpClient);
-        }
+        configureSession(service);
     }
 
     private void createCheckinableService(String email, String password, String localization) throws Exception {
         service = new GooglePlayAPI(email, password);
         service.setLocalization(localization);
+        configureSession(service);
+    }
+
+    /**
+     * Applies transport, replay, recording and rate limit arguments to given
+     * session, whether it is the single one of a command or one of a
+     * <code>--sessions</code> pool.
+     */
+    private void configureSession(GooglePlayAPI session) throws Exception {
+        if (Boolean.TRUE.equals(namespace.get("http2"))) {
+            session.setClient(getHttp2Client());
+        }
         HttpClient proxiedHttpClient = getProxiedHttpClient();
         if (proxiedHttpClient != null) {
-            service.setClient(proxiedHttpClient);
+            session.setClient(proxiedHttpClient);
+        }
+        configureReplay(session);
+        configureRateLimit(session);
+    }
+
+    /**
+     * Gives session its own AIMD rate limiter if <code>--ratelimit</code> is
+     * set, since each account is throttled separately.
+     */
+    private void configureRateLimit(GooglePlayAPI session) {
+        if (Boolean.TRUE.equals(namespace.get("ratelimit"))) {
+            session.setRateLimiter(AdaptiveRateLimiter.withDefaults());
+        }
+    }
+
+    /**
+     * Single HTTP/2 client, so that sessions of the same process share its
+     * connections.
+     */
+    private static synchronized HttpClient getHttp2Client() {
+        if (http2Client == null) {
+            http2Client = new Http2HttpClient();
+        }
+        return http2Client;
+    }
+
+    /**
+     * Replays from or records to archives given by <code>--replay</code> and
+     * <code>--record</code> arguments. Sessions share one replay client and
+     * one archive writer.
+     */
+    private void configureReplay(GooglePlayAPI session) throws IOException {
+        String replay = namespace.getString("replay");
+        if (replay != null) {
+            if (replayClient == null) {
+                replayClient = new ReplayHttpClient(new File(replay), (Double) namespace.get("replayspeed"));
+            }
+            session.setClient(replayClient);
+        }
+        String record = namespace.getString("record");
+        if (record != null) {
+            if (recordWriter == null) {
+                final ExchangeWriter writer = new ExchangeWriter(new File(record));
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            // nothing to do at shutdown
+                        }
+                    }
+                });
+                recordWriter = writer;
+            }
+            session.startRecording(recordWriter);
         }
     }
 
@@ -545,8 +778,9 @@ public class googleplay {
         login();
         List<String> packageNames = namespace.getList("packagename");
         String sdk = namespace.getString("sdk");
+        ApkDownloader downloader = namespace.getBoolean("apk") ? new ApkDownloader(service) : null;
         for (String packageName : packageNames) {
-            download(packageName, sdk);
+            download(downloader, packageName, sdk);
         }
     }
 
@@ -627,39 +861,41 @@ public class googleplay {
         return client;
     }
 
-    private void download(String packageName, String sdk) throws IOException {
+    /**
+     * Prints <code>package,versionCode,versionString</code> without a line
+     * break, and downloads APK too if a downloader is given. Progress of the
+     * download goes to stderr so that printed versions can be parsed.
+     */
+    private void download(ApkDownloader downloader, String packageName, String sdk) throws IOException {
         DetailsResponse details = service.details(packageName);
         AppDetails appDetails = details.getDocV2().getDetails().getAppDetails();
-        Offer offer = details.getDocV2().getOffer(0);
 
         int versionCode = appDetails.getVersionCode();
         String versionStr = appDetails.getVersionString();
         System.out.print(packageName + "," + versionCode + "," + versionStr);
-        // TODO: download
-        /*
+        if (downloader == null) {
+            return;
+        }
+
+        if (details.getDocV2().getOfferCount() == 0) {
+            System.err.println("No offer! Ignoring.." + packageName);
+            return;
+        }
+        Offer offer = details.getDocV2().getOffer(0);
         long installationSize = appDetails.getInstallationSize();
         int offerType = offer.getOfferType();
         boolean checkoutRequired = offer.getCheckoutFlowRequired();
 
         // paid application...ignore
         if (checkoutRequired) {
-            System.out.println("Checkout required! Ignoring.." + appDetails.getPackageName());
+            System.err.println("Checkout required! Ignoring.." + appDetails.getPackageName());
             return;
         }
 
-        System.out.println("Downloading..." + appDetails.getPackageName() + " : " + installationSize + " bytes");
-        InputStream downloadStream = service.download(appDetails.getPackageName(), versionCode, offerType);
-
-        FileOutputStream outputStream = new FileOutputStream(appDetails.getPackageName() + ".apk");
-
-        byte buffer[] = new byte[1024];
-        for (int k = 0; (k = downloadStream.read(buffer)) != -1;) {
-            outputStream.write(buffer, 0, k);
-        }
-        downloadStream.close();
-        outputStream.close();
-        System.out.println("Downloaded! " + appDetails.getPackageName() + ".apk");
-        //*/
+        System.err.println("Downloading..." + appDetails.getPackageName() + " : " + installationSize + " bytes");
+        downloader.download(appDetails.getPackageName(), versionCode, offerType, sdk,
+                new File(appDetails.getPackageName() + ".apk"));
+        System.err.println("Downloaded! " + appDetails.getPackageName() + ".apk");
     }
 
 }
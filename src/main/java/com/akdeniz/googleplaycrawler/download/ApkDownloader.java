@@ -0,0 +1,965 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppPatchData;
+import com.akdeniz.googleplaycrawler.GooglePlay.AppFileMetadata;
+import com.akdeniz.googleplaycrawler.GooglePlay.HttpCookie;
+import com.akdeniz.googleplaycrawler.GooglePlay.SplitDeliveryData;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.GooglePlayException;
+import com.akdeniz.googleplaycrawler.Utils;
+import com.akdeniz.googleplaycrawler.misc.Base64;
+
+/**
+ * Downloads APK files straight into a {@link FileChannel} through direct
+ * buffers.
+ * <p>
+ * Content is written to <code>target.part</code> first and renamed to target
+ * atomically once it is complete and matches its signature. If a partial
+ * file is left from a previous attempt, download resumes from where it
+ * stopped with HTTP range requests. Expected size, signature and ETag of the
+ * partial content are kept in <code>target.part.meta</code>, so that a
+ * partial file of other content is discarded and a resume sends
+ * <code>If-Range</code>. Files larger than <code>segmentThreshold</code> are
+ * split into ranged segments that are fetched in parallel. Their progress is
+ * kept in <code>target.part.segments</code> so that they can be resumed too.
+ * </p>
+ * <p>
+ * When delivery data offers a gzipped variant, it is preferred. It is
+ * downloaded into <code>target.gz</code>, which is resumed and split like any
+ * other download, and inflated into target once it is complete.
+ * </p>
+ * <p>
+ * If a {@link ApkStore} is set, new versions of stored packages are fetched
+ * as GDIFF patches and rebuilt locally, then checked against the delivery
+ * signature.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class ApkDownloader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_SEGMENTS = 4;
+    public static final long DEFAULT_SEGMENT_THRESHOLD = 32L * 1024 * 1024;
+
+    private static final long STATE_SAVE_INTERVAL = 8L * 1024 * 1024;
+
+    private final GooglePlayAPI service;
+    private final ExecutorService executor;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private boolean preferGzip = true;
+    private int segments = DEFAULT_SEGMENTS;
+    private long segmentThreshold = DEFAULT_SEGMENT_THRESHOLD;
+    private DownloadListener listener;
+    private ApkStore baseStore;
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    public ApkDownloader(GooglePlayAPI service) {
+        this(service, Executors.newCachedThreadPool(Utils.daemonThreadFactory("apk-download")));
+    }
+
+    /**
+     * @param executor runs segments of parallel downloads and files of
+     *                 {@link DownloadJob}s. Since a file waits for its
+     *                 segments, it must not be a small bounded pool.
+     */
+    public ApkDownloader(GooglePlayAPI service, ExecutorService executor) {
+        this.service = service;
+        this.executor = executor;
+    }
+
+    /**
+     * Copy of given downloader that reports to another listener.
+     */
+    private ApkDownloader(ApkDownloader other, DownloadListener listener) {
+        this(other.service, other.executor);
+        this.bufferSize = other.bufferSize;
+        this.preferGzip = other.preferGzip;
+        this.segments = other.segments;
+        this.segmentThreshold = other.segmentThreshold;
+        this.listener = listener;
+    }
+
+    /**
+     * Downloads base APK, split APKs and additional (OBB) files of given
+     * application package name, version and offer type in parallel.
+     *
+     * @see #downloadAll(String, AndroidAppDeliveryData, File)
+     */
+    public DownloadJob downloadAll(String packageName, int versionCode, int offerType, String sdk, File directory)
+            throws IOException {
+        return downloadAll(packageName, service.deliveryData(packageName, versionCode, offerType, sdk), directory);
+    }
+
+    /**
+     * Starts downloading every file described by given delivery data into
+     * directory as one job. Files are named as they are installed on a
+     * device: <code>base.apk</code>, <code>split_&lt;id&gt;.apk</code> and
+     * <code>main|patch.&lt;versionCode&gt;.&lt;packageName&gt;.obb</code>.
+     */
+    public DownloadJob downloadAll(String packageName, AndroidAppDeliveryData appDeliveryData, File directory)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        HttpCookie downloadAuthCookie = appDeliveryData.getDownloadAuthCookie(0);
+        final String cookie = downloadAuthCookie.getName() + "=" + downloadAuthCookie.getValue();
+
+        List<File> files = new ArrayList<File>();
+        List<Long> sizes = new ArrayList<Long>();
+        final List<String> urls = new ArrayList<String>();
+        final List<String> gzippedUrls = new ArrayList<String>();
+        final List<Long> gzippedSizes = new ArrayList<Long>();
+        final List<String> signatures = new ArrayList<String>();
+
+        files.add(new File(directory, "base.apk"));
+        sizes.add(appDeliveryData.hasDownloadSize() ? appDeliveryData.getDownloadSize() : -1);
+        urls.add(appDeliveryData.getDownloadUrl());
+        gzippedUrls.add(appDeliveryData.hasGzippedDownloadUrl() ? appDeliveryData.getGzippedDownloadUrl() : null);
+        gzippedSizes.add(appDeliveryData.hasGzippedDownloadSize() ? appDeliveryData.getGzippedDownloadSize() : -1);
+        signatures.add(appDeliveryData.hasSignature() ? appDeliveryData.getSignature() : null);
+
+        for (SplitDeliveryData split : appDeliveryData.getSplitDeliveryDataList()) {
+            files.add(new File(directory, "split_" + split.getId() + ".apk"));
+            sizes.add(split.hasDownloadSize() ? split.getDownloadSize() : -1);
+            urls.add(split.getDownloadUrl());
+            gzippedUrls.add(split.hasGzippedDownloadUrl() ? split.getGzippedDownloadUrl() : null);
+            gzippedSizes.add(split.hasGzippedDownloadSize() ? split.getGzippedDownloadSize() : -1);
+            signatures.add(split.hasSignature() ? split.getSignature() : null);
+        }
+
+        for (AppFileMetadata additionalFile : appDeliveryData.getAdditionalFileList()) {
+            String type = additionalFile.getFileType() == 0 ? "main" : "patch";
+            files.add(new File(directory, type + "." + additionalFile.getVersionCode() + "." + packageName + ".obb"));
+            sizes.add(additionalFile.hasSize() ? additionalFile.getSize() : -1);
+            urls.add(additionalFile.getDownloadUrl());
+            gzippedUrls.add(null);
+            gzippedSizes.add(-1L);
+            signatures.add(null);
+        }
+
+        DownloadJob job = new DownloadJob(directory, files, sizes, listener);
+        final ApkDownloader downloader = new ApkDownloader(this, job.fileListener());
+        List<Callable<DownloadResult>> tasks = new ArrayList<Callable<DownloadResult>>();
+        for (int i = 0; i < files.size(); i++) {
+            final File file = files.get(i);
+            final long size = sizes.get(i);
+            final String url = urls.get(i);
+            final String gzippedUrl = gzippedUrls.get(i);
+            final long gzippedSize = gzippedSizes.get(i);
+            final String signature = signatures.get(i);
+            tasks.add(new Callable<DownloadResult>() {
+                @Override
+                public DownloadResult call() throws IOException {
+                    if (preferGzip && gzippedUrl != null) {
+                        return downloader.downloadGzipped(gzippedUrl, cookie, gzippedSize, size, signature, file);
+                    }
+                    return downloader.download(url, cookie, size, signature, file);
+                }
+            });
+        }
+        job.start(tasks, executor);
+        return job;
+    }
+
+    /**
+     * Downloads given application package name, version and offer type into
+     * target file.
+     *
+     * @see GooglePlayAPI#deliveryData(String, int, int, String)
+     */
+    public DownloadResult download(String packageName, int versionCode, int offerType, String sdk, File target)
+            throws IOException {
+        if (baseStore == null) {
+            return download(service.deliveryData(packageName, versionCode, offerType, sdk), target);
+        }
+
+        int baseVersionCode = baseStore.latestVersionBefore(packageName, versionCode);
+        AndroidAppDeliveryData appDeliveryData =
+                service.deliveryData(packageName, versionCode, offerType, sdk, baseVersionCode);
+        DownloadResult result = null;
+        if (appDeliveryData.hasPatchData()) {
+            result = downloadPatched(packageName, appDeliveryData, target);
+        }
+        if (result == null) {
+            result = download(appDeliveryData, target);
+        }
+        baseStore.put(packageName, versionCode, target);
+        return result;
+    }
+
+    /**
+     * Downloads patch offered in delivery data and applies it on the base APK
+     * held in <code>baseStore</code>.
+     *
+     * @return <code>null</code> if patch can not be used, in which case APK
+     * should be downloaded in full
+     */
+    private DownloadResult downloadPatched(String packageName, AndroidAppDeliveryData appDeliveryData, File target)
+            throws IOException {
+        AndroidAppPatchData patchData = appDeliveryData.getPatchData();
+        int format = patchData.getPatchFormat();
+        File base = baseStore.get(packageName, patchData.getBaseVersionCode());
+        if (base == null || !appDeliveryData.hasSignature()
+                || (format != GooglePlayAPI.PATCH_FORMAT_GDIFF && format != GooglePlayAPI.PATCH_FORMAT_GZIPPED_GDIFF)) {
+            logger.info("Ignoring patch of {} against version {} in format {}", packageName,
+                    patchData.getBaseVersionCode(), format);
+            return null;
+        }
+
+        long started = System.currentTimeMillis();
+        HttpCookie downloadAuthCookie = appDeliveryData.getDownloadAuthCookie(0);
+        File patch = new File(target.getPath() + ".patch");
+        DownloadResult patchResult = download(patchData.getDownloadUrl(),
+                downloadAuthCookie.getName() + "=" + downloadAuthCookie.getValue(), -1, patch);
+
+        discardPart(target);
+        File part = new File(target.getPath() + ".part");
+        MessageDigest sha1 = newSha1();
+        long length;
+        try {
+            length = applyPatch(base, patch, format == GooglePlayAPI.PATCH_FORMAT_GZIPPED_GDIFF,
+                    new DigestOutputStream(new FileOutputStream(part), sha1));
+        } catch (InterruptedIOException e) {
+            part.delete();
+            throw e;
+        } catch (IOException e) {
+            // truncated or corrupt patches fail with EOF and ZipException as well
+            logger.warn("Patch of {} could not be applied, downloading in full: {}", target, e.getMessage());
+            part.delete();
+            return null;
+        } finally {
+            patch.delete();
+        }
+
+        if (!signatureMatches(sha1.digest(), appDeliveryData.getSignature())
+                || (appDeliveryData.hasDownloadSize() && length != appDeliveryData.getDownloadSize())) {
+            logger.warn("Patched {} does not match its signature, downloading in full", target);
+            part.delete();
+            return null;
+        }
+        moveAtomically(part, target);
+
+        return new DownloadResult(target, length, patchResult.getTransferredBytes(), patchResult.getWireBytes(),
+                System.currentTimeMillis() - started, patchResult.isResumed());
+    }
+
+    private long applyPatch(File base, File patch, boolean gzipped, OutputStream out) throws IOException {
+        RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(patch), bufferSize);
+            try {
+                if (gzipped) {
+                    in = new GZIPInputStream(in, bufferSize);
+                }
+                out = new BufferedOutputStream(out, bufferSize);
+                long length = new GDiffPatcher(bufferSize).apply(baseFile, in, out);
+                out.flush();
+                return length;
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+            baseFile.close();
+        }
+    }
+
+    /**
+     * Delivery data signature is URL safe base64 of SHA-1 of the APK.
+     */
+    private static boolean signatureMatches(byte[] sha1, String signature) {
+        String expected = signature.trim().replace('+', '-').replace('/', '_');
+        while (expected.endsWith("=")) {
+            expected = expected.substring(0, expected.length() - 1);
+        }
+        return expected.equals(Base64.encodeToString(sha1, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP));
+    }
+
+    private static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Downloads APK described by given delivery data into target file.
+     */
+    public DownloadResult download(AndroidAppDeliveryData appDeliveryData, File target) throws IOException {
+        HttpCookie downloadAuthCookie = appDeliveryData.getDownloadAuthCookie(0);
+        String cookie = downloadAuthCookie.getName() + "=" + downloadAuthCookie.getValue();
+        long size = appDeliveryData.hasDownloadSize() ? appDeliveryData.getDownloadSize() : -1;
+
+        String signature = appDeliveryData.hasSignature() ? appDeliveryData.getSignature() : null;
+        if (preferGzip && appDeliveryData.hasGzippedDownloadUrl()) {
+            return downloadGzipped(appDeliveryData.getGzippedDownloadUrl(), cookie,
+                    appDeliveryData.hasGzippedDownloadSize() ? appDeliveryData.getGzippedDownloadSize() : -1, size,
+                    signature, target);
+        }
+        return download(appDeliveryData.getDownloadUrl(), cookie, size, signature, target);
+    }
+
+    /**
+     * Downloads gzipped url content with provided cookie string and inflates
+     * it into target file.
+     *
+     * @param size expected inflated size, or -1 if it is unknown
+     */
+    public DownloadResult downloadGzipped(String url, String cookie, long size, File target) throws IOException {
+        return downloadGzipped(url, cookie, -1, size, null, target);
+    }
+
+    /**
+     * Downloads gzipped url content into <code>target.gz</code>, so that it
+     * can be resumed and split into segments, then inflates it into target
+     * file and checks it against given signature. Progress is reported for
+     * target in inflated bytes, estimated from sizes if both are known.
+     *
+     * @param gzippedSize expected compressed size, or -1 if it is unknown
+     * @param size        expected inflated size, or -1 if it is unknown
+     * @param signature   URL safe base64 of SHA-1 of inflated content, or <code>null</code> if it is unknown
+     */
+    public DownloadResult downloadGzipped(String url, String cookie, final long gzippedSize, final long size,
+                                          String signature, final File target) throws IOException {
+        long started = System.currentTimeMillis();
+        File gzipped = new File(target.getPath() + ".gz");
+        final DownloadListener targetListener = listener;
+        ApkDownloader downloader = new ApkDownloader(this, targetListener == null ? null : new DownloadListener() {
+            @Override
+            public void onProgress(File file, long downloaded, long total) {
+                if (gzippedSize > 0 && size >= 0) {
+                    targetListener.onProgress(target, downloaded * size / gzippedSize, size);
+                } else {
+                    targetListener.onProgress(target, downloaded, size);
+                }
+            }
+        });
+        DownloadResult wire = downloader.download(url, cookie, gzippedSize, gzipped);
+
+        discardPart(target);
+        File part = new File(target.getPath() + ".part");
+        MessageDigest sha1 = newSha1();
+        long length;
+        try {
+            length = inflate(gzipped, new DigestOutputStream(new FileOutputStream(part), sha1));
+        } catch (IOException e) {
+            part.delete();
+            gzipped.delete();
+            throw new GooglePlayException("Could not inflate " + gzipped + ": " + e.getMessage());
+        }
+        gzipped.delete();
+
+        if ((size >= 0 && length != size) || (signature != null && !signatureMatches(sha1.digest(), signature))) {
+            part.delete();
+            throw new GooglePlayException("Inflated " + length + " bytes of " + target + ", expected " + size
+                    + " bytes matching its signature!");
+        }
+        moveAtomically(part, target);
+        if (targetListener != null) {
+            targetListener.onProgress(target, length, size);
+        }
+
+        // inflated share of compressed bytes fetched by this download
+        long transferred = wire.getSize() > 0 ? length * wire.getTransferredBytes() / wire.getSize() : length;
+        return new DownloadResult(target, length, transferred, wire.getTransferredBytes(),
+                System.currentTimeMillis() - started, wire.isResumed());
+    }
+
+    private long inflate(File gzipped, OutputStream out) throws IOException {
+        try {
+            InputStream in = new GZIPInputStream(new FileInputStream(gzipped), bufferSize);
+            try {
+                out = new BufferedOutputStream(out, bufferSize);
+                byte[] buffer = new byte[bufferSize];
+                long length = 0;
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, read);
+                    length += read;
+                }
+                out.flush();
+                return length;
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Downloads url content with provided cookie string into target file.
+     *
+     * @param size expected content size, or -1 if it is unknown. Unknown sized
+     *             content is never split into segments.
+     */
+    public DownloadResult download(String url, String cookie, long size, File target) throws IOException {
+        return download(url, cookie, size, null, target);
+    }
+
+    /**
+     * Downloads url content with provided cookie string into target file and
+     * checks it against given signature before it is moved into place. A
+     * mismatching file is discarded.
+     *
+     * @param size      expected content size, or -1 if it is unknown
+     * @param signature URL safe base64 of SHA-1 of content, or <code>null</code> if it is unknown
+     */
+    public DownloadResult download(String url, String cookie, long size, String signature, File target)
+            throws IOException {
+        long started = System.currentTimeMillis();
+        File part = new File(target.getPath() + ".part");
+        File state = new File(target.getPath() + ".part.segments");
+        PartMeta meta = openPart(target, size, signature);
+        boolean resumed = part.length() > 0;
+
+        Progress progress;
+        FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (size > segmentThreshold && segments > 1) {
+                List<Segment> plan = loadSegments(state, part, size);
+                progress = new Progress(target, size, downloadedBytes(plan));
+                try {
+                    downloadSegments(url, cookie, plan, channel, state, progress, meta);
+                } catch (RangeNotSupportedException e) {
+                    logger.warn("Server ignored range request, downloading {} in one piece", target);
+                    state.delete();
+                    channel.truncate(0);
+                    progress = new Progress(target, size, 0);
+                    downloadStream(url, cookie, size, channel, progress, meta);
+                }
+            } else {
+                progress = new Progress(target, size, size < 0 ? channel.size() : Math.min(channel.size(), size));
+                downloadStream(url, cookie, size, channel, progress, meta);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+
+        long length = part.length();
+        if (size >= 0 && length != size) {
+            throw new GooglePlayException("Downloaded " + length + " bytes of " + target + ", expected " + size + "!");
+        }
+        if (signature != null && !signatureMatches(sha1(part), signature)) {
+            discardPart(target);
+            throw new GooglePlayException("Downloaded " + target + " does not match its signature!");
+        }
+        moveAtomically(part, target);
+        state.delete();
+        meta.file.delete();
+
+        return new DownloadResult(target, length, progress.transferred.get(), progress.transferred.get(),
+                System.currentTimeMillis() - started, resumed);
+    }
+
+    /**
+     * Downloads content in a single request, continuing from the end of
+     * channel if it is not empty. Content that is already complete is left
+     * to signature check.
+     */
+    private void downloadStream(String url, String cookie, long size, FileChannel channel, Progress progress,
+                                PartMeta meta) throws IOException {
+        long offset = channel.size();
+        if (size >= 0 && offset > size) {
+            logger.warn("{} is longer than expected, restarting download", progress.target);
+            channel.truncate(0);
+            offset = 0;
+            progress.reset();
+        }
+        if (size >= 0 && offset == size) {
+            return;
+        }
+
+        HttpResponse response = service.executeDownload(url, cookie, offset, -1, offset > 0 ? meta.etag : null);
+        boolean whole = response.getStatusLine().getStatusCode() != 206;
+        if (offset > 0 && whole) {
+            logger.warn("Server ignored range request, restarting download of {}", progress.target);
+            channel.truncate(0);
+            offset = 0;
+            progress.reset();
+        }
+        meta.validatedBy(response, whole);
+        InputStream content = response.getEntity().getContent();
+        boolean completed = false;
+        try {
+            copy(content, channel, offset, null, progress, null);
+            completed = true;
+        } finally {
+            release(content, completed);
+        }
+    }
+
+    private void downloadSegments(final String url, final String cookie, final List<Segment> plan,
+                                  final FileChannel channel, final File state, final Progress progress,
+                                  final PartMeta meta) throws IOException {
+        final SegmentCheckpoint checkpoint = new SegmentCheckpoint(state, plan);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final Segment segment : plan) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    downloadSegment(url, cookie, segment, channel, progress, checkpoint, meta);
+                    return null;
+                }
+            }));
+        }
+
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<Void> other : futures) {
+                    other.cancel(true);
+                }
+                failure = new IOException("Interrupted while downloading " + progress.target, e);
+                break;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (failure == null || cause instanceof RangeNotSupportedException) {
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+
+        if (failure != null) {
+            if (!(failure instanceof RangeNotSupportedException)) {
+                saveSegments(state, plan);
+            }
+            throw failure;
+        }
+    }
+
+    private void downloadSegment(String url, String cookie, Segment segment, FileChannel channel, Progress progress,
+                                 SegmentCheckpoint checkpoint, PartMeta meta) throws IOException {
+        if (segment.position >= segment.end) {
+            return;
+        }
+        HttpResponse response = service.executeDownload(url, cookie, segment.position, segment.end - 1,
+                meta.etag);
+        InputStream content = response.getEntity().getContent();
+        if (response.getStatusLine().getStatusCode() != 206) {
+            release(content, false);
+            throw new RangeNotSupportedException();
+        }
+        meta.validatedBy(response, false);
+        boolean completed = false;
+        try {
+            copy(content, channel, segment.position, segment, progress, checkpoint);
+            completed = true;
+        } finally {
+            release(content, completed);
+        }
+        if (segment.position != segment.end) {
+            throw new GooglePlayException("Segment " + segment + " ended at " + segment.position + "!");
+        }
+    }
+
+    /**
+     * Copies given stream into channel starting from position.
+     *
+     * @param segment    segment whose position is advanced, or <code>null</code>
+     * @param checkpoint saves segment state periodically, or <code>null</code>
+     */
+    private long copy(InputStream in, FileChannel channel, long position, Segment segment, Progress progress,
+                      SegmentCheckpoint checkpoint) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        boolean eof = false;
+        while (!eof) {
+            eof = source.read(buffer) < 0;
+            if (buffer.position() == 0 || (buffer.hasRemaining() && !eof)) {
+                continue;
+            }
+            buffer.flip();
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+            if (segment != null) {
+                segment.position = position;
+            }
+            progress.add(length);
+            if (checkpoint != null) {
+                checkpoint.advanced(length);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Closes response content. On failure underlying connection is aborted
+     * rather than drained, since rest of an APK may be hundreds of MB.
+     */
+    private static void release(InputStream content, boolean completed) throws IOException {
+        if (!completed && content instanceof ConnectionReleaseTrigger) {
+            ((ConnectionReleaseTrigger) content).abortConnection();
+        } else {
+            content.close();
+        }
+    }
+
+    /**
+     * Keeps partial file of target only if it was started for content of the
+     * same size and signature.
+     */
+    private PartMeta openPart(File target, long size, String signature) throws IOException {
+        File part = new File(target.getPath() + ".part");
+        PartMeta meta = new PartMeta(new File(target.getPath() + ".part.meta"), size, signature);
+        if (part.exists() && !meta.load()) {
+            logger.info("Discarding {} left by a download of other content", part);
+            discardPart(target);
+        }
+        meta.save();
+        return meta;
+    }
+
+    private static void discardPart(File target) {
+        new File(target.getPath() + ".part").delete();
+        new File(target.getPath() + ".part.segments").delete();
+        new File(target.getPath() + ".part.meta").delete();
+    }
+
+    private byte[] sha1(File file) throws IOException {
+        MessageDigest sha1 = newSha1();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        return sha1.digest();
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads segments saved by a previous attempt, or splits content into
+     * <code>segments</code> equal parts if there is none.
+     */
+    private List<Segment> loadSegments(File state, File part, long size) {
+        if (state.exists() && part.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new FileInputStream(state));
+                try {
+                    int count = in.readInt();
+                    List<Segment> plan = new ArrayList<Segment>();
+                    for (int i = 0; i < count; i++) {
+                        Segment segment = new Segment(in.readLong(), in.readLong());
+                        segment.position = in.readLong();
+                        plan.add(segment);
+                    }
+                    if (!plan.isEmpty() && plan.get(plan.size() - 1).end == size) {
+                        return plan;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable segment state {}: {}", state, e.getMessage());
+            }
+        }
+
+        List<Segment> plan = new ArrayList<Segment>();
+        long segmentSize = (size + segments - 1) / segments;
+        for (long start = 0; start < size; start += segmentSize) {
+            plan.add(new Segment(start, Math.min(size, start + segmentSize)));
+        }
+        return plan;
+    }
+
+    private static synchronized void saveSegments(File state, List<Segment> plan) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(state));
+        try {
+            out.writeInt(plan.size());
+            for (Segment segment : plan) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(segment.position);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long downloadedBytes(List<Segment> plan) {
+        long downloaded = 0;
+        for (Segment segment : plan) {
+            downloaded += segment.position - segment.start;
+        }
+        return downloaded;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Size of direct buffer allocated for each stream. (default : 256 KB)
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Number of parallel range requests for large files. (default : 4)
+     */
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public long getSegmentThreshold() {
+        return segmentThreshold;
+    }
+
+    /**
+     * Files larger than this are split into segments. (default : 32 MB)
+     */
+    public void setSegmentThreshold(long segmentThreshold) {
+        this.segmentThreshold = segmentThreshold;
+    }
+
+    public boolean isPreferGzip() {
+        return preferGzip;
+    }
+
+    /**
+     * Whether gzipped variant of an APK is fetched when server offers one.
+     * Gzipped downloads move far fewer bytes, but need room for both
+     * compressed and inflated file until they complete. (default : true)
+     */
+    public void setPreferGzip(boolean preferGzip) {
+        this.preferGzip = preferGzip;
+    }
+
+    public ApkStore getBaseStore() {
+        return baseStore;
+    }
+
+    /**
+     * Store of previously downloaded APKs. When it is set, downloads by
+     * package name ask server for a patch against the latest stored version
+     * and every downloaded APK is added to it. (default : none)
+     */
+    public void setBaseStore(ApkStore baseStore) {
+        this.baseStore = baseStore;
+    }
+
+    public void setListener(DownloadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Byte range <code>[start, end)</code> of content and how much of it is
+     * already on disk.
+     */
+    private static class Segment {
+        final long start;
+        final long end;
+        volatile long position;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+
+    /**
+     * Saves segment state every <code>STATE_SAVE_INTERVAL</code> bytes so
+     * that a killed download can resume close to where it stopped.
+     */
+    private class SegmentCheckpoint {
+        private final File state;
+        private final List<Segment> plan;
+        private long unsaved;
+
+        SegmentCheckpoint(File state, List<Segment> plan) {
+            this.state = state;
+            this.plan = plan;
+        }
+
+        synchronized void advanced(long length) throws IOException {
+            unsaved += length;
+            if (unsaved >= STATE_SAVE_INTERVAL) {
+                unsaved = 0;
+                saveSegments(state, plan);
+            }
+        }
+    }
+
+    /**
+     * Total progress of one download, shared by its segments.
+     */
+    private class Progress {
+        final File target;
+        final long total;
+        final AtomicLong downloaded;
+        final AtomicLong transferred = new AtomicLong();
+
+        Progress(File target, long total, long downloaded) {
+            this.target = target;
+            this.total = total;
+            this.downloaded = new AtomicLong(downloaded);
+        }
+
+        void add(long length) {
+            transferred.addAndGet(length);
+            long current = downloaded.addAndGet(length);
+            if (listener != null) {
+                listener.onProgress(target, current, total);
+            }
+        }
+
+        void reset() {
+            downloaded.set(0);
+        }
+    }
+
+    /**
+     * What a partial file holds: expected size and signature of content, and
+     * ETag that server gave for it.
+     */
+    private static class PartMeta {
+        final File file;
+        final long size;
+        final String signature;
+        volatile String etag;
+
+        PartMeta(File file, long size, String signature) {
+            this.file = file;
+            this.size = size;
+            this.signature = signature;
+        }
+
+        /**
+         * Loads ETag saved by an earlier attempt at the same content.
+         *
+         * @return <code>false</code> if saved content is unknown or another one
+         */
+        synchronized boolean load() {
+            Properties properties = new Properties();
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            if (!String.valueOf(size).equals(properties.getProperty("size"))
+                    || !String.valueOf(signature).equals(String.valueOf(properties.getProperty("signature")))) {
+                return false;
+            }
+            etag = properties.getProperty("etag");
+            return true;
+        }
+
+        synchronized void save() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("size", String.valueOf(size));
+            if (signature != null) {
+                properties.setProperty("signature", signature);
+            }
+            if (etag != null) {
+                properties.setProperty("etag", etag);
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Records strong ETag of response. A whole content response replaces
+         * any previous one, a partial one only fills it in.
+         */
+        synchronized void validatedBy(HttpResponse response, boolean whole) throws IOException {
+            Header header = response.getFirstHeader("ETag");
+            String value = header == null || header.getValue().startsWith("W/") ? null : header.getValue();
+            if ((whole || etag == null) && !String.valueOf(value).equals(String.valueOf(etag))) {
+                etag = value;
+                save();
+            }
+        }
+    }
+
+    private static class RangeNotSupportedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        RangeNotSupportedException() {
+            super("Server does not support range requests!");
+        }
+    }
+}
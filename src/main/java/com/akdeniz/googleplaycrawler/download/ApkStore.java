@@ -0,0 +1,87 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Directory of previously downloaded APK files that serve as bases of patch
+ * downloads. Files are kept as <code>root/packageName/versionCode.apk</code>.
+ *
+ * @author akdeniz
+ */
+public class ApkStore {
+
+    private static final String EXTENSION = ".apk";
+
+    private final File root;
+
+    public ApkStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @return stored APK of given package and version, or <code>null</code> if
+     * it is not stored
+     */
+    public File get(String packageName, int versionCode) {
+        File file = file(packageName, versionCode);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * @return highest stored version of given package that is lower than
+     * <code>versionCode</code>, or -1 if there is none
+     */
+    public int latestVersionBefore(String packageName, int versionCode) {
+        String[] names = new File(root, packageName).list();
+        int latest = -1;
+        if (names == null) {
+            return latest;
+        }
+        for (String name : names) {
+            if (!name.endsWith(EXTENSION)) {
+                continue;
+            }
+            try {
+                int stored = Integer.parseInt(name.substring(0, name.length() - EXTENSION.length()));
+                if (stored < versionCode && stored > latest) {
+                    latest = stored;
+                }
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Adds a copy of given APK to the store. A hard link is used when the file
+     * system allows it.
+     */
+    public File put(String packageName, int versionCode, File apk) throws IOException {
+        File file = file(packageName, versionCode);
+        if (file.isFile()) {
+            return file;
+        }
+        file.getParentFile().mkdirs();
+        try {
+            Files.createLink(file.toPath(), apk.toPath());
+        } catch (FileAlreadyExistsException e) {
+            // stored concurrently
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(apk.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    private File file(String packageName, int versionCode) {
+        return new File(new File(root, packageName), versionCode + EXTENSION);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+}
@@ -0,0 +1,181 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Handle of several files that are downloaded in parallel as one unit, e.g.
+ * base APK of an application together with its splits and OBB files.
+ * <p>
+ * Progress of all files is summed up and reported to listener with the job
+ * directory as target. Job completes when every file is downloaded, or
+ * fails with the first error in which case other files are cancelled.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class DownloadJob {
+
+    private final File directory;
+    private final List<File> files;
+    private final long total;
+    private final DownloadListener listener;
+
+    private final Map<File, Long> downloaded = new ConcurrentHashMap<File, Long>();
+    private final List<Future<DownloadResult>> futures = new ArrayList<Future<DownloadResult>>();
+    private final CompletableFuture<List<DownloadResult>> completion = new CompletableFuture<List<DownloadResult>>();
+
+    /**
+     * @param sizes expected size of each file, or -1 if it is unknown
+     */
+    DownloadJob(File directory, List<File> files, List<Long> sizes, DownloadListener listener) {
+        this.directory = directory;
+        this.files = Collections.unmodifiableList(new ArrayList<File>(files));
+        this.listener = listener;
+
+        long sum = 0;
+        for (Long size : sizes) {
+            if (size < 0) {
+                sum = -1;
+                break;
+            }
+            sum += size;
+        }
+        this.total = sum;
+    }
+
+    /**
+     * Submits given downloads, one per file, to executor.
+     */
+    synchronized void start(List<Callable<DownloadResult>> tasks, ExecutorService executor) {
+        final int count = tasks.size();
+        final DownloadResult[] results = new DownloadResult[count];
+        final int[] remaining = {count};
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Callable<DownloadResult> task = tasks.get(i);
+            futures.add(executor.submit(new Callable<DownloadResult>() {
+                @Override
+                public DownloadResult call() throws Exception {
+                    try {
+                        DownloadResult result = task.call();
+                        synchronized (results) {
+                            results[index] = result;
+                            if (--remaining[0] == 0) {
+                                completion.complete(Collections.unmodifiableList(Arrays.asList(results)));
+                            }
+                        }
+                        return result;
+                    } catch (Exception e) {
+                        if (completion.completeExceptionally(e)) {
+                            cancel();
+                        }
+                        throw e;
+                    }
+                }
+            }));
+        }
+        if (count == 0) {
+            completion.complete(Collections.<DownloadResult>emptyList());
+        }
+    }
+
+    /**
+     * Listener that is given to downloads of each file.
+     */
+    DownloadListener fileListener() {
+        return new DownloadListener() {
+            @Override
+            public void onProgress(File target, long current, long size) {
+                downloaded.put(target, current);
+                if (listener != null) {
+                    listener.onProgress(directory, getDownloaded(), total);
+                }
+            }
+        };
+    }
+
+    /**
+     * Blocks until all files are downloaded.
+     *
+     * @return results in the order of {@link #getFiles()}
+     * @throws InterruptedIOException if waiting thread is interrupted or job
+     *                                is cancelled
+     */
+    public List<DownloadResult> await() throws IOException {
+        try {
+            return completion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new InterruptedIOException("Interrupted while downloading into " + directory);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Download into " + directory + " is cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Interrupts downloads that are still running. Their partial files are
+     * kept, so the job can be resumed later.
+     */
+    public synchronized void cancel() {
+        for (Future<DownloadResult> future : futures) {
+            future.cancel(true);
+        }
+        completion.cancel(false);
+    }
+
+    public CompletableFuture<List<DownloadResult>> getCompletion() {
+        return completion;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Bytes that are on disk for all files of this job.
+     */
+    public long getDownloaded() {
+        long sum = 0;
+        for (Long current : downloaded.values()) {
+            sum += current;
+        }
+        return sum;
+    }
+
+    /**
+     * Expected size of all files, or -1 if size of any of them is unknown.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public boolean isDone() {
+        return completion.isDone();
+    }
+}
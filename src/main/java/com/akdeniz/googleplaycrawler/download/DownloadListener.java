@@ -0,0 +1,19 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.File;
+
+/**
+ * Receives progress of downloads started by {@link ApkDownloader}. It is
+ * called from download threads, so implementations must be thread safe.
+ *
+ * @author akdeniz
+ */
+public interface DownloadListener {
+
+    /**
+     * @param target     file being downloaded
+     * @param downloaded bytes that are on disk, including resumed ones
+     * @param total      expected size, or -1 if it is unknown
+     */
+    void onProgress(File target, long downloaded, long total);
+}
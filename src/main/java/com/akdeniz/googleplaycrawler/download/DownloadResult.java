@@ -0,0 +1,73 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.File;
+
+/**
+ * Outcome of a completed download.
+ *
+ * @author akdeniz
+ */
+public class DownloadResult {
+
+    private final File file;
+    private final long size;
+    private final long transferredBytes;
+    private final long wireBytes;
+    private final long elapsedMillis;
+    private final boolean resumed;
+
+    public DownloadResult(File file, long size, long transferredBytes, long wireBytes, long elapsedMillis,
+                          boolean resumed) {
+        this.file = file;
+        this.size = size;
+        this.transferredBytes = transferredBytes;
+        this.wireBytes = wireBytes;
+        this.elapsedMillis = elapsedMillis;
+        this.resumed = resumed;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Size of downloaded file.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Bytes fetched by this download, excluding the ones resumed from a
+     * previous partial file. For a gzipped variant, it is counted in inflated
+     * bytes, in proportion to compressed bytes fetched if it is resumed.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * Bytes received over network by this download. It is less than
+     * <code>transferredBytes</code> if a gzipped variant is downloaded.
+     */
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Whether download continued a previous partial file.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    @Override
+    public String toString() {
+        return file + " : " + size + " bytes (" + transferredBytes + " transferred, " + wireBytes + " on wire in "
+                + elapsedMillis + " ms" + (resumed ? ", resumed" : "") + ")";
+    }
+}
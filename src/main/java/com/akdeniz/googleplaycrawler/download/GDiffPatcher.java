@@ -0,0 +1,149 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import com.akdeniz.googleplaycrawler.GooglePlayException;
+
+/**
+ * Applies patches in <a href="http://www.w3.org/TR/NOTE-gdiff-19970901">GDIFF</a>
+ * format, which is what Google Play serves as <code>patchFormat</code> 1 and,
+ * gzipped, as 2.
+ *
+ * @author akdeniz
+ */
+public class GDiffPatcher {
+
+    private static final int MAGIC = 0xd1ffd1ff;
+    private static final int VERSION = 4;
+
+    private static final int EOF = 0;
+    private static final int DATA_MAX = 246;
+    private static final int DATA_USHORT = 247;
+    private static final int DATA_INT = 248;
+    private static final int COPY_USHORT_UBYTE = 249;
+    private static final int COPY_USHORT_USHORT = 250;
+    private static final int COPY_USHORT_INT = 251;
+    private static final int COPY_INT_UBYTE = 252;
+    private static final int COPY_INT_USHORT = 253;
+    private static final int COPY_INT_INT = 254;
+    private static final int COPY_LONG_INT = 255;
+
+    private final byte[] buffer;
+
+    public GDiffPatcher() {
+        this(64 * 1024);
+    }
+
+    public GDiffPatcher(int bufferSize) {
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Writes result of applying given patch on base file into output.
+     *
+     * @return number of bytes written
+     */
+    public long apply(RandomAccessFile base, InputStream patch, OutputStream out) throws IOException {
+        DataInputStream in = new DataInputStream(patch);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new GooglePlayException("Not a GDIFF patch!");
+        }
+
+        long written = 0;
+        while (true) {
+            int command = in.read();
+            if (command < 0) {
+                throw new EOFException("GDIFF patch is truncated!");
+            }
+            if (command == EOF) {
+                return written;
+            }
+
+            if (command <= DATA_MAX) {
+                written += data(in, command, out);
+                continue;
+            }
+
+            long offset;
+            int length;
+            switch (command) {
+                case DATA_USHORT:
+                    written += data(in, in.readUnsignedShort(), out);
+                    continue;
+                case DATA_INT:
+                    written += data(in, in.readInt(), out);
+                    continue;
+                case COPY_USHORT_UBYTE:
+                    offset = in.readUnsignedShort();
+                    length = in.readUnsignedByte();
+                    break;
+                case COPY_USHORT_USHORT:
+                    offset = in.readUnsignedShort();
+                    length = in.readUnsignedShort();
+                    break;
+                case COPY_USHORT_INT:
+                    offset = in.readUnsignedShort();
+                    length = in.readInt();
+                    break;
+                case COPY_INT_UBYTE:
+                    offset = in.readInt() & 0xffffffffL;
+                    length = in.readUnsignedByte();
+                    break;
+                case COPY_INT_USHORT:
+                    offset = in.readInt() & 0xffffffffL;
+                    length = in.readUnsignedShort();
+                    break;
+                case COPY_INT_INT:
+                    offset = in.readInt() & 0xffffffffL;
+                    length = in.readInt();
+                    break;
+                case COPY_LONG_INT:
+                    offset = in.readLong();
+                    length = in.readInt();
+                    break;
+                default:
+                    throw new GooglePlayException("Unknown GDIFF command " + command + "!");
+            }
+            written += copy(base, offset, length, out);
+        }
+    }
+
+    private long data(DataInputStream in, int length, OutputStream out) throws IOException {
+        checkLength(length);
+        int remaining = length;
+        while (remaining > 0) {
+            int read = Math.min(remaining, buffer.length);
+            in.readFully(buffer, 0, read);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return length;
+    }
+
+    private long copy(RandomAccessFile base, long offset, int length, OutputStream out) throws IOException {
+        checkLength(length);
+        if (offset < 0 || offset + length > base.length()) {
+            throw new GooglePlayException("GDIFF copy " + offset + "+" + length + " is out of base file!");
+        }
+        base.seek(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int read = Math.min(remaining, buffer.length);
+            base.readFully(buffer, 0, read);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return length;
+    }
+
+    private static void checkLength(int length) throws GooglePlayException {
+        if (length < 0) {
+            throw new GooglePlayException("Negative GDIFF length " + length + "!");
+        }
+    }
+}
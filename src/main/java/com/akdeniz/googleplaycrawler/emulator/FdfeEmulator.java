@@ -0,0 +1,678 @@
+package com.akdeniz.googleplaycrawler.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpHost;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppPatchData;
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidCheckinRequest;
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidCheckinResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsRequest;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.BuyResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
+import com.akdeniz.googleplaycrawler.GooglePlay.GetReviewsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.HttpCookie;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.Payload;
+import com.akdeniz.googleplaycrawler.GooglePlay.PurchaseStatusResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.GooglePlay.ReviewResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.SearchResponse;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.Utils;
+import com.akdeniz.googleplaycrawler.misc.Base64;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in of Google Play servers that answers <code>/auth</code>,
+ * <code>/checkin</code>, <code>/fdfe/details</code>, <code>bulkDetails</code>, <code>list</code>,
+ * <code>search</code>, <code>rev</code> and <code>purchase</code> requests
+ * with {@link SyntheticDocuments}, and serves APK downloads of configurable
+ * size. It allows crawling pipelines to be load tested without touching
+ * Google.
+ * <p>
+ * Requests can be delayed by a fixed latency plus random jitter, and
+ * throttled with 429 (and <code>Retry-After: 1</code>) above a number of
+ * requests per second. Details and list responses carry an ETag and are
+ * answered with 304 if it matches <code>If-None-Match</code>.
+ * </p>
+ * <p>
+ * Emulator speaks plain HTTP. To route an API to it, use
+ * {@link #route(GooglePlayAPI)} or set {@link #getTargetHost()} as
+ * {@link GooglePlayAPI#setTargetHost(HttpHost) target host}:
+ * </p>
+ * <pre>
+ * FdfeEmulator emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 64);
+ * emulator.setLatency(80, 40);
+ * emulator.start();
+ * GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+ * emulator.route(service);
+ * service.login();
+ * </pre>
+ *
+ * @author akdeniz
+ */
+public class FdfeEmulator implements Closeable {
+
+    private static final String PROTOBUF = "application/x-protobuf";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile int maxRequestsPerSecond;
+    private volatile long apkSize = 20 * 1024 * 1024;
+    private volatile boolean gzipOffered;
+    private volatile boolean patchesOffered;
+    private volatile boolean patchesTruncated;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private long windowStart;
+    private int windowCount;
+
+    /**
+     * SHA-1 signatures of served APKs, keyed by "package/versionCode/size".
+     */
+    private final Map<String, String> signatures = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Gzipped APKs, kept in memory and only built if gzip is offered.
+     */
+    private final Map<String, byte[]> gzippedApks = new ConcurrentHashMap<String, byte[]>();
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    /**
+     * @param address address to listen on, port 0 picks a free port
+     * @param threads maximum number of requests served concurrently,
+     *                including the ones waiting for simulated latency
+     */
+    public FdfeEmulator(InetSocketAddress address, int threads) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(threads, Utils.daemonThreadFactory("fdfe-emulator"));
+        server.setExecutor(executor);
+
+        server.createContext("/auth", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                String body = "SID=emulated-sid\nLSID=emulated-lsid\nAuth=emulated-token\n";
+                send(exchange, 200, "text/plain; charset=UTF-8", body.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.createContext("/checkin", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                AndroidCheckinRequest request = AndroidCheckinRequest.parseFrom(exchange.getRequestBody());
+                AndroidCheckinResponse.Builder response = AndroidCheckinResponse.newBuilder().setStatsOk(true)
+                        .setMarketOk(true).setTimeMsec(System.currentTimeMillis());
+                if (request.getId() == 0) {
+                    response.setAndroidId(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE)
+                            .setSecurityToken(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+                } else {
+                    response.setAndroidId(request.getId()).setSecurityToken(request.getSecurityToken());
+                }
+                send(exchange, 200, PROTOBUF, response.build().toByteArray());
+            }
+        });
+        server.createContext("/fdfe/details", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                DocV2 doc = SyntheticDocuments.app(required(params, "doc"));
+                sendTagged(exchange, Payload.newBuilder().setDetailsResponse(DetailsResponse.newBuilder().setDocV2(doc)));
+            }
+        });
+        server.createContext("/fdfe/bulkDetails", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                BulkDetailsRequest request = BulkDetailsRequest.parseFrom(exchange.getRequestBody());
+                BulkDetailsResponse.Builder response = BulkDetailsResponse.newBuilder();
+                for (String docid : request.getDocidList()) {
+                    response.addEntry(BulkDetailsEntry.newBuilder().setDoc(SyntheticDocuments.app(docid)));
+                }
+                send(exchange, Payload.newBuilder().setBulkDetailsResponse(response));
+            }
+        });
+        server.createContext("/fdfe/list", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                String category = required(params, "cat");
+                String subcategory = optional(params, "ctr");
+                ListResponse.Builder response = ListResponse.newBuilder();
+                if (subcategory == null) {
+                    for (String ctr : new String[]{"apps_topselling_free", "apps_topselling_paid", "apps_topgrossing",
+                            "apps_movers_shakers"}) {
+                        response.addDoc(DocV2.newBuilder().setDocid(ctr).setTitle(ctr).setBackendId(3).setDocType(1));
+                    }
+                } else {
+                    response.addDoc(SyntheticDocuments.container(category + "_" + subcategory, subcategory,
+                            integer(params, "o", 0), integer(params, "n", 20)));
+                }
+                sendTagged(exchange, Payload.newBuilder().setListResponse(response));
+            }
+        });
+        server.createContext("/fdfe/search", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                String query = required(params, "q");
+                SearchResponse.Builder response = SearchResponse.newBuilder().setOriginalQuery(query)
+                        .addDoc(SyntheticDocuments.container(query, query, integer(params, "o", 0),
+                                integer(params, "n", 20)));
+                send(exchange, Payload.newBuilder().setSearchResponse(response));
+            }
+        });
+        server.createContext("/fdfe/rev", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                String doc = required(params, "doc");
+                int offset = integer(params, "o", 0);
+                int number = integer(params, "n", 20);
+                GetReviewsResponse.Builder reviews = GetReviewsResponse.newBuilder().setMatchingCount(1000);
+                for (int i = offset; i < Math.min(offset + number, 1000); i++) {
+                    reviews.addReview(SyntheticDocuments.review(doc, i));
+                }
+                send(exchange, Payload.newBuilder().setReviewResponse(ReviewResponse.newBuilder().setGetResponse(reviews)));
+            }
+        });
+        server.createContext("/fdfe/purchase", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                String doc = required(params, "doc");
+                int versionCode = integer(params, "vc", SyntheticDocuments.versionCode(doc));
+                long size = apkSize;
+                String url = "http://" + getTargetHost().toHostString() + "/download/" + doc + "/" + versionCode;
+                AndroidAppDeliveryData.Builder deliveryData = AndroidAppDeliveryData.newBuilder().setDownloadSize(size)
+                        .setSignature(signature(doc, versionCode, size))
+                        .setDownloadUrl(url + ".apk?size=" + size)
+                        .addDownloadAuthCookie(HttpCookie.newBuilder().setName("MarketDA").setValue("emulated"));
+                if (gzipOffered) {
+                    deliveryData.setGzippedDownloadUrl(url + ".apk.gz?size=" + size)
+                            .setGzippedDownloadSize(gzippedApk(doc, versionCode, size).length);
+                }
+                int baseVersionCode = integer(params, "bvc", -1);
+                if (patchesOffered && baseVersionCode >= 0) {
+                    deliveryData.setPatchData(AndroidAppPatchData.newBuilder().setBaseVersionCode(baseVersionCode)
+                            .setPatchFormat(GooglePlayAPI.PATCH_FORMAT_GDIFF)
+                            .setDownloadUrl("http://" + getTargetHost().toHostString() + "/patch/" + doc + "/"
+                                    + versionCode + ".gdiff?size=" + size));
+                }
+                send(exchange, Payload.newBuilder().setBuyResponse(BuyResponse.newBuilder().setPurchaseStatusResponse(
+                        PurchaseStatusResponse.newBuilder().setAppDeliveryData(deliveryData))));
+            }
+        });
+        server.createContext("/patch/", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                servePatch(exchange, params);
+            }
+        });
+        server.createContext("/download/", new EmulatorHandler() {
+            @Override
+            void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+                serveApk(exchange, params);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Emulating FDFE on {}", server.getAddress());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Host that requests should be sent to instead of Google servers.
+     */
+    public HttpHost getTargetHost() {
+        InetSocketAddress address = server.getAddress();
+        return new HttpHost(address.getAddress().getHostAddress(), address.getPort(), "http");
+    }
+
+    /**
+     * Routes all requests of given API, including downloads, to this emulator.
+     */
+    public void route(GooglePlayAPI service) {
+        service.setTargetHost(getTargetHost());
+    }
+
+    /**
+     * Delays every response by <code>latencyMillis</code> plus a random value
+     * up to <code>jitterMillis</code>.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Requests above this rate are answered with 429. Zero (default) disables
+     * throttling.
+     */
+    public void setMaxRequestsPerSecond(int maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * Whether subsequent purchase requests offer a gzipped variant of APKs
+     * too. Gzipped APKs are kept in memory. (default : false)
+     */
+    public void setGzipOffered(boolean gzipOffered) {
+        this.gzipOffered = gzipOffered;
+    }
+
+    /**
+     * Whether subsequent purchase requests that name a base version offer a
+     * GDIFF patch against it. (default : false)
+     */
+    public void setPatchesOffered(boolean patchesOffered) {
+        this.patchesOffered = patchesOffered;
+    }
+
+    /**
+     * Whether patches are cut in half, as a broken transfer would leave them.
+     * (default : false)
+     */
+    public void setPatchesTruncated(boolean patchesTruncated) {
+        this.patchesTruncated = patchesTruncated;
+    }
+
+    /**
+     * Size of APKs offered by subsequent purchase requests, 20 MB by default.
+     */
+    public void setApkSize(long apkSize) {
+        this.apkSize = apkSize;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    private synchronized boolean allow() {
+        int limit = maxRequestsPerSecond;
+        if (limit <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= 1000) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        return ++windowCount <= limit;
+    }
+
+    private void simulateLatency() throws IOException {
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while simulating latency");
+        }
+    }
+
+    private abstract class EmulatorHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            try {
+                simulateLatency();
+                if (!allow()) {
+                    throttledCount.incrementAndGet();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    send(exchange, 429, "text/plain", "Too many requests".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                serve(exchange, parseParams(exchange));
+            } catch (BadRequestException e) {
+                send(exchange, 400, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.debug("{} failed: {}", exchange.getRequestURI(), e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("{} failed", exchange.getRequestURI(), e);
+                send(exchange, 500, "text/plain", e.toString().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException;
+    }
+
+    /**
+     * Serves deterministic APK content of requested package, version and
+     * size. A single byte range is honored with 206, unless
+     * <code>If-Range</code> does not match ETag of content.
+     */
+    private void serveApk(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().substring("/download/".length()).split("/");
+        boolean gzipped = path.length == 2 && path[1].endsWith(".apk.gz");
+        if (path.length != 2 || !(gzipped || path[1].endsWith(".apk"))) {
+            throw new BadRequestException("Invalid download path: " + exchange.getRequestURI().getPath());
+        }
+        String doc = path[0];
+        int versionCode;
+        try {
+            versionCode = Integer.parseInt(path[1].substring(0, path[1].lastIndexOf(".apk")));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid version code: " + path[1]);
+        }
+        long size = apkSize;
+        if (optional(params, "size") != null) {
+            try {
+                size = Long.parseLong(optional(params, "size"));
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("Invalid size: " + optional(params, "size"));
+            }
+        }
+
+        byte[] compressed = gzipped ? gzippedApk(doc, versionCode, size) : null;
+        String etag = "\"" + Integer.toHexString(doc.hashCode()) + "-" + versionCode + "-" + size
+                + (gzipped ? "-gz" : "") + "\"";
+        if (gzipped) {
+            size = compressed.length;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        int statusCode = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null && !ifRange.equals(etag)) {
+            // content changed since client got its part, send all of it
+            range = null;
+        }
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            try {
+                start = Long.parseLong(bounds[0].trim());
+                if (bounds.length > 1 && !bounds[1].trim().isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1].trim()));
+                }
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("Invalid range: " + range);
+            }
+            if (start >= size || start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                send(exchange, 416, "text/plain", new byte[0]);
+                return;
+            }
+            statusCode = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/vnd.android.package-archive");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(statusCode, end - start + 1);
+        OutputStream out = exchange.getResponseBody();
+        if (gzipped) {
+            out.write(compressed, (int) start, (int) (end - start + 1));
+            out.close();
+            return;
+        }
+        ApkContent content = new ApkContent(doc, versionCode);
+        byte[] buffer = new byte[64 * 1024];
+        for (long position = start; position <= end; ) {
+            int length = (int) Math.min(buffer.length, end - position + 1);
+            content.read(position, buffer, length);
+            out.write(buffer, 0, length);
+            position += length;
+        }
+        out.close();
+    }
+
+    /**
+     * Serves a GDIFF patch that rebuilds requested version. It holds data
+     * commands only, so it applies on any base.
+     */
+    private void servePatch(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().substring("/patch/".length()).split("/");
+        if (path.length != 2 || !path[1].endsWith(".gdiff")) {
+            throw new BadRequestException("Invalid patch path: " + exchange.getRequestURI().getPath());
+        }
+        String doc = path[0];
+        int versionCode;
+        long size;
+        try {
+            versionCode = Integer.parseInt(path[1].substring(0, path[1].length() - ".gdiff".length()));
+            size = Long.parseLong(required(params, "size"));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid patch: " + exchange.getRequestURI());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xd1ffd1ff);
+        out.writeByte(4);
+        ApkContent content = new ApkContent(doc, versionCode);
+        byte[] buffer = new byte[64 * 1024];
+        for (long position = 0; position < size; ) {
+            int length = (int) Math.min(buffer.length, size - position);
+            content.read(position, buffer, length);
+            // DATA_INT
+            out.writeByte(248);
+            out.writeInt(length);
+            out.write(buffer, 0, length);
+            position += length;
+        }
+        // EOF
+        out.writeByte(0);
+        byte[] patch = bytes.toByteArray();
+        if (patchesTruncated) {
+            patch = Arrays.copyOf(patch, patch.length / 2);
+        }
+        send(exchange, 200, "application/octet-stream", patch);
+    }
+
+    private byte[] gzippedApk(String doc, int versionCode, long size) throws IOException {
+        String key = doc + "/" + versionCode + "/" + size;
+        byte[] compressed = gzippedApks.get(key);
+        if (compressed == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            ApkContent content = new ApkContent(doc, versionCode);
+            byte[] buffer = new byte[64 * 1024];
+            for (long position = 0; position < size; ) {
+                int length = (int) Math.min(buffer.length, size - position);
+                content.read(position, buffer, length);
+                gzip.write(buffer, 0, length);
+                position += length;
+            }
+            gzip.close();
+            compressed = bytes.toByteArray();
+            gzippedApks.put(key, compressed);
+        }
+        return compressed;
+    }
+
+    private String signature(String doc, int versionCode, long size) {
+        String key = doc + "/" + versionCode + "/" + size;
+        String signature = signatures.get(key);
+        if (signature == null) {
+            MessageDigest sha1;
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            ApkContent content = new ApkContent(doc, versionCode);
+            byte[] buffer = new byte[64 * 1024];
+            for (long position = 0; position < size; ) {
+                int length = (int) Math.min(buffer.length, size - position);
+                content.read(position, buffer, length);
+                sha1.update(buffer, 0, length);
+                position += length;
+            }
+            signature = Base64.encodeToString(sha1.digest(), Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+            signatures.put(key, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * Pseudo random content whose bytes can be read from any position: a
+     * seeded block is repeated, each repetition xored with its index.
+     */
+    private static class ApkContent {
+
+        private static final int BLOCK_SIZE = 64 * 1024;
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+
+        ApkContent(String doc, int versionCode) {
+            new Random(doc.hashCode() * 31L + versionCode).nextBytes(block);
+        }
+
+        void read(long position, byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                long offset = position + i;
+                buffer[i] = (byte) (block[(int) (offset % BLOCK_SIZE)] ^ (offset / BLOCK_SIZE));
+            }
+        }
+    }
+
+    private static Map<String, List<String>> parseParams(HttpExchange exchange) throws IOException {
+        List<NameValuePair> pairs = new ArrayList<NameValuePair>(
+                URLEncodedUtils.parse(exchange.getRequestURI(), "UTF-8"));
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if ("POST".equals(exchange.getRequestMethod()) && contentType != null
+                && contentType.startsWith("application/x-www-form-urlencoded")) {
+            String body = new String(Utils.readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            pairs.addAll(URLEncodedUtils.parse(body, StandardCharsets.UTF_8));
+        }
+
+        Map<String, List<String>> params = new HashMap<String, List<String>>();
+        for (NameValuePair pair : pairs) {
+            List<String> values = params.get(pair.getName());
+            if (values == null) {
+                values = new ArrayList<String>();
+                params.put(pair.getName(), values);
+            }
+            values.add(pair.getValue());
+        }
+        return params;
+    }
+
+    private static String optional(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static String required(Map<String, List<String>> params, String name) throws BadRequestException {
+        String value = optional(params, name);
+        if (value == null || value.isEmpty()) {
+            throw new BadRequestException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static int integer(Map<String, List<String>> params, String name, int defaultValue)
+            throws BadRequestException {
+        String value = optional(params, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid number " + name + ": " + value);
+        }
+    }
+
+    private static void send(HttpExchange exchange, Payload.Builder payload) throws IOException {
+        send(exchange, 200, PROTOBUF, ResponseWrapper.newBuilder().setPayload(payload).build().toByteArray());
+    }
+
+    /**
+     * Sends payload with an ETag, or 304 if client already has it.
+     */
+    private static void sendTagged(HttpExchange exchange, Payload.Builder payload) throws IOException {
+        byte[] body = ResponseWrapper.newBuilder().setPayload(payload).build().toByteArray();
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        send(exchange, 200, PROTOBUF, body);
+    }
+
+    /**
+     * Sends given body, gzip encoded if it is a protobuf response and client
+     * accepts gzip, as FDFE does.
+     */
+    private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (PROTOBUF.equals(contentType) && body.length > 0 && acceptEncoding != null
+                && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static class BadRequestException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+}
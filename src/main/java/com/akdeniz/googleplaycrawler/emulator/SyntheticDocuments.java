@@ -0,0 +1,119 @@
+package com.akdeniz.googleplaycrawler.emulator;
+
+import java.util.Random;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AggregateRating;
+import com.akdeniz.googleplaycrawler.GooglePlay.AppDetails;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocumentDetails;
+import com.akdeniz.googleplaycrawler.GooglePlay.Image;
+import com.akdeniz.googleplaycrawler.GooglePlay.Offer;
+import com.akdeniz.googleplaycrawler.GooglePlay.Review;
+import com.google.protobuf.ByteString;
+
+/**
+ * Generates documents shaped like real Google Play ones: a few KB of
+ * description, a dozen images and permissions, an offer and ratings. Same
+ * package name always yields the same document. Packages whose name ends
+ * with <code>.unavailable</code> have no offer, as apps that are not
+ * offered in the country of the account.
+ *
+ * @author akdeniz
+ */
+public final class SyntheticDocuments {
+
+    private static final String[] PERMISSIONS = {"android.permission.INTERNET",
+            "android.permission.ACCESS_NETWORK_STATE", "android.permission.WAKE_LOCK",
+            "android.permission.READ_EXTERNAL_STORAGE", "android.permission.WRITE_EXTERNAL_STORAGE",
+            "android.permission.ACCESS_FINE_LOCATION", "android.permission.CAMERA",
+            "com.google.android.c2dm.permission.RECEIVE", "android.permission.VIBRATE",
+            "com.android.vending.BILLING"};
+
+    private SyntheticDocuments() {
+    }
+
+    /**
+     * Application document of given package name.
+     */
+    public static DocV2 app(String packageName) {
+        Random random = new Random(packageName.hashCode());
+        AppDetails.Builder appDetails = AppDetails.newBuilder().setPackageName(packageName)
+                .setDeveloperName(word(random, 12)).setDeveloperEmail(word(random, 6) + "@example.com")
+                .setDeveloperWebsite("https://" + word(random, 10) + ".example.com")
+                .setVersionCode(versionCode(packageName))
+                .setVersionString(random.nextInt(20) + "." + random.nextInt(10))
+                .setTitle(word(random, 16)).setInstallationSize(1000000L + random.nextInt(100000000))
+                .setNumDownloads("1,000,000+").setUploadDate("Oct 17, 2026").addAppCategory("TOOLS")
+                .setRecentChangesHtml(text(random, 400)).setTargetSdkVersion(26 + random.nextInt(8));
+        for (String permission : PERMISSIONS) {
+            appDetails.addPermission(permission);
+        }
+
+        DocV2.Builder doc = DocV2.newBuilder().setDocid(packageName).setBackendDocid(packageName).setDocType(1)
+                .setBackendId(3).setTitle(appDetails.getTitle()).setCreator(appDetails.getDeveloperName())
+                .setDescriptionHtml(text(random, 3000))
+                .setDetails(DocumentDetails.newBuilder().setAppDetails(appDetails))
+                .setAggregateRating(AggregateRating.newBuilder().setType(2).setStarRating(4.3f)
+                        .setRatingsCount(random.nextInt(10000000)).setFiveStarRatings(random.nextInt(1000000))
+                        .setOneStarRatings(random.nextInt(100000)).setBayesianMeanRating(4.25))
+                .setDetailsUrl("details?doc=" + packageName)
+                .setShareUrl("https://play.google.com/store/apps/details?id=" + packageName)
+                .setReviewsUrl("rev?doc=" + packageName).setServerLogsCookie(bytes(random, 32));
+        if (!packageName.endsWith(".unavailable")) {
+            doc.addOffer(Offer.newBuilder().setMicros(0).setCurrencyCode("USD").setFormattedAmount("Free")
+                    .setOfferType(1).setCheckoutFlowRequired(false));
+        }
+        for (int i = 0; i < 12; i++) {
+            doc.addImage(Image.newBuilder().setImageType(i == 0 ? 4 : 1)
+                    .setImageUrl("https://lh3.googleusercontent.com/" + word(random, 80))
+                    .setSupportsFifeUrlOptions(true).setPositionInSequence(i));
+        }
+        return doc.build();
+    }
+
+    /**
+     * Container document whose children are <code>count</code> applications
+     * starting from <code>offset</code>, as returned by list and search.
+     */
+    public static DocV2 container(String docid, String title, int offset, int count) {
+        DocV2.Builder container = DocV2.newBuilder().setDocid(docid).setTitle(title).setBackendId(3).setDocType(1);
+        for (int i = offset; i < offset + count; i++) {
+            container.addChild(app("com.example." + docid.replaceAll("[^A-Za-z0-9]", "_").toLowerCase() + ".app" + i));
+        }
+        return container.build();
+    }
+
+    public static Review review(String packageName, int index) {
+        Random random = new Random(packageName.hashCode() * 31L + index);
+        return Review.newBuilder().setAuthorName(word(random, 8)).setDocumentVersion("1.0")
+                .setTimestampMsec(1700000000000L + random.nextInt(1000000000)).setStarRating(1 + random.nextInt(5))
+                .setTitle(word(random, 10)).setComment(text(random, 200)).setCommentId("gp:" + word(random, 20))
+                .build();
+    }
+
+    public static int versionCode(String packageName) {
+        return 1 + (packageName.hashCode() & 0xfffff);
+    }
+
+    private static String word(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(word(random, 2 + random.nextInt(9))).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static ByteString bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+}
@@ -1,16 +1,14 @@
 package com.akdeniz.googleplaycrawler.gsf;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import com.akdeniz.googleplaycrawler.GooglePlayAPI;
 import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
-import com.akdeniz.googleplaycrawler.GooglePlay.HttpCookie;
 import com.akdeniz.googleplaycrawler.GooglePlay.Notification;
+import com.akdeniz.googleplaycrawler.download.ApkDownloader;
 
 /**
  * Handles download notifications.
@@ -20,11 +18,11 @@ import com.akdeniz.googleplaycrawler.GooglePlay.Notification;
  */
 public class NotificationListener {
 
-    private GooglePlayAPI service;
+    private ApkDownloader downloader;
     private ExecutorService executer;
 
     public NotificationListener(GooglePlayAPI service) {
-	this.service = service;
+	this.downloader = new ApkDownloader(service);
 	this.executer = Executors.newFixedThreadPool(5);
     }
 
@@ -46,35 +44,17 @@ public class NotificationListener {
 
 	    AndroidAppDeliveryData appDeliveryData = notification.getAppDeliveryData();
 
-	    String downloadUrl = appDeliveryData.getDownloadUrl();
-	    HttpCookie downloadAuthCookie = appDeliveryData.getDownloadAuthCookie(0);
-
 	    long installationSize = appDeliveryData.getDownloadSize();
 	    String packageName = notification.getDocid().getBackendDocid();
 
 	    try {
 		System.out.println("Downloading..." + packageName + " : " + installationSize + " bytes");
-		download(downloadUrl, downloadAuthCookie, packageName);
+		downloader.download(appDeliveryData, new File(packageName + ".apk"));
 		System.out.println("Downloaded! " + packageName + ".apk");
 	    } catch (IOException e) {
 		System.out.println("Error occured while downloading " + packageName + " : " + e.getMessage());
 	    }
 
 	}
-
-	private void download(String downloadUrl, HttpCookie downloadAuthCookie, String packageName) throws IOException,
-		FileNotFoundException {
-	    InputStream downloadStream = service.executeDownload(downloadUrl, downloadAuthCookie.getName() + "="
-		    + downloadAuthCookie.getValue());
-
-	    FileOutputStream outputStream = new FileOutputStream(packageName + ".apk");
-
-	    byte buffer[] = new byte[8192];
-	    for (int k = 0; (k = downloadStream.read(buffer)) != -1;) {
-		outputStream.write(buffer, 0, k);
-	    }
-	    downloadStream.close();
-	    outputStream.close();
-	}
     }
 }
@@ -0,0 +1,149 @@
+package com.akdeniz.googleplaycrawler.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Base of {@link HttpClient} implementations that are not backed by an
+ * <code>AbstractHttpClient</code>, so that they can be given to
+ * {@link com.akdeniz.googleplaycrawler.GooglePlayAPI#setClient(HttpClient)}.
+ * All <code>execute</code> variants end up in {@link #doExecute}.
+ *
+ * @author akdeniz
+ */
+public abstract class AbstractHttpClientAdapter implements HttpClient {
+
+    private final HttpParams params = new BasicHttpParams();
+
+    /**
+     * Executes request and returns its response, whatever its status code is.
+     *
+     * @param target  host to send request to, or <code>null</code> to use the
+     *                host of request URI
+     * @param context execution context, may be <code>null</code>
+     */
+    protected abstract HttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+            throws IOException;
+
+    @Override
+    public HttpParams getParams() {
+        return params;
+    }
+
+    /**
+     * Adapters do not expose a connection manager by default.
+     */
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+        return null;
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        return execute(request, (HttpContext) null);
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+        return doExecute(determineTarget(request), request, context);
+    }
+
+    @Override
+    public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException {
+        return doExecute(target, request, null);
+    }
+
+    @Override
+    public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        return doExecute(target, request, context);
+    }
+
+    @Override
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
+        return execute(request, responseHandler, null);
+    }
+
+    @Override
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context)
+            throws IOException {
+        return execute(determineTarget(request), request, responseHandler, context);
+    }
+
+    @Override
+    public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler)
+            throws IOException {
+        return execute(target, request, responseHandler, null);
+    }
+
+    @Override
+    public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler,
+                         HttpContext context) throws IOException {
+        HttpResponse response = doExecute(target, request, context);
+        HttpEntity entity = response.getEntity();
+        try {
+            T result = responseHandler.handleResponse(response);
+            EntityUtils.consume(entity);
+            return result;
+        } catch (IOException e) {
+            consumeQuietly(entity);
+            throw e;
+        } catch (RuntimeException e) {
+            consumeQuietly(entity);
+            throw e;
+        }
+    }
+
+    /**
+     * Absolute URI of given request. If a target is given, URI is rebuilt on
+     * it even if it is absolute, as <code>DefaultRequestDirector</code> does,
+     * so that requests can be sent to another host.
+     */
+    protected static URI absoluteUri(HttpHost target, HttpRequest request) throws ClientProtocolException {
+        URI uri = request instanceof HttpUriRequest ? ((HttpUriRequest) request).getURI()
+                : URI.create(request.getRequestLine().getUri());
+        if (target == null) {
+            return uri;
+        }
+        try {
+            return URIUtils.rewriteURI(uri, target);
+        } catch (URISyntaxException e) {
+            throw new ClientProtocolException("Invalid URI " + uri + " for " + target, e);
+        }
+    }
+
+    private static HttpHost determineTarget(HttpUriRequest request) throws ClientProtocolException {
+        URI uri = request.getURI();
+        if (!uri.isAbsolute()) {
+            return null;
+        }
+        HttpHost target = URIUtils.extractHost(uri);
+        if (target == null) {
+            throw new ClientProtocolException("URI does not specify a valid host name: " + uri);
+        }
+        return target;
+    }
+
+    private static void consumeQuietly(HttpEntity entity) {
+        try {
+            EntityUtils.consume(entity);
+        } catch (IOException ignored) {
+            // original exception is more important
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.akdeniz.googleplaycrawler.http;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * {@link org.apache.http.client.HttpClient} that sends requests over HTTP/2
+ * when server supports it, so that concurrent requests to
+ * <code>android.clients.google.com</code> are multiplexed over a few
+ * connections instead of one connection per request. Hosts that do not
+ * negotiate HTTP/2 are served over HTTP/1.1.
+ * <p>
+ * It can be given to
+ * {@link com.akdeniz.googleplaycrawler.GooglePlayAPI#setClient} of any
+ * number of sessions; they share its connections. Aborting a request or
+ * its response stream cancels the underlying stream only.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class Http2HttpClient extends AbstractHttpClientAdapter implements Closeable {
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final OkHttpClient client;
+
+    /**
+     * Creates a client with settings of {@link #newBuilder()}.
+     */
+    public Http2HttpClient() {
+        this(newBuilder().build());
+    }
+
+    public Http2HttpClient(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Builder that prefers HTTP/2, keeps up to 4 idle connections for 5
+     * minutes, and uses 10 seconds connect and 30 seconds read timeouts.
+     */
+    public static OkHttpClient.Builder newBuilder() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(256);
+        dispatcher.setMaxRequestsPerHost(256);
+        return new OkHttpClient.Builder()
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(4, 5, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS);
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    protected HttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        Request.Builder builder = new Request.Builder().url(absoluteUri(target, request).toString());
+        for (Header header : request.getAllHeaders()) {
+            if (!isHopByHop(header.getName())) {
+                builder.addHeader(header.getName(), header.getValue());
+            }
+        }
+
+        String method = request.getRequestLine().getMethod();
+        RequestBody body = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                Header contentType = entity.getContentType();
+                body = RequestBody.create(contentType == null ? null : MediaType.parse(contentType.getValue()),
+                        EntityUtils.toByteArray(entity));
+            } else {
+                body = RequestBody.create(null, EMPTY);
+            }
+        }
+        builder.method(method, body);
+
+        Call call = client.newCall(builder.build());
+        CancelTrigger trigger = new CancelTrigger(call);
+        if (request instanceof AbortableHttpRequest) {
+            ((AbortableHttpRequest) request).setReleaseTrigger(trigger);
+        }
+        return toHttpResponse(call.execute(), trigger);
+    }
+
+    private static HttpResponse toHttpResponse(Response response, CancelTrigger trigger) {
+        BasicHttpResponse httpResponse = new BasicHttpResponse(
+                response.protocol() == Protocol.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1,
+                response.code(), response.message());
+        for (int i = 0; i < response.headers().size(); i++) {
+            httpResponse.addHeader(response.headers().name(i), response.headers().value(i));
+        }
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            return httpResponse;
+        }
+        InputStreamEntity entity = new InputStreamEntity(new ReleasableInputStream(body.byteStream(), trigger),
+                body.contentLength());
+        MediaType contentType = body.contentType();
+        if (contentType != null) {
+            entity.setContentType(contentType.toString());
+        }
+        String contentEncoding = response.header("Content-Encoding");
+        if (contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+        }
+        httpResponse.setEntity(entity);
+        return httpResponse;
+    }
+
+    /**
+     * Connection level headers are not allowed on HTTP/2 and are managed by
+     * OkHttp on HTTP/1.1.
+     */
+    private static boolean isHopByHop(String name) {
+        return "Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+                || "Content-Length".equalsIgnoreCase(name) || "Transfer-Encoding".equalsIgnoreCase(name)
+                || "Keep-Alive".equalsIgnoreCase(name) || "Upgrade".equalsIgnoreCase(name);
+    }
+
+    /**
+     * Closes idle connections and stops dispatcher threads. Clients built
+     * from the same {@link OkHttpClient} cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private static class CancelTrigger implements ConnectionReleaseTrigger {
+
+        private final Call call;
+
+        CancelTrigger(Call call) {
+            this.call = call;
+        }
+
+        @Override
+        public void releaseConnection() {
+            // response stream is closed by its consumer
+        }
+
+        @Override
+        public void abortConnection() {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Response stream that lets {@link EntityUtils} and
+     * {@link com.akdeniz.googleplaycrawler.download.ApkDownloader} abort it without
+     * draining.
+     */
+    private static class ReleasableInputStream extends FilterInputStream implements ConnectionReleaseTrigger {
+
+        private final CancelTrigger trigger;
+
+        ReleasableInputStream(InputStream in, CancelTrigger trigger) {
+            super(in);
+            this.trigger = trigger;
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            close();
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            trigger.abortConnection();
+            close();
+        }
+    }
+}
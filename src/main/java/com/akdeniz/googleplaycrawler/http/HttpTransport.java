@@ -0,0 +1,209 @@
+package com.akdeniz.googleplaycrawler.http;
+
+import java.io.Closeable;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.Utils;
+import com.akdeniz.googleplaycrawler.timing.TimingSocketFactory;
+
+/**
+ * Connection pool, TLS context and timeouts shared by every
+ * {@link com.akdeniz.googleplaycrawler.GooglePlayAPI} of the process, so
+ * that many sessions reuse a bounded number of connections instead of
+ * opening a pool each.
+ * <p>
+ * Connections to {@link #API_HOST} and to APK download hosts are limited
+ * separately. Idle and expired connections are closed in background, and
+ * TLS sessions are cached so that new connections resume them instead of
+ * doing full handshakes. All settings can be changed at any time and apply
+ * to clients created before.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class HttpTransport implements Closeable {
+
+    public static final String API_HOST = "android.clients.google.com";
+
+    private static HttpTransport defaultTransport;
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final HttpParams params = new BasicHttpParams();
+    private final ScheduledExecutorService evictor;
+    private ScheduledFuture<?> eviction;
+    private long idleTimeoutMillis = 30000;
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    /**
+     * Creates a transport with up to 200 connections, 50 to API host and 10
+     * to each download host, 10 seconds connect timeout, 30 seconds read
+     * timeout, and idle connections closed after 30 seconds.
+     */
+    public HttpTransport() {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+        schemeRegistry.register(new Scheme("https", 443,
+                new SSLSocketFactory(createSSLContext(), SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER)));
+        TimingSocketFactory.instrument(schemeRegistry);
+
+        connectionManager = new PoolingClientConnectionManager(schemeRegistry);
+        setMaxTotal(200);
+        setApiMaxPerRoute(50);
+        setDownloadMaxPerRoute(10);
+        setConnectTimeout(10000);
+        setSocketTimeout(30000);
+        setLeaseTimeout(60000);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(1, Utils.daemonThreadFactory("connection-evictor"));
+        executor.setRemoveOnCancelPolicy(true);
+        evictor = executor;
+        scheduleEviction();
+    }
+
+    /**
+     * Transport that {@link com.akdeniz.googleplaycrawler.GooglePlayAPI}
+     * instances use by default. It is created on first call.
+     */
+    public static synchronized HttpTransport getDefault() {
+        if (defaultTransport == null) {
+            defaultTransport = new HttpTransport();
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * Creates a client on the shared pool. Clients are cheap; closing their
+     * connection manager closes the whole transport.
+     */
+    public HttpClient newClient() {
+        return new DefaultHttpClient(connectionManager, params);
+    }
+
+    public PoolingClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        connectionManager.setMaxTotal(maxTotal);
+    }
+
+    /**
+     * Maximum connections to {@link #API_HOST}, which serves FDFE requests.
+     */
+    public void setApiMaxPerRoute(int maxPerRoute) {
+        connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost(API_HOST, 443, "https")), maxPerRoute);
+        connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost(API_HOST, 443, "https"), null, true),
+                maxPerRoute);
+    }
+
+    /**
+     * Maximum connections to each other host, which are mostly APK download
+     * hosts.
+     */
+    public void setDownloadMaxPerRoute(int maxPerRoute) {
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+    }
+
+    public void setConnectTimeout(int millis) {
+        HttpConnectionParams.setConnectionTimeout(params, millis);
+    }
+
+    /**
+     * Maximum time to wait for data on an open connection.
+     */
+    public void setSocketTimeout(int millis) {
+        HttpConnectionParams.setSoTimeout(params, millis);
+    }
+
+    /**
+     * Maximum time to wait for a free connection when pool is exhausted.
+     */
+    public void setLeaseTimeout(long millis) {
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, millis);
+    }
+
+    /**
+     * Connections that are not used for given time are closed in background.
+     * Expired connections are closed at the same pace.
+     */
+    public synchronized void setIdleTimeout(long millis) {
+        this.idleTimeoutMillis = millis;
+        scheduleEviction();
+    }
+
+    private synchronized void scheduleEviction() {
+        if (eviction != null) {
+            eviction.cancel(false);
+        }
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        eviction = evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not evict idle connections", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops eviction and closes all connections. Clients of this transport
+     * cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        connectionManager.shutdown();
+        synchronized (HttpTransport.class) {
+            if (defaultTransport == this) {
+                defaultTransport = null;
+            }
+        }
+    }
+
+    /**
+     * TLS context whose client session cache lets connections to the same
+     * host resume sessions.
+     */
+    private static SSLContext createSSLContext() {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            sslContext.getClientSessionContext().setSessionCacheSize(1024);
+            sslContext.getClientSessionContext().setSessionTimeout(24 * 60 * 60);
+            return sslContext;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (KeyManagementException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
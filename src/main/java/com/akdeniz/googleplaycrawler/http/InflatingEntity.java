@@ -0,0 +1,191 @@
+package com.akdeniz.googleplaycrawler.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import com.akdeniz.googleplaycrawler.metrics.EndpointMetrics;
+
+/**
+ * Response entity that inflates gzip encoded content while it is read, so
+ * that it can be parsed without buffering compressed body. Compressed and
+ * inflated sizes are reported to
+ * {@link EndpointMetrics#onCompressedResponse(long, long)} once content is
+ * read to the end or closed.
+ *
+ * @author akdeniz
+ */
+public class InflatingEntity extends HttpEntityWrapper {
+
+    private final EndpointMetrics metrics;
+
+    /**
+     * @param metrics metrics to report sizes to, may be <code>null</code>
+     */
+    public InflatingEntity(HttpEntity wrapped, EndpointMetrics metrics) {
+        super(wrapped);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Replaces entity of given response with an {@link InflatingEntity} if
+     * it is gzip encoded, and removes headers that describe encoded body.
+     *
+     * @param metrics metrics to report sizes to, may be <code>null</code>
+     */
+    public static void decode(HttpResponse response, EndpointMetrics metrics) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0) {
+            return;
+        }
+        Header encoding = entity.getContentEncoding();
+        if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim())) {
+            response.setEntity(new InflatingEntity(entity, metrics));
+            response.removeHeaders("Content-Encoding");
+            response.removeHeaders("Content-Length");
+        }
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return null;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new InflatingInputStream(new CountingInputStream(super.getContent()));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = getContent();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Keeps {@link ConnectionReleaseTrigger} of wrapped stream, so that
+     * connections can still be aborted instead of drained.
+     */
+    private static class CountingInputStream extends FilterInputStream implements ConnectionReleaseTrigger {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            if (in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).releaseConnection();
+            } else {
+                close();
+            }
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            if (in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).abortConnection();
+            } else {
+                close();
+            }
+        }
+    }
+
+    private class InflatingInputStream extends GZIPInputStream implements ConnectionReleaseTrigger {
+
+        private final CountingInputStream compressed;
+        private long inflated;
+        private boolean reported;
+
+        InflatingInputStream(CountingInputStream compressed) throws IOException {
+            super(compressed, 8192);
+            this.compressed = compressed;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                inflated += read;
+            } else if (read == -1) {
+                report();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            report();
+            super.close();
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            report();
+            compressed.releaseConnection();
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            report();
+            compressed.abortConnection();
+        }
+
+        private void report() {
+            if (!reported) {
+                reported = true;
+                if (metrics != null) {
+                    metrics.onCompressedResponse(compressed.count, inflated);
+                }
+            }
+        }
+    }
+}
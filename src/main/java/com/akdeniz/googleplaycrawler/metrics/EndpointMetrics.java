@@ -0,0 +1,182 @@
+package com.akdeniz.googleplaycrawler.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+
+/**
+ * Request counters and latency histogram of a single {@link Endpoint}.
+ * Every attempt is counted as a request, including retries.
+ *
+ * @author akdeniz
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+    private final Endpoint endpoint;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong bytesCompressed = new AtomicLong();
+    private final AtomicLong bytesInflated = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public EndpointMetrics(Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Records a request that is answered with given status code.
+     *
+     * @param latencyNanos time from sending request to receiving response headers
+     */
+    public void onResponse(int statusCode, long latencyNanos) {
+        requests.incrementAndGet();
+        AtomicLong counter = statusCounts.get(statusCode);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = statusCounts.putIfAbsent(statusCode, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+        latency.record(latencyNanos / 1000);
+    }
+
+    /**
+     * Records a request that failed without a response, e.g. on timeout.
+     */
+    public void onError(long latencyNanos) {
+        requests.incrementAndGet();
+        errors.incrementAndGet();
+        latency.record(latencyNanos / 1000);
+    }
+
+    public void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void addBytesReceived(long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Records a gzip encoded response body once it is read.
+     *
+     * @param compressedBytes bytes received on the wire
+     * @param inflatedBytes   bytes after inflation
+     */
+    public void onCompressedResponse(long compressedBytes, long inflatedBytes) {
+        compressedResponses.incrementAndGet();
+        bytesCompressed.addAndGet(compressedBytes);
+        bytesInflated.addAndGet(inflatedBytes);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Number of responses of given status code.
+     */
+    public long getStatusCount(int statusCode) {
+        AtomicLong counter = statusCounts.get(statusCode);
+        return counter == null ? 0 : counter.get();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getCompressedResponseCount() {
+        return compressedResponses.get();
+    }
+
+    @Override
+    public long getBytesCompressed() {
+        return bytesCompressed.get();
+    }
+
+    @Override
+    public long getBytesInflated() {
+        return bytesInflated.get();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long compressed = bytesCompressed.get();
+        return compressed == 0 ? 0 : (double) bytesInflated.get() / compressed;
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : statusCounts.entrySet()) {
+            counts.put(String.valueOf(entry.getKey()), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return latency.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getP50LatencyMillis() {
+        return latency.percentile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getP99LatencyMillis() {
+        return latency.percentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getP999LatencyMillis() {
+        return latency.percentile(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latency.getMax() / 1000.0;
+    }
+}
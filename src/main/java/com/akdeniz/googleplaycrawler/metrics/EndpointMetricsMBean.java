@@ -0,0 +1,45 @@
+package com.akdeniz.googleplaycrawler.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link EndpointMetrics}. Latencies are in milliseconds.
+ *
+ * @author akdeniz
+ */
+public interface EndpointMetricsMBean {
+
+    public long getRequestCount();
+
+    public long getRetryCount();
+
+    public long getErrorCount();
+
+    public long getBytesSent();
+
+    public long getBytesReceived();
+
+    public long getCompressedResponseCount();
+
+    public long getBytesCompressed();
+
+    public long getBytesInflated();
+
+    /**
+     * Inflated to compressed size of gzip encoded responses, 0 if there
+     * are none.
+     */
+    public double getCompressionRatio();
+
+    public Map<String, Long> getStatusCounts();
+
+    public double getMeanLatencyMillis();
+
+    public double getP50LatencyMillis();
+
+    public double getP99LatencyMillis();
+
+    public double getP999LatencyMillis();
+
+    public double getMaxLatencyMillis();
+}
@@ -0,0 +1,99 @@
+package com.akdeniz.googleplaycrawler.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Response entity that adds bytes read from its content to
+ * {@link EndpointMetrics#addBytesReceived(long)}.
+ *
+ * @author akdeniz
+ */
+public class MeteredEntity extends HttpEntityWrapper {
+
+    private final EndpointMetrics metrics;
+
+    public MeteredEntity(HttpEntity wrapped, EndpointMetrics metrics) {
+        super(wrapped);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new MeteredInputStream(super.getContent());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = getContent();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Keeps {@link ConnectionReleaseTrigger} of wrapped stream, so that
+     * connections can still be aborted instead of drained.
+     */
+    private class MeteredInputStream extends FilterInputStream implements ConnectionReleaseTrigger {
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                metrics.addBytesReceived(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                metrics.addBytesReceived(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            metrics.addBytesReceived(skipped);
+            return skipped;
+        }
+
+        @Override
+        public void releaseConnection() throws IOException {
+            if (in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).releaseConnection();
+            } else {
+                close();
+            }
+        }
+
+        @Override
+        public void abortConnection() throws IOException {
+            if (in instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) in).abortConnection();
+            } else {
+                close();
+            }
+        }
+    }
+}
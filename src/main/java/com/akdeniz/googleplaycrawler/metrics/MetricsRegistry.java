@@ -0,0 +1,144 @@
+package com.akdeniz.googleplaycrawler.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+
+/**
+ * Holds {@link EndpointMetrics} of every {@link Endpoint}. A registry can be
+ * shared among {@link com.akdeniz.googleplaycrawler.GooglePlayAPI} instances
+ * to get totals of a whole crawl.
+ * <p>
+ * Metrics can be published as JMX MBeans and written in Prometheus text
+ * exposition format, see {@link PrometheusHandler}.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class MetricsRegistry {
+
+    public static final String JMX_DOMAIN = "com.akdeniz.googleplaycrawler";
+
+    private final Map<Endpoint, EndpointMetrics> metrics = new EnumMap<Endpoint, EndpointMetrics>(Endpoint.class);
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public MetricsRegistry() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            metrics.put(endpoint, new EndpointMetrics(endpoint));
+        }
+    }
+
+    public EndpointMetrics get(Endpoint endpoint) {
+        return metrics.get(endpoint);
+    }
+
+    /**
+     * Registers an MBean for each endpoint to platform MBean server, named
+     * <code>com.akdeniz.googleplaycrawler:type=Endpoint,registry=&lt;name&gt;,endpoint=&lt;ENDPOINT&gt;</code>.
+     */
+    public synchronized void registerMBeans(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (EndpointMetrics endpointMetrics : metrics.values()) {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Endpoint,registry=" + ObjectName.quote(name)
+                    + ",endpoint=" + endpointMetrics.getEndpoint().name());
+            server.registerMBean(endpointMetrics, objectName);
+            registered.add(objectName);
+        }
+    }
+
+    public synchronized void unregisterMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Writes metrics in Prometheus text exposition format (version 0.0.4).
+     * Endpoints that have not been requested yet are skipped.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        List<EndpointMetrics> used = new ArrayList<EndpointMetrics>();
+        for (EndpointMetrics endpointMetrics : metrics.values()) {
+            if (endpointMetrics.getRequestCount() > 0) {
+                used.add(endpointMetrics);
+            }
+        }
+
+        header(out, "googleplay_requests_total", "counter", "Requests sent, retries included.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_requests_total", label(m), m.getRequestCount());
+        }
+        header(out, "googleplay_responses_total", "counter", "Responses by status code.");
+        for (EndpointMetrics m : used) {
+            for (Map.Entry<String, Long> entry : m.getStatusCounts().entrySet()) {
+                sample(out, "googleplay_responses_total", label(m) + ",code=\"" + entry.getKey() + "\"",
+                        entry.getValue());
+            }
+        }
+        header(out, "googleplay_retries_total", "counter", "Requests retried after 429.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_retries_total", label(m), m.getRetryCount());
+        }
+        header(out, "googleplay_errors_total", "counter", "Requests failed without a response.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_errors_total", label(m), m.getErrorCount());
+        }
+        header(out, "googleplay_sent_bytes_total", "counter", "Request body bytes sent.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_sent_bytes_total", label(m), m.getBytesSent());
+        }
+        header(out, "googleplay_received_bytes_total", "counter", "Response body bytes received.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_received_bytes_total", label(m), m.getBytesReceived());
+        }
+        header(out, "googleplay_compressed_bytes_total", "counter", "Bytes received of gzip encoded response bodies.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_compressed_bytes_total", label(m), m.getBytesCompressed());
+        }
+        header(out, "googleplay_inflated_bytes_total", "counter", "Bytes of gzip encoded response bodies after inflation.");
+        for (EndpointMetrics m : used) {
+            sample(out, "googleplay_inflated_bytes_total", label(m), m.getBytesInflated());
+        }
+        header(out, "googleplay_request_latency_seconds", "summary", "Time until response headers are received.");
+        for (EndpointMetrics m : used) {
+            LatencyHistogram latency = m.getLatency();
+            for (String quantile : new String[]{"0.5", "0.99", "0.999"}) {
+                sample(out, "googleplay_request_latency_seconds", label(m) + ",quantile=\"" + quantile + "\"",
+                        latency.percentile(Double.parseDouble(quantile)) / 1e6);
+            }
+            sample(out, "googleplay_request_latency_seconds_sum", label(m), latency.getSum() / 1e6);
+            sample(out, "googleplay_request_latency_seconds_count", label(m), latency.getCount());
+        }
+    }
+
+    private static String label(EndpointMetrics metrics) {
+        return "endpoint=\"" + metrics.getEndpoint().name().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String labels, long value) throws IOException {
+        out.append(name).append('{').append(labels).append("} ").append(String.valueOf(value)).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String labels, double value) throws IOException {
+        out.append(name).append('{').append(labels).append("} ").append(String.valueOf(value)).append('\n');
+    }
+}
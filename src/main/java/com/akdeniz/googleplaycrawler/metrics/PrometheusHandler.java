@@ -0,0 +1,55 @@
+package com.akdeniz.googleplaycrawler.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers scrapes with metrics of a {@link MetricsRegistry} in Prometheus
+ * text format. Can be mounted on an existing {@link HttpServer}, or started
+ * standalone by {@link #start(MetricsRegistry, InetSocketAddress)}.
+ *
+ * @author akdeniz
+ */
+public class PrometheusHandler implements HttpHandler {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    public PrometheusHandler(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts a server that serves metrics on <code>/metrics</code>. It runs on
+     * a single thread and should be stopped by caller.
+     */
+    public static HttpServer start(MetricsRegistry registry, InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new PrometheusHandler(registry));
+        server.start();
+        return server;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder(4096);
+            registry.writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.akdeniz.googleplaycrawler.misc;
+
+/**
+ * Builds a single line JSON object, e.g. a JSONL record.
+ *
+ * @author akdeniz
+ */
+public class JsonBuilder {
+
+    private final StringBuilder builder = new StringBuilder("{");
+
+    public JsonBuilder add(String name, String value) {
+        if (value == null) {
+            return addRaw(name, "null");
+        }
+        return addRaw(name, quote(value));
+    }
+
+    public JsonBuilder add(String name, long value) {
+        return addRaw(name, String.valueOf(value));
+    }
+
+    public JsonBuilder add(String name, boolean value) {
+        return addRaw(name, String.valueOf(value));
+    }
+
+    /**
+     * Adds given value as it is. It must already be valid JSON.
+     */
+    public JsonBuilder addRaw(String name, String json) {
+        if (builder.length() > 1) {
+            builder.append(',');
+        }
+        builder.append(quote(name)).append(':').append(json);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString() + "}";
+    }
+
+    public static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
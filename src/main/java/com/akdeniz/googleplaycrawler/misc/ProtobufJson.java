@@ -0,0 +1,113 @@
+package com.akdeniz.googleplaycrawler.misc;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * Converts protobuf messages to JSON. Field names are kept as they are in
+ * <code>.proto</code> files, enums are written by name and bytes as base64.
+ * As in proto3 JSON mapping, 64 bit integers are written as strings, since
+ * JavaScript numbers can not hold them, and unsigned ones are written
+ * unsigned.
+ *
+ * @author akdeniz
+ */
+public class ProtobufJson {
+
+    private ProtobufJson() {
+    }
+
+    public static String toJson(MessageOrBuilder message) {
+        StringBuilder json = new StringBuilder();
+        appendMessage(json, message);
+        return json.toString();
+    }
+
+    /**
+     * Converts given messages to a JSON array.
+     */
+    public static String toJson(List<? extends MessageOrBuilder> messages) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendMessage(json, messages.get(i));
+        }
+        return json.append(']').toString();
+    }
+
+    private static void appendMessage(StringBuilder json, MessageOrBuilder message) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<FieldDescriptor, Object> field : message.getAllFields().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            FieldDescriptor descriptor = field.getKey();
+            json.append(JsonBuilder.quote(descriptor.getName())).append(':');
+            if (descriptor.isRepeated()) {
+                json.append('[');
+                List<?> values = (List<?>) field.getValue();
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    appendValue(json, descriptor, values.get(i));
+                }
+                json.append(']');
+            } else {
+                appendValue(json, descriptor, field.getValue());
+            }
+        }
+        json.append('}');
+    }
+
+    private static void appendValue(StringBuilder json, FieldDescriptor descriptor, Object value) {
+        switch (descriptor.getJavaType()) {
+            case MESSAGE:
+                appendMessage(json, (MessageOrBuilder) value);
+                break;
+            case STRING:
+                json.append(JsonBuilder.quote((String) value));
+                break;
+            case ENUM:
+                json.append(JsonBuilder.quote(((EnumValueDescriptor) value).getName()));
+                break;
+            case BYTE_STRING:
+                json.append(JsonBuilder.quote(Base64.encodeToString(((ByteString) value).toByteArray(),
+                        Base64.NO_WRAP)));
+                break;
+            case FLOAT:
+            case DOUBLE:
+                double number = ((Number) value).doubleValue();
+                json.append(Double.isNaN(number) || Double.isInfinite(number) ? "null" : String.valueOf(value));
+                break;
+            case INT:
+                if (descriptor.getType() == FieldDescriptor.Type.UINT32
+                        || descriptor.getType() == FieldDescriptor.Type.FIXED32) {
+                    json.append(Integer.toUnsignedString((Integer) value));
+                } else {
+                    json.append(value);
+                }
+                break;
+            case LONG:
+                if (descriptor.getType() == FieldDescriptor.Type.UINT64
+                        || descriptor.getType() == FieldDescriptor.Type.FIXED64) {
+                    json.append('"').append(Long.toUnsignedString((Long) value)).append('"');
+                } else {
+                    json.append('"').append(value).append('"');
+                }
+                break;
+            default:
+                // boolean
+                json.append(value);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+
+/**
+ * {@link RateLimiter} that keeps a separate AIMD {@link TokenBucket} for each
+ * configured endpoint. Endpoints without a bucket are not limited.
+ *
+ * @author akdeniz
+ */
+public class AdaptiveRateLimiter implements RateLimiter {
+
+    private final Map<Endpoint, TokenBucket> buckets = Collections.synchronizedMap(
+            new EnumMap<Endpoint, TokenBucket>(Endpoint.class));
+
+    /**
+     * Creates a limiter without any bucket. Use <code>setBucket</code> to
+     * limit endpoints.
+     */
+    public AdaptiveRateLimiter() {
+    }
+
+    /**
+     * Creates a limiter with conservative starting rates for
+     * <code>details, bulkDetails, purchase and download</code>. Rates grow
+     * until server starts to respond with 429.
+     */
+    public static AdaptiveRateLimiter withDefaults() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+        limiter.setBucket(Endpoint.DETAILS, new TokenBucket(5, 0.5, 50, 0.05, 0.5, 5));
+        limiter.setBucket(Endpoint.BULK_DETAILS, new TokenBucket(1, 0.1, 10, 0.02, 0.5, 2));
+        limiter.setBucket(Endpoint.PURCHASE, new TokenBucket(0.5, 0.05, 5, 0.01, 0.5, 1));
+        limiter.setBucket(Endpoint.DOWNLOAD, new TokenBucket(2, 0.2, 20, 0.05, 0.5, 2));
+        return limiter;
+    }
+
+    public void setBucket(Endpoint endpoint, TokenBucket bucket) {
+        buckets.put(endpoint, bucket);
+    }
+
+    public TokenBucket getBucket(Endpoint endpoint) {
+        return buckets.get(endpoint);
+    }
+
+    @Override
+    public void acquire(Endpoint endpoint) throws InterruptedException {
+        TokenBucket bucket = buckets.get(endpoint);
+        if (bucket != null) {
+            bucket.acquire();
+        }
+    }
+
+    @Override
+    public long reserve(Endpoint endpoint) {
+        TokenBucket bucket = buckets.get(endpoint);
+        return bucket == null ? 0 : bucket.reserve();
+    }
+
+    @Override
+    public void onSuccess(Endpoint endpoint) {
+        TokenBucket bucket = buckets.get(endpoint);
+        if (bucket != null) {
+            bucket.increase();
+        }
+    }
+
+    @Override
+    public void onThrottled(Endpoint endpoint) {
+        TokenBucket bucket = buckets.get(endpoint);
+        if (bucket != null) {
+            bucket.decrease();
+        }
+    }
+
+    /**
+     * Current permits per second of given endpoint, or
+     * {@link Double#POSITIVE_INFINITY} if it is not limited.
+     */
+    public double getRate(Endpoint endpoint) {
+        TokenBucket bucket = buckets.get(endpoint);
+        return bucket == null ? Double.POSITIVE_INFINITY : bucket.getRate();
+    }
+
+    /**
+     * Number of 429 responses received from given endpoint.
+     */
+    public long getThrottleCount(Endpoint endpoint) {
+        TokenBucket bucket = buckets.get(endpoint);
+        return bucket == null ? 0 : bucket.getThrottleCount();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (buckets) {
+            return buckets.toString();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter. Delay of n-th retry is picked randomly
+ * between half and all of <code>min(maxDelay, baseDelay * 2^n)</code>, so
+ * that throttled clients do not retry in lockstep.
+ *
+ * @author akdeniz
+ */
+public class Backoff {
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public Backoff(long baseDelayMillis, long maxDelayMillis) {
+        if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid backoff delays!");
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Delay before given retry, starting from zero.
+     */
+    public long delayMillis(int retry) {
+        long ceiling = maxDelayMillis;
+        if (retry < 62 && (baseDelayMillis << retry) >>> retry == baseDelayMillis) {
+            ceiling = Math.min(maxDelayMillis, baseDelayMillis << retry);
+        }
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    /**
+     * Delay before given retry, but never shorter than what server asked for
+     * with <code>Retry-After</code>.
+     *
+     * @param retryAfterMillis server supplied delay, or a negative value if there is none
+     */
+    public long delayMillis(int retry, long retryAfterMillis) {
+        return Math.max(delayMillis(retry), Math.min(retryAfterMillis, maxDelayMillis));
+    }
+}
@@ -0,0 +1,37 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+
+/**
+ * Throttles requests that {@link com.akdeniz.googleplaycrawler.GooglePlayAPI}
+ * sends. Implementations must be thread safe, since a single limiter is
+ * usually shared by all threads using the same account.
+ *
+ * @author akdeniz
+ */
+public interface RateLimiter {
+
+    /**
+     * Blocks until a request to given endpoint is allowed.
+     */
+    void acquire(Endpoint endpoint) throws InterruptedException;
+
+    /**
+     * Takes a permit for a request to given endpoint without blocking, for
+     * callers that must not block such as
+     * {@link com.akdeniz.googleplaycrawler.AsyncGooglePlayAPI}.
+     *
+     * @return nanoseconds to wait before sending the request
+     */
+    long reserve(Endpoint endpoint);
+
+    /**
+     * Called when a request to given endpoint completed without throttling.
+     */
+    void onSuccess(Endpoint endpoint);
+
+    /**
+     * Called when server responded to given endpoint with 429.
+     */
+    void onThrottled(Endpoint endpoint);
+}
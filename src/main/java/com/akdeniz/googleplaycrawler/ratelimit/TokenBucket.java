@@ -0,0 +1,143 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose refill rate is adapted with AIMD (additive increase,
+ * multiplicative decrease). Every successful request raises the rate by
+ * <code>additiveIncrease</code> up to <code>maxRate</code>, every throttled
+ * one cuts it by <code>decreaseFactor</code> down to <code>minRate</code>.
+ * <p>
+ * A burst of 429 responses for requests that were already in flight counts
+ * as a single decrease, so rate is not collapsed by one overload. After a
+ * decrease, further 429s are ignored for a cool-down period, or for one
+ * interval at the new rate if that is longer.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class TokenBucket {
+
+    public static final long DEFAULT_COOL_DOWN_MILLIS = 2000;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final double capacity;
+    private final long coolDownNanos;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long nextDecreaseNanos;
+
+    private long acquireCount;
+    private long throttleCount;
+
+    /**
+     * @param initialRate      permits per second to start with
+     * @param minRate          rate will never drop below this one
+     * @param maxRate          rate will never grow beyond this one
+     * @param additiveIncrease permits per second added after each success
+     * @param decreaseFactor   rate multiplier applied after a 429, between 0 and 1
+     * @param capacity         maximum number of permits that can be saved up for a burst
+     */
+    public TokenBucket(double initialRate, double minRate, double maxRate, double additiveIncrease,
+                       double decreaseFactor, double capacity) {
+        this(initialRate, minRate, maxRate, additiveIncrease, decreaseFactor, capacity, DEFAULT_COOL_DOWN_MILLIS);
+    }
+
+    /**
+     * @param coolDownMillis how long 429s are ignored after a decrease, should
+     *                       cover round trip time of requests in flight
+     */
+    public TokenBucket(double initialRate, double minRate, double maxRate, double additiveIncrease,
+                       double decreaseFactor, double capacity, long coolDownMillis) {
+        if (minRate <= 0 || minRate > maxRate || initialRate < minRate || initialRate > maxRate) {
+            throw new IllegalArgumentException("Invalid rate range!");
+        }
+        if (decreaseFactor <= 0 || decreaseFactor >= 1 || capacity < 1 || coolDownMillis < 0) {
+            throw new IllegalArgumentException("Invalid bucket parameters!");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.capacity = capacity;
+        this.coolDownNanos = TimeUnit.MILLISECONDS.toNanos(coolDownMillis);
+        this.rate = initialRate;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+        this.nextDecreaseNanos = lastRefillNanos;
+    }
+
+    /**
+     * Takes a permit, sleeping until one is available. Permits are reserved in
+     * arrival order, so waiting threads are served fairly.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a permit without blocking.
+     *
+     * @return nanoseconds to wait before the permit may be used
+     */
+    public synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+        acquireCount++;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public synchronized void increase() {
+        refill(System.nanoTime());
+        rate = Math.min(maxRate, rate + additiveIncrease);
+    }
+
+    public synchronized void decrease() {
+        long now = System.nanoTime();
+        refill(now);
+        throttleCount++;
+        // in-flight requests were sent at the old rate, let them drain before cutting again
+        if (now - nextDecreaseNanos < 0) {
+            return;
+        }
+        rate = Math.max(minRate, rate * decreaseFactor);
+        tokens = Math.min(tokens, 0);
+        nextDecreaseNanos = now + Math.max(coolDownNanos, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Current permits per second.
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * Number of 429 responses reported to this bucket.
+     */
+    public synchronized long getThrottleCount() {
+        return throttleCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%.2f/s (acquired=%d, throttled=%d)", rate, acquireCount, throttleCount);
+    }
+}
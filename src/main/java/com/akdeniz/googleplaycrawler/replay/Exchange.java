@@ -0,0 +1,120 @@
+package com.akdeniz.googleplaycrawler.replay;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.akdeniz.googleplaycrawler.misc.Base64;
+
+/**
+ * A recorded request and its response. Request bodies are kept only as a
+ * digest, so that credentials posted to <code>/auth</code> do not end up in
+ * archives. Response body is <code>null</code> if it is not recorded, in
+ * which case only its length is known.
+ *
+ * @author akdeniz
+ */
+public class Exchange {
+
+    private final long timestamp;
+    private final long durationNanos;
+    private final String method;
+    private final String uri;
+    private final String requestDigest;
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final String[][] headers;
+    private final long bodyLength;
+    private final byte[] body;
+
+    /**
+     * @param timestamp     time request is sent, in epoch milliseconds
+     * @param durationNanos time from sending request until whole response,
+     *                      or its headers if body is not recorded, is received
+     * @param requestDigest digest of request body as returned by
+     *                      {@link #digest(byte[])}, or <code>null</code> if
+     *                      request has no body
+     * @param headers       response headers as name and value pairs
+     */
+    public Exchange(long timestamp, long durationNanos, String method, String uri, String requestDigest,
+                    int statusCode, String reasonPhrase, String[][] headers, long bodyLength, byte[] body) {
+        this.timestamp = timestamp;
+        this.durationNanos = durationNanos;
+        this.method = method;
+        this.uri = uri;
+        this.requestDigest = requestDigest;
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers;
+        this.bodyLength = bodyLength;
+        this.body = body;
+    }
+
+    /**
+     * Key that a request is matched by on replay.
+     */
+    public static String key(String method, String uri, String requestDigest) {
+        return requestDigest == null ? method + " " + uri : method + " " + uri + " " + requestDigest;
+    }
+
+    /**
+     * URL safe base64 of SHA-1 of given request body.
+     */
+    public static String digest(byte[] requestBody) {
+        try {
+            byte[] sha1 = MessageDigest.getInstance("SHA-1").digest(requestBody);
+            return Base64.encodeToString(sha1, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getKey() {
+        return key(method, uri, requestDigest);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getRequestDigest() {
+        return requestDigest;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    public String[][] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Length of response body, or -1 if it is unknown.
+     */
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Response body, or <code>null</code> if it is not recorded.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,94 @@
+package com.akdeniz.googleplaycrawler.replay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads {@link Exchange}s written by {@link ExchangeWriter}. A record that is
+ * cut short, e.g. by a crash during recording, ends the archive.
+ *
+ * @author akdeniz
+ */
+public class ExchangeReader implements Closeable {
+
+    private final DataInputStream in;
+
+    public ExchangeReader(File archive) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(archive), 64 * 1024));
+        try {
+            if (in.readInt() != ExchangeWriter.MAGIC) {
+                throw new IOException(archive + " is not an exchange archive!");
+            }
+            int version = in.readUnsignedShort();
+            if (version != ExchangeWriter.VERSION) {
+                throw new IOException("Unsupported archive version " + version + " of " + archive);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads all exchanges of given archive.
+     */
+    public static List<Exchange> readAll(File archive) throws IOException {
+        List<Exchange> exchanges = new ArrayList<Exchange>();
+        ExchangeReader reader = new ExchangeReader(archive);
+        try {
+            Exchange exchange;
+            while ((exchange = reader.read()) != null) {
+                exchanges.add(exchange);
+            }
+        } finally {
+            reader.close();
+        }
+        return exchanges;
+    }
+
+    /**
+     * @return next exchange, or <code>null</code> at the end of archive
+     */
+    public Exchange read() throws IOException {
+        long timestamp;
+        try {
+            timestamp = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            long durationNanos = in.readLong();
+            String method = in.readUTF();
+            String uri = in.readUTF();
+            String requestDigest = in.readUTF();
+            int statusCode = in.readUnsignedShort();
+            String reasonPhrase = in.readUTF();
+            String[][] headers = new String[in.readUnsignedShort()][];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = new String[]{in.readUTF(), in.readUTF()};
+            }
+            long bodyLength = in.readLong();
+            byte[] body = null;
+            if (in.readByte() != 0) {
+                body = new byte[(int) bodyLength];
+                in.readFully(body);
+            }
+            return new Exchange(timestamp, durationNanos, method, uri, requestDigest.isEmpty() ? null : requestDigest,
+                    statusCode, reasonPhrase, headers, bodyLength, body);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,88 @@
+package com.akdeniz.googleplaycrawler.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends {@link Exchange}s to an archive file. An archive starts with
+ * {@link #MAGIC} and version, followed by records of:
+ * <pre>
+ * long   timestamp
+ * long   durationNanos
+ * UTF    method
+ * UTF    uri
+ * UTF    requestDigest, empty if there is none
+ * short  statusCode
+ * UTF    reasonPhrase
+ * short  header count, then UTF name and UTF value of each
+ * long   bodyLength
+ * byte   1 if body follows, 0 otherwise
+ * bytes  body
+ * </pre>
+ * Existing archives are appended to, and every record is serialised first
+ * and then written in one call, so an interrupted crawl, or a record that
+ * can not be serialised such as one with a header longer than 64 KB, leaves
+ * a readable archive behind. It is safe to use from multiple threads.
+ *
+ * @author akdeniz
+ */
+public class ExchangeWriter implements Closeable {
+
+    public static final int MAGIC = 0x47504358; // "GPCX"
+    public static final int VERSION = 1;
+
+    private final FileOutputStream out;
+
+    public ExchangeWriter(File archive) throws IOException {
+        boolean created = !archive.exists() || archive.length() == 0;
+        this.out = new FileOutputStream(archive, true);
+        if (created) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream(6);
+            DataOutputStream data = new DataOutputStream(header);
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            out.write(header.toByteArray());
+        }
+    }
+
+    public void write(Exchange exchange) throws IOException {
+        byte[] record = serialise(exchange);
+        synchronized (this) {
+            out.write(record);
+        }
+    }
+
+    private static byte[] serialise(Exchange exchange) throws IOException {
+        byte[] body = exchange.getBody();
+        ByteArrayOutputStream record = new ByteArrayOutputStream(512 + (body == null ? 0 : body.length));
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeLong(exchange.getTimestamp());
+        out.writeLong(exchange.getDurationNanos());
+        out.writeUTF(exchange.getMethod());
+        out.writeUTF(exchange.getUri());
+        out.writeUTF(exchange.getRequestDigest() == null ? "" : exchange.getRequestDigest());
+        out.writeShort(exchange.getStatusCode());
+        out.writeUTF(exchange.getReasonPhrase() == null ? "" : exchange.getReasonPhrase());
+        String[][] headers = exchange.getHeaders();
+        out.writeShort(headers.length);
+        for (String[] header : headers) {
+            out.writeUTF(header[0]);
+            out.writeUTF(header[1]);
+        }
+        out.writeLong(exchange.getBodyLength());
+        out.writeByte(body == null ? 0 : 1);
+        if (body != null) {
+            out.write(body);
+        }
+        return record.toByteArray();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
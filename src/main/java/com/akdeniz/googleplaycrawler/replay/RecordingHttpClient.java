@@ -0,0 +1,111 @@
+package com.akdeniz.googleplaycrawler.replay;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+import com.akdeniz.googleplaycrawler.http.AbstractHttpClientAdapter;
+
+/**
+ * {@link HttpClient} that executes requests on another client and appends
+ * every exchange to an archive that {@link ReplayHttpClient} can serve back.
+ * Response bodies are buffered in memory to be recorded, except APK
+ * downloads whose bodies are passed through and only their length is
+ * recorded, unless <code>recordDownloads</code> is set.
+ *
+ * @author akdeniz
+ * @see com.akdeniz.googleplaycrawler.GooglePlayAPI#startRecording(ExchangeWriter)
+ */
+public class RecordingHttpClient extends AbstractHttpClientAdapter {
+
+    private final HttpClient delegate;
+    private final ExchangeWriter writer;
+    private boolean recordDownloads;
+
+    public RecordingHttpClient(HttpClient delegate, ExchangeWriter writer) {
+        this.delegate = delegate;
+        this.writer = writer;
+    }
+
+    public HttpClient getDelegate() {
+        return delegate;
+    }
+
+    public void setRecordDownloads(boolean recordDownloads) {
+        this.recordDownloads = recordDownloads;
+    }
+
+    @Override
+    public HttpParams getParams() {
+        return delegate.getParams();
+    }
+
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+        return delegate.getConnectionManager();
+    }
+
+    @Override
+    protected HttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        URI uri = absoluteUri(target, request);
+        String requestDigest = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            HttpEntity entity = enclosing.getEntity();
+            if (entity != null) {
+                byte[] body = EntityUtils.toByteArray(entity);
+                if (!entity.isRepeatable()) {
+                    ByteArrayEntity copy = new ByteArrayEntity(body);
+                    copy.setContentType(entity.getContentType());
+                    copy.setContentEncoding(entity.getContentEncoding());
+                    enclosing.setEntity(copy);
+                }
+                requestDigest = Exchange.digest(body);
+            }
+        }
+
+        long timestamp = System.currentTimeMillis();
+        long started = System.nanoTime();
+        HttpResponse response = target == null && request instanceof HttpUriRequest
+                ? delegate.execute((HttpUriRequest) request, context) : delegate.execute(target, request, context);
+
+        HttpEntity entity = response.getEntity();
+        byte[] body = null;
+        long bodyLength = entity == null ? 0 : entity.getContentLength();
+        if (entity != null && (recordDownloads || Endpoint.fromUri(uri) != Endpoint.DOWNLOAD)) {
+            body = EntityUtils.toByteArray(entity);
+            bodyLength = body.length;
+            ByteArrayEntity copy = new ByteArrayEntity(body);
+            copy.setContentType(entity.getContentType());
+            copy.setContentEncoding(entity.getContentEncoding());
+            response.setEntity(copy);
+        } else if (entity == null) {
+            body = new byte[0];
+        }
+        long duration = System.nanoTime() - started;
+
+        Header[] allHeaders = response.getAllHeaders();
+        String[][] headers = new String[allHeaders.length][];
+        for (int i = 0; i < allHeaders.length; i++) {
+            headers[i] = new String[]{allHeaders[i].getName(), allHeaders[i].getValue()};
+        }
+        writer.write(new Exchange(timestamp, duration, request.getRequestLine().getMethod(), uri.toString(),
+                requestDigest, response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(),
+                headers, bodyLength, body));
+        return response;
+    }
+}
@@ -0,0 +1,182 @@
+package com.akdeniz.googleplaycrawler.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import com.akdeniz.googleplaycrawler.http.AbstractHttpClientAdapter;
+
+/**
+ * {@link org.apache.http.client.HttpClient} that answers requests with
+ * exchanges recorded by {@link RecordingHttpClient}, without any network
+ * access. Requests are matched by method, URI and request body digest.
+ * Exchanges recorded for the same request are served in recorded order,
+ * and the last one is repeated once they run out. Unknown requests are
+ * answered with 404.
+ * <p>
+ * Each response is delayed by its recorded duration multiplied by
+ * <code>timeScale</code>: 1 replays original timing, 0.5 runs twice as
+ * fast and 0 serves immediately. Response bodies that were not recorded
+ * are served as zeros of recorded length.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class ReplayHttpClient extends AbstractHttpClientAdapter {
+
+    private final Map<String, Deque<Exchange>> exchanges = new HashMap<String, Deque<Exchange>>();
+    private final Map<String, Exchange> lastServed = new HashMap<String, Exchange>();
+    private final double timeScale;
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ReplayHttpClient(List<Exchange> recorded, double timeScale) {
+        if (timeScale < 0) {
+            throw new IllegalArgumentException("timeScale must not be negative: " + timeScale);
+        }
+        this.timeScale = timeScale;
+        for (Exchange exchange : recorded) {
+            Deque<Exchange> queue = exchanges.get(exchange.getKey());
+            if (queue == null) {
+                queue = new ArrayDeque<Exchange>();
+                exchanges.put(exchange.getKey(), queue);
+            }
+            queue.add(exchange);
+        }
+    }
+
+    public ReplayHttpClient(File archive, double timeScale) throws IOException {
+        this(ExchangeReader.readAll(archive), timeScale);
+    }
+
+    /**
+     * Number of requests that had no recorded exchange.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    protected HttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        String requestDigest = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                requestDigest = Exchange.digest(EntityUtils.toByteArray(entity));
+            }
+        }
+        String key = Exchange.key(request.getRequestLine().getMethod(), absoluteUri(target, request).toString(),
+                requestDigest);
+
+        Exchange exchange = next(key);
+        if (exchange == null) {
+            missCount.incrementAndGet();
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Recorded");
+            response.setEntity(new ByteArrayEntity(("No recorded exchange for " + key).getBytes(StandardCharsets.UTF_8)));
+            return response;
+        }
+
+        delay(exchange.getDurationNanos());
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, exchange.getStatusCode(),
+                exchange.getReasonPhrase());
+        String contentType = null;
+        String contentEncoding = null;
+        for (String[] header : exchange.getHeaders()) {
+            response.addHeader(header[0], header[1]);
+            if ("Content-Type".equalsIgnoreCase(header[0])) {
+                contentType = header[1];
+            } else if ("Content-Encoding".equalsIgnoreCase(header[0])) {
+                contentEncoding = header[1];
+            }
+        }
+        if (exchange.getStatusCode() != 304 && exchange.getStatusCode() != 204) {
+            HttpEntity entity;
+            if (exchange.getBody() != null) {
+                ByteArrayEntity bytes = new ByteArrayEntity(exchange.getBody());
+                bytes.setContentType(contentType);
+                bytes.setContentEncoding(contentEncoding);
+                entity = bytes;
+            } else {
+                InputStreamEntity zeros = new InputStreamEntity(new ZeroInputStream(exchange.getBodyLength()),
+                        exchange.getBodyLength());
+                zeros.setContentType(contentType);
+                entity = zeros;
+            }
+            response.setEntity(entity);
+        }
+        return response;
+    }
+
+    private synchronized Exchange next(String key) {
+        Deque<Exchange> queue = exchanges.get(key);
+        Exchange exchange = queue == null ? null : queue.poll();
+        if (exchange == null) {
+            return lastServed.get(key);
+        }
+        lastServed.put(key, exchange);
+        return exchange;
+    }
+
+    private void delay(long recordedNanos) throws IOException {
+        long nanos = (long) (recordedNanos * timeScale);
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying!");
+        }
+    }
+
+    private static class ZeroInputStream extends InputStream {
+
+        private long remaining;
+
+        ZeroInputStream(long length) {
+            this.remaining = Math.max(0, length);
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 0);
+            remaining -= n;
+            return n;
+        }
+    }
+}
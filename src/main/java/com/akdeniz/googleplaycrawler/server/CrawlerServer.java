@@ -0,0 +1,380 @@
+package com.akdeniz.googleplaycrawler.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.slf4j.Logger;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI.REVIEW_SORT;
+import com.akdeniz.googleplaycrawler.GooglePlayException;
+import com.akdeniz.googleplaycrawler.SessionPool;
+import com.akdeniz.googleplaycrawler.SessionPool.SessionCallable;
+import com.akdeniz.googleplaycrawler.Utils;
+import com.akdeniz.googleplaycrawler.download.ApkDownloader;
+import com.akdeniz.googleplaycrawler.metrics.MetricsRegistry;
+import com.akdeniz.googleplaycrawler.metrics.PrometheusHandler;
+import com.akdeniz.googleplaycrawler.misc.JsonBuilder;
+import com.akdeniz.googleplaycrawler.misc.ProtobufJson;
+import com.google.protobuf.MessageOrBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP/JSON front end of a {@link SessionPool}, so that scripts can
+ * query a warm process instead of starting a JVM and logging in for every
+ * lookup. Connections are kept alive between requests.
+ * <p>
+ * All endpoints take GET parameters named as in FDFE requests and answer
+ * with JSON, except <code>/download</code> which streams the APK:
+ * </p>
+ * <ul>
+ * <li><code>/details?doc=</code></li>
+ * <li><code>/bulkDetails?doc=&amp;doc=...</code></li>
+ * <li><code>/search?q=&amp;o=&amp;n=</code></li>
+ * <li><code>/list?cat=&amp;ctr=&amp;o=&amp;n=</code></li>
+ * <li><code>/reviews?doc=&amp;sort=&amp;o=&amp;n=</code></li>
+ * <li><code>/download?doc=&amp;vc=&amp;ot=&amp;sdk=</code>, latest version is
+ * downloaded if <code>vc</code> is omitted</li>
+ * </ul>
+ * <p>
+ * APKs are downloaded with an {@link ApkDownloader} into
+ * <code>downloadDirectory</code> while the session is held, so a rejected
+ * session is retried with another one, and sent to the client once their
+ * signature is verified.
+ * </p>
+ * <p>
+ * Errors are answered with <code>{"error": message}</code> and status code of
+ * the failed upstream request, 404 for applications without an offer, or 400
+ * for invalid parameters.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class CrawlerServer implements Closeable {
+
+    private static final String JSON = "application/json; charset=UTF-8";
+    private static final String APK = "application/vnd.android.package-archive";
+
+    private final SessionPool pool;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ExecutorService downloadExecutor =
+            Executors.newCachedThreadPool(Utils.daemonThreadFactory("crawler-download"));
+    private File downloadDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+    private Logger logger = Utils.getLogger(this.getClass());
+
+    /**
+     * @param threads maximum number of requests served concurrently
+     */
+    public CrawlerServer(SessionPool pool, InetSocketAddress address, int threads) throws IOException {
+        this.pool = pool;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(threads, Utils.daemonThreadFactory("crawler-server"));
+        server.setExecutor(executor);
+
+        server.createContext("/details", new JsonHandler() {
+            @Override
+            MessageOrBuilder handle(final Map<String, List<String>> params) throws IOException {
+                final String doc = required(params, "doc");
+                return pool.execute(new SessionCallable<DetailsResponse>() {
+                    @Override
+                    public DetailsResponse call(GooglePlayAPI service) throws IOException {
+                        return service.details(doc);
+                    }
+                });
+            }
+        });
+        server.createContext("/bulkDetails", new JsonHandler() {
+            @Override
+            MessageOrBuilder handle(Map<String, List<String>> params) throws IOException {
+                final List<String> docs = params.get("doc");
+                if (docs == null || docs.isEmpty()) {
+                    throw new BadRequestException("Missing parameter: doc");
+                }
+                return pool.execute(new SessionCallable<BulkDetailsResponse>() {
+                    @Override
+                    public BulkDetailsResponse call(GooglePlayAPI service) throws IOException {
+                        return service.bulkDetails(docs);
+                    }
+                });
+            }
+        });
+        server.createContext("/search", new JsonHandler() {
+            @Override
+            MessageOrBuilder handle(Map<String, List<String>> params) throws IOException {
+                final String query = required(params, "q");
+                final Integer offset = integer(params, "o");
+                final Integer number = integer(params, "n");
+                return pool.execute(new SessionCallable<MessageOrBuilder>() {
+                    @Override
+                    public MessageOrBuilder call(GooglePlayAPI service) throws IOException {
+                        return service.search(query, offset, number);
+                    }
+                });
+            }
+        });
+        server.createContext("/list", new JsonHandler() {
+            @Override
+            MessageOrBuilder handle(Map<String, List<String>> params) throws IOException {
+                final String category = required(params, "cat");
+                final String subcategory = optional(params, "ctr");
+                final Integer offset = integer(params, "o");
+                final Integer number = integer(params, "n");
+                return pool.execute(new SessionCallable<MessageOrBuilder>() {
+                    @Override
+                    public MessageOrBuilder call(GooglePlayAPI service) throws IOException {
+                        return service.list(category, subcategory, offset, number);
+                    }
+                });
+            }
+        });
+        server.createContext("/reviews", new JsonHandler() {
+            @Override
+            MessageOrBuilder handle(Map<String, List<String>> params) throws IOException {
+                final String doc = required(params, "doc");
+                final REVIEW_SORT sort = reviewSort(optional(params, "sort"));
+                final Integer offset = integer(params, "o");
+                final Integer number = integer(params, "n");
+                return pool.execute(new SessionCallable<MessageOrBuilder>() {
+                    @Override
+                    public MessageOrBuilder call(GooglePlayAPI service) throws IOException {
+                        return service.reviews(doc, sort, offset, number);
+                    }
+                });
+            }
+        });
+        server.createContext("/download", new DownloadHandler());
+    }
+
+    /**
+     * Serves metrics of given registry in Prometheus text format on
+     * <code>/metrics</code>.
+     */
+    public void exposeMetrics(MetricsRegistry metrics) {
+        server.createContext("/metrics", new PrometheusHandler(metrics));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Listening on {}", server.getAddress());
+    }
+
+    /**
+     * Stops accepting requests and waits a few seconds for running ones.
+     */
+    @Override
+    public void close() {
+        server.stop(5);
+        executor.shutdownNow();
+        downloadExecutor.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public File getDownloadDirectory() {
+        return downloadDirectory;
+    }
+
+    /**
+     * Directory where APKs are kept until they are sent, system temporary
+     * directory by default.
+     */
+    public void setDownloadDirectory(File downloadDirectory) {
+        this.downloadDirectory = downloadDirectory;
+    }
+
+    private abstract class BaseHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    sendError(exchange, 405, "Only GET is supported");
+                    return;
+                }
+                serve(exchange, parseQuery(exchange));
+            } catch (BadRequestException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (GooglePlayException e) {
+                sendError(exchange, e.getStatusCode() > 0 ? e.getStatusCode() : 502, e.getMessage());
+            } catch (IOException e) {
+                logger.warn("{} failed: {}", exchange.getRequestURI(), e.getMessage());
+                sendError(exchange, 502, e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("{} failed", exchange.getRequestURI(), e);
+                sendError(exchange, 500, e.toString());
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException;
+    }
+
+    private abstract class JsonHandler extends BaseHandler {
+
+        @Override
+        void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+            send(exchange, 200, ProtobufJson.toJson(handle(params)));
+        }
+
+        abstract MessageOrBuilder handle(Map<String, List<String>> params) throws IOException;
+    }
+
+    private class DownloadHandler extends BaseHandler {
+
+        @Override
+        void serve(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+            final String doc = required(params, "doc");
+            final Integer versionCode = integer(params, "vc");
+            final Integer offerType = integer(params, "ot");
+            final String sdk = params.containsKey("sdk") ? optional(params, "sdk") : "23";
+
+            final File target = File.createTempFile(doc + "-", ".apk", downloadDirectory);
+            try {
+                pool.execute(new SessionCallable<Void>() {
+                    @Override
+                    public Void call(GooglePlayAPI service) throws IOException {
+                        int vc;
+                        int ot;
+                        if (versionCode != null) {
+                            vc = versionCode;
+                            ot = offerType == null ? 1 : offerType;
+                        } else {
+                            DocV2 docV2 = service.details(doc).getDocV2();
+                            if (docV2.getOfferCount() == 0) {
+                                throw new GooglePlayException(doc + " is not offered", 404);
+                            }
+                            vc = docV2.getDetails().getAppDetails().getVersionCode();
+                            ot = offerType != null ? offerType : docV2.getOffer(0).getOfferType();
+                        }
+                        new ApkDownloader(service, downloadExecutor).download(doc, vc, ot, sdk, target);
+                        return null;
+                    }
+                });
+
+                exchange.getResponseHeaders().set("Content-Type", APK);
+                exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + doc + ".apk\"");
+                exchange.sendResponseHeaders(200, target.length());
+                OutputStream out = exchange.getResponseBody();
+                Files.copy(target.toPath(), out);
+                out.close();
+            } finally {
+                deleteDownload(target);
+            }
+        }
+
+        /**
+         * Deletes given APK and what its download left behind, such as a
+         * partial file of a failed attempt.
+         */
+        private void deleteDownload(File target) {
+            File[] files = target.getParentFile().listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                if (file.getName().startsWith(target.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static Map<String, List<String>> parseQuery(HttpExchange exchange) {
+        Map<String, List<String>> params = new HashMap<String, List<String>>();
+        for (NameValuePair pair : URLEncodedUtils.parse(exchange.getRequestURI(), "UTF-8")) {
+            List<String> values = params.get(pair.getName());
+            if (values == null) {
+                values = new ArrayList<String>();
+                params.put(pair.getName(), values);
+            }
+            values.add(pair.getValue());
+        }
+        return params;
+    }
+
+    private static String optional(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static String required(Map<String, List<String>> params, String name) throws BadRequestException {
+        String value = optional(params, name);
+        if (value == null || value.isEmpty()) {
+            throw new BadRequestException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static Integer integer(Map<String, List<String>> params, String name) throws BadRequestException {
+        String value = optional(params, name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid number " + name + ": " + value);
+        }
+    }
+
+    private static REVIEW_SORT reviewSort(String value) throws BadRequestException {
+        if (value == null) {
+            return REVIEW_SORT.HELPFUL;
+        }
+        try {
+            return REVIEW_SORT.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid sort: " + value);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int statusCode, String message) {
+        try {
+            send(exchange, statusCode, new JsonBuilder().add("error", String.valueOf(message)).toString());
+        } catch (IOException e) {
+            // headers are already sent, e.g. download failed midway
+            logger.debug("Could not send error of {}: {}", exchange.getRequestURI(), e.getMessage());
+        }
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(statusCode, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static class BadRequestException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+}
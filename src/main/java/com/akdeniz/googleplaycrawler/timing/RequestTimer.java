@@ -0,0 +1,94 @@
+package com.akdeniz.googleplaycrawler.timing;
+
+import java.net.URI;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+
+/**
+ * Collects phases of a single API call while it is executed, on a single
+ * thread. Calls are expected in order: <code>beforeSend</code> and
+ * <code>headersReceived</code> for each attempt, then optionally
+ * <code>transferred</code> and <code>parsed</code>, and finally
+ * <code>finish</code>.
+ *
+ * @author akdeniz
+ */
+public class RequestTimer {
+
+    private final Endpoint endpoint;
+    private final String uri;
+    private final long created = System.nanoTime();
+
+    private long phaseEnd = created;
+    private long sent;
+    private int statusCode;
+    private int attempts;
+    private long queue;
+    private long connect;
+    private long tls;
+    private long wait;
+    private long transfer = -1;
+    private long parse = -1;
+    private long responseBytes = -1;
+    private long serverLatencyMillis = -1;
+
+    public RequestTimer(URI uri) {
+        this.endpoint = Endpoint.fromUri(uri);
+        this.uri = uri.toString();
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Called right before an attempt is sent. Time since previous phase is
+     * accounted as queueing.
+     */
+    public void beforeSend() {
+        sent = System.nanoTime();
+        queue += sent - phaseEnd;
+        TimingSocketFactory.resetConnectTimes();
+    }
+
+    /**
+     * Called when response headers of an attempt are received, or with 0 if
+     * attempt failed without a response.
+     */
+    public void headersReceived(int statusCode) {
+        phaseEnd = System.nanoTime();
+        long[] connectTimes = TimingSocketFactory.takeConnectTimes();
+        connect += connectTimes[0];
+        tls += connectTimes[1];
+        wait += Math.max(0, phaseEnd - sent - connectTimes[0] - connectTimes[1]);
+        this.statusCode = statusCode;
+        attempts++;
+    }
+
+    /**
+     * Called when whole response body of given size is read.
+     */
+    public void transferred(long responseBytes) {
+        long now = System.nanoTime();
+        transfer = now - phaseEnd;
+        phaseEnd = now;
+        this.responseBytes = responseBytes;
+    }
+
+    /**
+     * Called when response body is parsed.
+     *
+     * @param serverLatencyMillis latency reported by server, or -1
+     */
+    public void parsed(long serverLatencyMillis) {
+        long now = System.nanoTime();
+        parse = now - phaseEnd;
+        phaseEnd = now;
+        this.serverLatencyMillis = serverLatencyMillis;
+    }
+
+    public RequestTiming finish() {
+        return new RequestTiming(endpoint, uri, statusCode, Math.max(0, attempts - 1), queue, connect, tls, wait,
+                transfer, parse, System.nanoTime() - created, responseBytes, serverLatencyMillis);
+    }
+}
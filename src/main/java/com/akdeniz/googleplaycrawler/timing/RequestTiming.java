@@ -0,0 +1,145 @@
+package com.akdeniz.googleplaycrawler.timing;
+
+import java.util.concurrent.TimeUnit;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+
+/**
+ * Where time of a single API call is spent. Durations are in nanoseconds
+ * and are summed over all attempts if the request is retried.
+ * <p>
+ * Connect and TLS phases are only known if connections are opened by a
+ * {@link TimingSocketFactory}, and are zero when a pooled connection is
+ * reused. Transfer and parse phases are -1 if response body is handed to
+ * caller as a stream, e.g. for downloads.
+ * </p>
+ *
+ * @author akdeniz
+ */
+public class RequestTiming {
+
+    private final Endpoint endpoint;
+    private final String uri;
+    private final int statusCode;
+    private final int retries;
+    private final long queueNanos;
+    private final long connectNanos;
+    private final long tlsNanos;
+    private final long waitNanos;
+    private final long transferNanos;
+    private final long parseNanos;
+    private final long totalNanos;
+    private final long responseBytes;
+    private final long serverLatencyMillis;
+
+    RequestTiming(Endpoint endpoint, String uri, int statusCode, int retries, long queueNanos, long connectNanos,
+                  long tlsNanos, long waitNanos, long transferNanos, long parseNanos, long totalNanos,
+                  long responseBytes, long serverLatencyMillis) {
+        this.endpoint = endpoint;
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.retries = retries;
+        this.queueNanos = queueNanos;
+        this.connectNanos = connectNanos;
+        this.tlsNanos = tlsNanos;
+        this.waitNanos = waitNanos;
+        this.transferNanos = transferNanos;
+        this.parseNanos = parseNanos;
+        this.totalNanos = totalNanos;
+        this.responseBytes = responseBytes;
+        this.serverLatencyMillis = serverLatencyMillis;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Status code of last attempt, or 0 if it failed without a response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Time spent waiting for rate limiter permits and retry backoff.
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * Time spent opening TCP connections.
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Time spent on TLS handshakes.
+     */
+    public long getTlsNanos() {
+        return tlsNanos;
+    }
+
+    /**
+     * Time from sending request on an open connection until response headers
+     * are received, i.e. time to first byte.
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Time spent reading response body after headers, or -1.
+     */
+    public long getTransferNanos() {
+        return transferNanos;
+    }
+
+    /**
+     * Time spent parsing response body, or -1.
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Size of read response body, or -1 if it is not read as a whole.
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Processing time reported by server in <code>ServerMetadata</code> of
+     * response, or -1 if it is not reported.
+     */
+    public long getServerLatencyMillis() {
+        return serverLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + " " + statusCode + " total=" + millis(totalNanos) + "ms queue=" + millis(queueNanos)
+                + "ms connect=" + millis(connectNanos) + "ms tls=" + millis(tlsNanos) + "ms wait="
+                + millis(waitNanos) + "ms transfer=" + millis(transferNanos) + "ms parse=" + millis(parseNanos)
+                + "ms server=" + serverLatencyMillis + "ms retries=" + retries + " bytes=" + responseBytes;
+    }
+
+    private static long millis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
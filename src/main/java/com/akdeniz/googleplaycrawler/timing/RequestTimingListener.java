@@ -0,0 +1,12 @@
+package com.akdeniz.googleplaycrawler.timing;
+
+/**
+ * Receives {@link RequestTiming} of every completed or failed request. It is
+ * called on requesting thread, so it should return quickly.
+ *
+ * @author akdeniz
+ */
+public interface RequestTimingListener {
+
+    public void onRequest(RequestTiming timing);
+}
@@ -0,0 +1,165 @@
+package com.akdeniz.googleplaycrawler.timing;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpInetSocketAddress;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeLayeredSocketFactory;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Socket factory that measures how long opening a connection takes, split
+ * into TCP connect and TLS handshake if wrapped factory is layered (like
+ * <code>SSLSocketFactory</code>). Measured times are kept per thread until
+ * {@link RequestTimer} takes them, which works for blocking clients that
+ * open connections on requesting thread.
+ *
+ * @author akdeniz
+ */
+public class TimingSocketFactory implements SchemeSocketFactory {
+
+    private static final ThreadLocal<long[]> CONNECT_TIMES = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private final SchemeSocketFactory delegate;
+
+    private TimingSocketFactory(SchemeSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Wraps given factory, keeping it layered if it is.
+     */
+    public static SchemeSocketFactory wrap(SchemeSocketFactory factory) {
+        if (factory instanceof TimingSocketFactory) {
+            return factory;
+        }
+        if (factory instanceof SchemeLayeredSocketFactory) {
+            return new Layered((SchemeLayeredSocketFactory) factory);
+        }
+        return new TimingSocketFactory(factory);
+    }
+
+    /**
+     * Replaces factories of all schemes in given registry with timing ones.
+     */
+    public static void instrument(SchemeRegistry registry) {
+        for (String name : registry.getSchemeNames()) {
+            Scheme scheme = registry.getScheme(name);
+            registry.register(new Scheme(name, scheme.getDefaultPort(), wrap(scheme.getSchemeSocketFactory())));
+        }
+    }
+
+    static void resetConnectTimes() {
+        long[] times = CONNECT_TIMES.get();
+        times[0] = 0;
+        times[1] = 0;
+    }
+
+    /**
+     * Returns connect and TLS times measured on this thread since last reset.
+     */
+    static long[] takeConnectTimes() {
+        long[] times = CONNECT_TIMES.get();
+        long[] taken = {times[0], times[1]};
+        resetConnectTimes();
+        return taken;
+    }
+
+    private static void record(long connectNanos, long tlsNanos) {
+        long[] times = CONNECT_TIMES.get();
+        times[0] += connectNanos;
+        times[1] += tlsNanos;
+    }
+
+    @Override
+    public Socket createSocket(HttpParams params) throws IOException {
+        return delegate.createSocket(params);
+    }
+
+    @Override
+    public Socket connectSocket(Socket sock, InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                                HttpParams params) throws IOException {
+        long started = System.nanoTime();
+        Socket socket = delegate.connectSocket(sock, remoteAddress, localAddress, params);
+        record(System.nanoTime() - started, 0);
+        return socket;
+    }
+
+    @Override
+    public boolean isSecure(Socket sock) {
+        return delegate.isSecure(sock);
+    }
+
+    /**
+     * Opens a plain socket and layers wrapped factory on it, so that TCP
+     * connect and TLS handshake are measured separately.
+     */
+    private static class Layered extends TimingSocketFactory implements SchemeLayeredSocketFactory {
+
+        private final SchemeLayeredSocketFactory layered;
+
+        Layered(SchemeLayeredSocketFactory layered) {
+            super(layered);
+            this.layered = layered;
+        }
+
+        @Override
+        public Socket createSocket(HttpParams params) {
+            return new Socket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+                                    HttpParams params) throws IOException {
+            Socket plain = sock != null ? sock : new Socket();
+            if (localAddress != null) {
+                plain.setReuseAddress(HttpConnectionParams.getSoReuseaddr(params));
+                plain.bind(localAddress);
+            }
+
+            long started = System.nanoTime();
+            try {
+                plain.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+                plain.connect(remoteAddress, HttpConnectionParams.getConnectionTimeout(params));
+            } catch (SocketTimeoutException e) {
+                plain.close();
+                throw new ConnectTimeoutException("Connect to " + remoteAddress + " timed out");
+            }
+            long connected = System.nanoTime();
+
+            String hostName = remoteAddress instanceof HttpInetSocketAddress
+                    ? ((HttpInetSocketAddress) remoteAddress).getHttpHost().getHostName()
+                    : remoteAddress.getHostName();
+            Socket socket;
+            try {
+                socket = layered.createLayeredSocket(plain, hostName, remoteAddress.getPort(), params);
+            } catch (IOException e) {
+                plain.close();
+                throw e;
+            }
+            record(connected - started, System.nanoTime() - connected);
+            return socket;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpParams params)
+                throws IOException {
+            long started = System.nanoTime();
+            Socket layeredSocket = layered.createLayeredSocket(socket, target, port, params);
+            record(0, System.nanoTime() - started);
+            return layeredSocket;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+import com.akdeniz.googleplaycrawler.ratelimit.AdaptiveRateLimiter;
+import com.akdeniz.googleplaycrawler.ratelimit.Backoff;
+import com.akdeniz.googleplaycrawler.ratelimit.TokenBucket;
+
+/**
+ * Runs {@link AsyncGooglePlayAPI} against {@link FdfeEmulator}.
+ */
+public class TestAsyncGooglePlayAPI {
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI service;
+    private AsyncGooglePlayAPI async;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 8);
+        emulator.start();
+        service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        service.setBackoff(new Backoff(10, 2000));
+        emulator.route(service);
+        async = new AsyncGooglePlayAPI(service);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        async.close();
+        emulator.close();
+    }
+
+    @Test
+    public void shouldFetchDetails() throws Exception {
+        DetailsResponse details = async.details("com.example.app").get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(details.getDocV2().getDocid(), "com.example.app");
+
+        BulkDetailsResponse bulkDetails = async.bulkDetails(Arrays.asList("com.example.a", "com.example.b"))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(bulkDetails.getEntryCount(), 2);
+        Assert.assertEquals(bulkDetails.getEntry(1).getDoc().getDocid(), "com.example.b");
+    }
+
+    @Test
+    public void shouldRetryThrottledRequest() throws Exception {
+        service.setMaxRetries(2);
+        emulator.setMaxRequestsPerSecond(1);
+
+        async.details("com.example.a").get(10, TimeUnit.SECONDS);
+        DetailsResponse details = async.details("com.example.b").get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(details.getDocV2().getDocid(), "com.example.b");
+        Assert.assertTrue(emulator.getThrottledCount() >= 1);
+    }
+
+    @Test
+    public void shouldFailWithStatusCode() throws Exception {
+        service.setMaxRetries(0);
+        emulator.setMaxRequestsPerSecond(1);
+
+        async.details("com.example.a").get(10, TimeUnit.SECONDS);
+        try {
+            async.details("com.example.b").get(10, TimeUnit.SECONDS);
+            Assert.fail("429 should not be retried");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof GooglePlayException, String.valueOf(e.getCause()));
+            Assert.assertEquals(((GooglePlayException) e.getCause()).getStatusCode(), 429);
+        }
+    }
+
+    @Test
+    public void shouldTakePermits() throws Exception {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+        TokenBucket bucket = new TokenBucket(5, 1, 10, 0.5, 0.5, 1);
+        rateLimiter.setBucket(Endpoint.DETAILS, bucket);
+        service.setRateLimiter(rateLimiter);
+
+        long started = System.nanoTime();
+        async.details("com.example.a").get(10, TimeUnit.SECONDS);
+        async.details("com.example.b").get(10, TimeUnit.SECONDS);
+        async.details("com.example.c").get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(bucket.getAcquireCount(), 3);
+        // one saved permit, then two waits of at least 1/10 s
+        Assert.assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void shouldDownloadIntoFile() throws Exception {
+        emulator.setApkSize(256 * 1024);
+        File target = File.createTempFile("async-", ".apk");
+        try {
+            File downloaded = async.download("com.example.app", 3, 1, "23", target).get(10, TimeUnit.SECONDS);
+
+            Assert.assertEquals(downloaded, target);
+            Assert.assertEquals(target.length(), 256 * 1024);
+        } finally {
+            target.delete();
+        }
+    }
+
+    @Test
+    public void shouldFailOnClosedClient() throws Exception {
+        async.close();
+
+        try {
+            async.details("com.example.a").get(10, TimeUnit.SECONDS);
+            Assert.fail("request should not be sent over a closed client");
+        } catch (ExecutionException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void shouldFailDelayedRequestOnClosedClient() throws Exception {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+        rateLimiter.setBucket(Endpoint.DETAILS, new TokenBucket(5, 1, 10, 0.5, 0.5, 1));
+        service.setRateLimiter(rateLimiter);
+        async.details("com.example.a").get(10, TimeUnit.SECONDS);
+        async.close();
+
+        try {
+            async.details("com.example.b").get(10, TimeUnit.SECONDS);
+            Assert.fail("request should not be sent over a closed client");
+        } catch (ExecutionException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+    }
+}
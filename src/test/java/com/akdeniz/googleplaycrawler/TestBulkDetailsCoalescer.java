@@ -0,0 +1,95 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+/**
+ * Runs {@link BulkDetailsCoalescer} against {@link FdfeEmulator}.
+ */
+public class TestBulkDetailsCoalescer {
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI service;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 8);
+        emulator.start();
+        service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        emulator.close();
+    }
+
+    @Test
+    public void shouldSendFullBatchAsOneRequest() throws Exception {
+        BulkDetailsCoalescer coalescer = new BulkDetailsCoalescer(service, 5, 60000, 2);
+        try {
+            List<CompletableFuture<BulkDetailsEntry>> futures = new ArrayList<CompletableFuture<BulkDetailsEntry>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(coalescer.submit("com.example.app" + i));
+            }
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(futures.get(i).get(10, TimeUnit.SECONDS).getDoc().getDocid(),
+                        "com.example.app" + i);
+            }
+            Assert.assertEquals(emulator.getRequestCount(), 1);
+        } finally {
+            coalescer.close();
+        }
+    }
+
+    @Test
+    public void shouldShareFutureOfSamePackage() throws Exception {
+        BulkDetailsCoalescer coalescer = new BulkDetailsCoalescer(service, 100, 60000, 1);
+        try {
+            CompletableFuture<BulkDetailsEntry> future = coalescer.submit("com.example.app");
+            Assert.assertSame(coalescer.submit("com.example.app"), future);
+            coalescer.flush();
+            future.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(emulator.getRequestCount(), 1);
+        } finally {
+            coalescer.close();
+        }
+    }
+
+    @Test
+    public void shouldFlushAfterDelay() throws Exception {
+        BulkDetailsCoalescer coalescer = new BulkDetailsCoalescer(service, 100, 20, 1);
+        try {
+            BulkDetailsEntry entry = coalescer.details("com.example.app");
+            Assert.assertEquals(entry.getDoc().getDocid(), "com.example.app");
+        } finally {
+            coalescer.close();
+        }
+    }
+
+    @Test
+    public void shouldCompleteWaitingLookupsOnClose() throws Exception {
+        BulkDetailsCoalescer coalescer = new BulkDetailsCoalescer(service, 100, 60000, 1);
+        CompletableFuture<BulkDetailsEntry> future = coalescer.submit("com.example.app");
+        coalescer.close();
+
+        Assert.assertEquals(future.get(10, TimeUnit.SECONDS).getDoc().getDocid(), "com.example.app");
+        try {
+            coalescer.submit("com.example.other");
+            Assert.fail("closed coalescer should not accept lookups");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.Payload;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.GooglePlay.ServerCommands;
+import com.akdeniz.googleplaycrawler.GooglePlay.ServerMetadata;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+import com.akdeniz.googleplaycrawler.emulator.SyntheticDocuments;
+
+public class TestBulkDetailsSpliterator {
+
+    private static BulkDetailsResponse bulkDetails(int count) {
+        BulkDetailsResponse.Builder bulkDetails = BulkDetailsResponse.newBuilder();
+        for (int i = 0; i < count; i++) {
+            bulkDetails.addEntry(i % 3 == 1 ? BulkDetailsEntry.getDefaultInstance()
+                    : BulkDetailsEntry.newBuilder().setDoc(SyntheticDocuments.app("com.example.app" + i)).build());
+        }
+        return bulkDetails.build();
+    }
+
+    private static List<BulkDetailsEntry> decode(byte[] encoded, int expectedEntries) {
+        BulkDetailsSpliterator spliterator =
+                new BulkDetailsSpliterator(new ByteArrayInputStream(encoded), expectedEntries);
+        List<BulkDetailsEntry> entries = new ArrayList<BulkDetailsEntry>();
+        while (spliterator.tryAdvance(entries::add)) {
+            Assert.assertTrue(spliterator.getBytesRead() <= encoded.length);
+        }
+        Assert.assertEquals(spliterator.estimateSize(), 0);
+        Assert.assertNull(spliterator.trySplit());
+        return entries;
+    }
+
+    @Test
+    public void shouldDecodeEntriesInOrder() throws Exception {
+        BulkDetailsResponse bulkDetails = bulkDetails(10);
+        // fields around entries are skipped
+        byte[] encoded = ResponseWrapper.newBuilder()
+                .setCommands(ServerCommands.newBuilder().setClearCache(true))
+                .setPayload(Payload.newBuilder()
+                        .setDetailsResponse(DetailsResponse.newBuilder().setFooterHtml("footer"))
+                        .setBulkDetailsResponse(bulkDetails))
+                .setServerMetadata(ServerMetadata.newBuilder().setLatencyMillis(5))
+                .build().toByteArray();
+
+        List<BulkDetailsEntry> entries = decode(encoded, 10);
+
+        Assert.assertEquals(entries, ResponseWrapper.parseFrom(encoded).getPayload().getBulkDetailsResponse()
+                .getEntryList());
+        Assert.assertEquals(entries, bulkDetails.getEntryList());
+    }
+
+    @Test
+    public void shouldFindEntriesAfterAnotherPayload() throws Exception {
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setDetailsResponse(DetailsResponse.newBuilder().setFooterHtml("footer"))).build()
+                .writeTo(concatenated);
+        ResponseWrapper.newBuilder().setPayload(Payload.newBuilder().setBulkDetailsResponse(bulkDetails(3)))
+                .build().writeTo(concatenated);
+
+        Assert.assertEquals(decode(concatenated.toByteArray(), 3), bulkDetails(3).getEntryList());
+    }
+
+    @Test
+    public void shouldEndWithoutBulkDetails() throws Exception {
+        byte[] encoded = ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setDetailsResponse(DetailsResponse.newBuilder().setFooterHtml("footer"))).build().toByteArray();
+
+        Assert.assertTrue(decode(encoded, 5).isEmpty());
+        Assert.assertTrue(decode(new byte[0], 5).isEmpty());
+    }
+
+    @Test(expectedExceptions = UncheckedIOException.class)
+    public void shouldFailOnTruncatedResponse() throws Exception {
+        byte[] encoded = ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setBulkDetailsResponse(bulkDetails(5))).build().toByteArray();
+
+        decode(Arrays.copyOf(encoded, encoded.length - 100), 5);
+    }
+
+    @Test
+    public void shouldStreamEmulatorResponse() throws Exception {
+        FdfeEmulator emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 2);
+        emulator.start();
+        try {
+            GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            service.setToken("emulated-token");
+            emulator.route(service);
+            List<String> packageNames = Arrays.asList("com.example.a", "com.example.b", "com.example.c");
+
+            List<BulkDetailsEntry> streamed;
+            Stream<BulkDetailsEntry> stream = service.bulkDetailsStream(packageNames);
+            try {
+                streamed = stream.collect(Collectors.toList());
+            } finally {
+                stream.close();
+            }
+
+            Assert.assertEquals(streamed, service.bulkDetails(packageNames).getEntryList());
+        } finally {
+            emulator.close();
+        }
+    }
+
+    @Test
+    public void shouldStreamChunksInOrder() throws Exception {
+        FdfeEmulator emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 2);
+        emulator.start();
+        try {
+            GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            service.setToken("emulated-token");
+            emulator.route(service);
+            service.setBulkChunkSize(2);
+            List<String> packageNames = new ArrayList<String>();
+            for (int i = 0; i < 5; i++) {
+                packageNames.add("com.example.app" + i);
+            }
+
+            long requests = emulator.getRequestCount();
+            Stream<BulkDetailsEntry> stream = service.bulkDetailsStream(packageNames);
+            List<String> streamed;
+            try {
+                // later chunks are requested as earlier ones are consumed
+                Assert.assertEquals(emulator.getRequestCount(), requests + 1);
+                streamed = stream.map(entry -> entry.getDoc().getDocid()).collect(Collectors.toList());
+            } finally {
+                stream.close();
+            }
+            Assert.assertEquals(streamed, packageNames);
+            Assert.assertEquals(emulator.getRequestCount(), requests + 3);
+
+            final List<String> consumed = new ArrayList<String>();
+            service.bulkDetails(packageNames, entry -> consumed.add(entry.getDoc().getDocid()));
+            Assert.assertEquals(consumed, packageNames);
+            Assert.assertEquals(emulator.getRequestCount(), requests + 6);
+        } finally {
+            emulator.close();
+        }
+    }
+}
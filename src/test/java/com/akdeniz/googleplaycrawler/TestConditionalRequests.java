@@ -0,0 +1,107 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.net.InetSocketAddress;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.cache.ResponseCache;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+/**
+ * Runs conditional requests of {@link GooglePlayAPI} against
+ * {@link FdfeEmulator}, which answers matching ETags with 304.
+ */
+public class TestConditionalRequests {
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI service;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.start();
+        service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        emulator.close();
+    }
+
+    @Test
+    public void shouldReturnStoredDetailsWhenNotModified() throws Exception {
+        ConditionalResponse<DetailsResponse> first = service.detailsIfModified("com.example.app");
+        ConditionalResponse<DetailsResponse> second = service.detailsIfModified("com.example.app");
+
+        Assert.assertTrue(first.isModified());
+        Assert.assertNotNull(first.getEtag());
+        Assert.assertFalse(second.isModified());
+        Assert.assertEquals(second.getEtag(), first.getEtag());
+        Assert.assertEquals(second.getResponse(), first.getResponse());
+        Assert.assertEquals(emulator.getRequestCount(), 2);
+    }
+
+    @Test
+    public void shouldKeepValidatorsPerRequest() throws Exception {
+        service.detailsIfModified("com.example.a");
+        ConditionalResponse<DetailsResponse> other = service.detailsIfModified("com.example.b");
+
+        Assert.assertTrue(other.isModified());
+        Assert.assertEquals(other.getResponse().getDocV2().getDocid(), "com.example.b");
+    }
+
+    @Test
+    public void shouldReturnStoredListWhenNotModified() throws Exception {
+        ConditionalResponse<ListResponse> first = service.listIfModified("GAME", "apps_topselling_free", 0, 10);
+        ConditionalResponse<ListResponse> second = service.listIfModified("GAME", "apps_topselling_free", 0, 10);
+
+        Assert.assertTrue(first.isModified());
+        Assert.assertFalse(second.isModified());
+        Assert.assertEquals(second.getResponse(), first.getResponse());
+    }
+
+    @Test
+    public void shouldUseResponseCacheForValidators() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        service.setResponseCache(cache);
+        try {
+            ConditionalResponse<DetailsResponse> first = service.detailsIfModified("com.example.app");
+
+            // another client sharing the cache revalidates what the first one stored
+            GooglePlayAPI other = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            other.setToken("emulated-token");
+            emulator.route(other);
+            other.setResponseCache(cache);
+            ConditionalResponse<DetailsResponse> second = other.detailsIfModified("com.example.app");
+
+            Assert.assertFalse(second.isModified());
+            Assert.assertEquals(second.getResponse(), first.getResponse());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void shouldRevalidateExpiredCacheEntry() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        service.setResponseCache(cache);
+        service.setCacheTtl(0, 50);
+        try {
+            ConditionalResponse<DetailsResponse> first = service.detailsIfModified("com.example.app");
+            Thread.sleep(100);
+            ConditionalResponse<DetailsResponse> second = service.detailsIfModified("com.example.app");
+
+            Assert.assertFalse(second.isModified());
+            Assert.assertEquals(second.getResponse(), first.getResponse());
+        } finally {
+            cache.close();
+        }
+    }
+}
@@ -151,7 +151,7 @@ public class TestGooglePlayCrawler {
 			return;
 		}
 
-		InputStream downloadStream = service.download(appDetails.getPackageName(), versionCode, offerType);
+		InputStream downloadStream = service.download(appDetails.getPackageName(), versionCode, offerType, "23");
 		FileOutputStream outputStream = new FileOutputStream(File.createTempFile(packageName, ".apk"));
 
 		byte buffer[] = new byte[1024];
@@ -0,0 +1,133 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.ListResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.Payload;
+import com.akdeniz.googleplaycrawler.GooglePlay.PreFetch;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.GooglePlay.ServerCommands;
+import com.akdeniz.googleplaycrawler.GooglePlay.ServerMetadata;
+import com.akdeniz.googleplaycrawler.LazyResponseWrapper.PayloadField;
+import com.akdeniz.googleplaycrawler.emulator.SyntheticDocuments;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Compares {@link LazyResponseWrapper} with full parsing by
+ * {@link ResponseWrapper#parseFrom(byte[])}.
+ */
+public class TestLazyResponseWrapper {
+
+    private static ResponseWrapper response() {
+        ResponseWrapper details = ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setDetailsResponse(DetailsResponse.newBuilder().setDocV2(SyntheticDocuments.app("com.example.b"))))
+                .build();
+        return ResponseWrapper.newBuilder()
+                .setPayload(Payload.newBuilder()
+                        .setDetailsResponse(DetailsResponse.newBuilder()
+                                .setDocV2(SyntheticDocuments.app("com.example.a")))
+                        .setListResponse(ListResponse.newBuilder()
+                                .addDoc(SyntheticDocuments.container("apps", "Apps", 0, 3))))
+                .setCommands(ServerCommands.newBuilder().setClearCache(true))
+                .addPreFetch(PreFetch.newBuilder().setUrl("details?doc=com.example.b")
+                        .setResponse(details.toByteString()).setEtag("\"b\"").setTtl(1000).setSoftTtl(500))
+                .setServerMetadata(ServerMetadata.newBuilder().setLatencyMillis(42))
+                .build();
+    }
+
+    @Test
+    public void shouldMatchFullParsing() throws Exception {
+        byte[] encoded = response().toByteArray();
+        ResponseWrapper parsed = ResponseWrapper.parseFrom(encoded);
+        LazyResponseWrapper lazy = LazyResponseWrapper.wrap(encoded);
+
+        Assert.assertEquals(lazy.getPayload(PayloadField.DETAILS), parsed.getPayload().getDetailsResponse());
+        Assert.assertEquals(lazy.getPayload(PayloadField.LIST), parsed.getPayload().getListResponse());
+        Assert.assertEquals(lazy.getCommands(), parsed.getCommands());
+        Assert.assertEquals(lazy.getServerMetadata(), parsed.getServerMetadata());
+        Assert.assertEquals(lazy.getServerLatencyMillis(), 42);
+        Assert.assertEquals(lazy.getPreFetchList(), parsed.getPreFetchList());
+        Assert.assertEquals(lazy.toResponseWrapper(), parsed);
+        Assert.assertEquals(lazy.toByteArray(), encoded);
+        Assert.assertEquals(lazy.getSerializedSize(), encoded.length);
+    }
+
+    @Test
+    public void shouldReturnDefaultsOfMissingFields() throws Exception {
+        LazyResponseWrapper lazy = LazyResponseWrapper.wrap(new byte[0]);
+
+        Assert.assertSame(lazy.getPayload(PayloadField.DETAILS), DetailsResponse.getDefaultInstance());
+        Assert.assertSame(lazy.getPayload(PayloadField.LIST), ListResponse.getDefaultInstance());
+        Assert.assertEquals(lazy.getCommands(), ServerCommands.getDefaultInstance());
+        Assert.assertEquals(lazy.getServerLatencyMillis(), -1);
+        Assert.assertTrue(lazy.getPreFetchList().isEmpty());
+    }
+
+    @Test
+    public void shouldMergeRepeatedOccurrencesAsProtobufDoes() throws Exception {
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        response().writeTo(concatenated);
+        ResponseWrapper.newBuilder()
+                .setPayload(Payload.newBuilder().setDetailsResponse(DetailsResponse.newBuilder()
+                        .setFooterHtml("footer")))
+                .setServerMetadata(ServerMetadata.newBuilder().setLatencyMillis(7))
+                .build().writeTo(concatenated);
+        byte[] encoded = concatenated.toByteArray();
+        ResponseWrapper parsed = ResponseWrapper.parseFrom(encoded);
+        LazyResponseWrapper lazy = LazyResponseWrapper.wrap(encoded);
+
+        Assert.assertEquals(lazy.getPayload(PayloadField.DETAILS), parsed.getPayload().getDetailsResponse());
+        Assert.assertEquals(lazy.getPayload(PayloadField.LIST), parsed.getPayload().getListResponse());
+        Assert.assertEquals(lazy.getServerLatencyMillis(), 7);
+        Assert.assertEquals(lazy.toResponseWrapper(), parsed);
+    }
+
+    @Test
+    public void shouldReadStreamsOfAnyLength() throws Exception {
+        byte[] encoded = response().toByteArray();
+        // unknown length, short reads
+        LazyResponseWrapper unknown = LazyResponseWrapper.read(new TrickleInputStream(encoded), -1);
+        Assert.assertEquals(unknown.toByteArray(), encoded);
+        Assert.assertEquals(unknown.toResponseWrapper(), ResponseWrapper.parseFrom(encoded));
+
+        byte[] large = ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setListResponse(ListResponse.newBuilder()
+                        .addDoc(SyntheticDocuments.container("apps", "Apps", 0, 40)))).build().toByteArray();
+        Assert.assertTrue(large.length > 64 * 1024);
+        Assert.assertEquals(LazyResponseWrapper.read(new ByteArrayInputStream(large), large.length).toByteArray(),
+                large);
+        Assert.assertEquals(LazyResponseWrapper.read(new ByteArrayInputStream(large), -1)
+                .getPayload(PayloadField.LIST), ResponseWrapper.parseFrom(large).getPayload().getListResponse());
+    }
+
+    @Test(expectedExceptions = InvalidProtocolBufferException.class)
+    public void shouldRejectTruncatedResponse() throws Exception {
+        byte[] encoded = response().toByteArray();
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        LazyResponseWrapper.wrap(truncated).getPayload(PayloadField.LIST);
+    }
+
+    /**
+     * Returns at most 1000 bytes per read, as a network stream would.
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+
+        TrickleInputStream(byte[] content) {
+            super(new ByteArrayInputStream(content));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1000));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.PagedSpliterator.PageFetcher;
+
+/**
+ * Traverses {@link PagedSpliterator} over listings with known sizes.
+ */
+public class TestPagedSpliterator {
+
+    /**
+     * Listing of consecutive integers that records requested offsets.
+     */
+    private static class Listing implements PageFetcher<Integer> {
+        final int size;
+        final List<Integer> offsets = new CopyOnWriteArrayList<Integer>();
+
+        Listing(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public List<Integer> fetch(int offset, int count) throws IOException {
+            offsets.add(offset);
+            List<Integer> page = new ArrayList<Integer>();
+            for (int i = offset; i < Math.min(size, offset + count); i++) {
+                page.add(i);
+            }
+            return page;
+        }
+
+        int maxOffset() {
+            int max = 0;
+            for (int offset : offsets) {
+                max = Math.max(max, offset);
+            }
+            return max;
+        }
+    }
+
+    private static List<Integer> range(int size) {
+        return IntStream.range(0, size).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldStopAtEndOfListing() {
+        Listing listing = new Listing(250);
+
+        List<Integer> results = StreamSupport.stream(
+                new PagedSpliterator<Integer>(listing, 0, Integer.MAX_VALUE, 100), false).collect(Collectors.toList());
+
+        Assert.assertEquals(results, range(250));
+        Assert.assertEquals(listing.offsets, Arrays.asList(0, 100, 200));
+    }
+
+    @Test
+    public void shouldStopAtLimit() {
+        Listing listing = new Listing(1000);
+
+        List<Integer> results = StreamSupport.stream(
+                new PagedSpliterator<Integer>(listing, 20, 150, 100), false).collect(Collectors.toList());
+
+        Assert.assertEquals(results, range(170).subList(20, 170));
+        Assert.assertEquals(listing.offsets, Arrays.asList(20, 120));
+    }
+
+    @Test
+    public void shouldSplitOnlyFirstPagesOfUnboundedRange() {
+        PagedSpliterator<Integer> spliterator =
+                new PagedSpliterator<Integer>(new Listing(0), 0, Integer.MAX_VALUE, 10);
+
+        Spliterator<Integer> prefix = spliterator.trySplit();
+        Assert.assertEquals(prefix.estimateSize(), PagedSpliterator.MAX_SPLIT_PAGES / 2 * 10);
+
+        int splits = 1;
+        while (spliterator.trySplit() != null) {
+            splits++;
+        }
+        Assert.assertTrue(splits < PagedSpliterator.MAX_SPLIT_PAGES, String.valueOf(splits));
+    }
+
+    @Test
+    public void shouldSplitBoundedRangeAtPageBoundary() {
+        PagedSpliterator<Integer> spliterator = new PagedSpliterator<Integer>(new Listing(100), 0, 35, 10);
+
+        Spliterator<Integer> prefix = spliterator.trySplit();
+
+        Assert.assertEquals(prefix.estimateSize(), 20);
+        Assert.assertEquals(spliterator.estimateSize(), 15);
+    }
+
+    @Test
+    public void shouldFetchParallelListingWithinSplitRange() {
+        for (int size : new int[]{0, 30, 250}) {
+            Listing listing = new Listing(size);
+
+            List<Integer> results = StreamSupport.stream(
+                    new PagedSpliterator<Integer>(listing, 0, Integer.MAX_VALUE, 10), true)
+                    .collect(Collectors.toList());
+
+            Assert.assertEquals(results, range(size));
+            Assert.assertTrue(listing.maxOffset() <= Math.max(size, PagedSpliterator.MAX_SPLIT_PAGES * 10),
+                    size + ": " + listing.offsets);
+        }
+    }
+
+    @Test
+    public void shouldShareEndOfListingWithSplits() {
+        Listing listing = new Listing(15);
+        PagedSpliterator<Integer> spliterator = new PagedSpliterator<Integer>(listing, 0, Integer.MAX_VALUE, 10);
+        Spliterator<Integer> prefix = spliterator.trySplit();
+
+        List<Integer> results = new ArrayList<Integer>();
+        prefix.forEachRemaining(results::add);
+        spliterator.forEachRemaining(results::add);
+
+        Assert.assertEquals(results, range(15));
+        Assert.assertEquals(listing.offsets, Arrays.asList(0, 10));
+    }
+
+    @Test
+    public void shouldCancelPrefetchOfSplitsOnClose() throws Exception {
+        final CountDownLatch prefetching = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        PageFetcher<Integer> fetcher = new PageFetcher<Integer>() {
+            @Override
+            public List<Integer> fetch(int offset, int count) throws IOException {
+                if (offset == 0) {
+                    return range(count);
+                }
+                prefetching.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                    return range(0);
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        PagedSpliterator<Integer> spliterator = new PagedSpliterator<Integer>(fetcher, 0, Integer.MAX_VALUE, 10);
+        Spliterator<Integer> prefix = spliterator.trySplit();
+
+        Assert.assertTrue(prefix.tryAdvance(result -> { }));
+        Assert.assertTrue(prefetching.await(5, TimeUnit.SECONDS));
+        spliterator.close();
+
+        Assert.assertTrue(cancelled.await(5, TimeUnit.SECONDS), "prefetch of split is not cancelled");
+        Assert.assertFalse(spliterator.tryAdvance(result -> { }));
+    }
+}
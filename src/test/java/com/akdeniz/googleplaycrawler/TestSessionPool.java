@@ -0,0 +1,195 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.SessionPool.SessionCallable;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+public class TestSessionPool {
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI first;
+    private GooglePlayAPI second;
+    private SessionPool pool;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.start();
+        first = newSession("first@example.com");
+        second = newSession("second@example.com");
+        pool = new SessionPool(Arrays.asList(first, second));
+        pool.setAcquireTimeoutMillis(5000);
+    }
+
+    private GooglePlayAPI newSession(String email) {
+        GooglePlayAPI service = new GooglePlayAPI(email, "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+        return service;
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        pool.close();
+        emulator.close();
+    }
+
+    @Test
+    public void shouldRetryThrottledRequestOnAnotherSession() throws Exception {
+        final List<GooglePlayAPI> called = Collections.synchronizedList(new ArrayList<GooglePlayAPI>());
+        String result = pool.execute(new SessionCallable<String>() {
+            @Override
+            public String call(GooglePlayAPI service) throws IOException {
+                called.add(service);
+                if (service == first) {
+                    throw new GooglePlayException("Too many requests", 429);
+                }
+                return service.getEmail();
+            }
+        });
+
+        Assert.assertEquals(result, "second@example.com");
+        Assert.assertEquals(called, Arrays.asList(first, second));
+        Assert.assertEquals(pool.getHealthyCount(), 2);
+    }
+
+    @Test
+    public void shouldRethrowAfterEverySessionIsTried() throws Exception {
+        final List<GooglePlayAPI> called = Collections.synchronizedList(new ArrayList<GooglePlayAPI>());
+        try {
+            pool.execute(new SessionCallable<String>() {
+                @Override
+                public String call(GooglePlayAPI service) throws IOException {
+                    called.add(service);
+                    throw new GooglePlayException("Too many requests", 429);
+                }
+            });
+            Assert.fail("429 should be rethrown");
+        } catch (GooglePlayException e) {
+            Assert.assertEquals(e.getStatusCode(), 429);
+        }
+        Assert.assertEquals(called.size(), 2);
+        Assert.assertNotSame(called.get(0), called.get(1));
+    }
+
+    @Test
+    public void shouldNotRetryOtherErrors() throws Exception {
+        final List<GooglePlayAPI> called = Collections.synchronizedList(new ArrayList<GooglePlayAPI>());
+        try {
+            pool.execute(new SessionCallable<String>() {
+                @Override
+                public String call(GooglePlayAPI service) throws IOException {
+                    called.add(service);
+                    throw new GooglePlayException("Not found", 404);
+                }
+            });
+            Assert.fail("404 should be rethrown");
+        } catch (GooglePlayException e) {
+            Assert.assertEquals(e.getStatusCode(), 404);
+        }
+        Assert.assertEquals(called.size(), 1);
+    }
+
+    @Test
+    public void shouldCheckinWhenFreshTokenIsRejected() throws Exception {
+        final String androidID = first.getAndroidID();
+        SessionCallable<String> rejectFirst = new SessionCallable<String>() {
+            @Override
+            public String call(GooglePlayAPI service) throws IOException {
+                if (service == first) {
+                    throw new GooglePlayException("Unauthorized", 401);
+                }
+                return service.getEmail();
+            }
+        };
+
+        // rejected token is renewed by logging in only
+        Assert.assertEquals(pool.execute(rejectFirst), "second@example.com");
+        awaitHealthy(2);
+        Assert.assertEquals(first.getAndroidID(), androidID);
+
+        // rejected again before any success, so device registration is renewed too
+        Assert.assertEquals(pool.execute(rejectFirst), "second@example.com");
+        awaitHealthy(2);
+        Assert.assertNotEquals(first.getAndroidID(), androidID);
+        Assert.assertEquals(first.getToken(), "emulated-token");
+    }
+
+    @Test
+    public void shouldCheckinSessionWithoutAndroidID() throws Exception {
+        GooglePlayAPI fresh = new GooglePlayAPI("fresh@example.com", "password");
+        emulator.route(fresh);
+        SessionPool freshPool = new SessionPool(Collections.singletonList(fresh));
+        try {
+            String email = freshPool.execute(new SessionCallable<String>() {
+                @Override
+                public String call(GooglePlayAPI service) throws IOException {
+                    return service.getEmail();
+                }
+            });
+            Assert.assertEquals(email, "fresh@example.com");
+            Assert.assertNotNull(fresh.getAndroidID());
+            Assert.assertEquals(fresh.getToken(), "emulated-token");
+        } finally {
+            freshPool.close();
+        }
+    }
+
+    @Test
+    public void shouldFailWaitingRequestsOnClose() throws Exception {
+        // login of a session that is routed to a stopped server keeps failing
+        FdfeEmulator stopped = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 1);
+        stopped.start();
+        GooglePlayAPI unreachable = new GooglePlayAPI("unreachable@example.com", "password", "3a0c1d2e4f5b6789");
+        stopped.route(unreachable);
+        stopped.close();
+        final SessionPool unreachablePool = new SessionPool(Collections.singletonList(unreachable));
+        unreachablePool.setAcquireTimeoutMillis(60000);
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    unreachablePool.execute(new SessionCallable<String>() {
+                        @Override
+                        public String call(GooglePlayAPI service) throws IOException {
+                            return service.getEmail();
+                        }
+                    });
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            }
+        };
+        waiting.start();
+        Thread.sleep(200);
+        long closed = System.currentTimeMillis();
+        unreachablePool.close();
+        waiting.join(10000);
+
+        Assert.assertFalse(waiting.isAlive());
+        Assert.assertTrue(System.currentTimeMillis() - closed < 5000);
+        Assert.assertEquals(errors.size(), 1);
+        Assert.assertEquals(errors.get(0).getMessage(), "Session pool is closed!");
+    }
+
+    private void awaitHealthy(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getHealthyCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(pool.getHealthyCount(), count);
+    }
+}
@@ -0,0 +1,104 @@
+package com.akdeniz.googleplaycrawler;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AppDetails;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsEntry;
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DocV2;
+import com.akdeniz.googleplaycrawler.GooglePlay.Payload;
+import com.akdeniz.googleplaycrawler.GooglePlay.ResponseWrapper;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+import com.akdeniz.googleplaycrawler.emulator.SyntheticDocuments;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Compares {@link VersionProbe} with fields of documents parsed by
+ * {@link ResponseWrapper#parseFrom(byte[])}.
+ */
+public class TestVersionProbe {
+
+    @Test
+    public void shouldMatchParsedBulkDetails() throws Exception {
+        BulkDetailsResponse bulkDetails = BulkDetailsResponse.newBuilder()
+                .addEntry(BulkDetailsEntry.newBuilder().setDoc(SyntheticDocuments.app("com.example.a")))
+                .addEntry(BulkDetailsEntry.getDefaultInstance())
+                .addEntry(BulkDetailsEntry.newBuilder().setDoc(SyntheticDocuments.app("com.example.unavailable")))
+                .addEntry(BulkDetailsEntry.newBuilder().setDoc(DocV2.newBuilder().setDocid("com.example.bare")))
+                .build();
+        byte[] encoded = ResponseWrapper.newBuilder()
+                .setPayload(Payload.newBuilder().setBulkDetailsResponse(bulkDetails)).build().toByteArray();
+
+        List<VersionProbe> probes = VersionProbe.BULK_DETAILS_PROJECTION.project(LazyResponseWrapper.wrap(encoded));
+        List<BulkDetailsEntry> entries = ResponseWrapper.parseFrom(encoded).getPayload().getBulkDetailsResponse()
+                .getEntryList();
+
+        Assert.assertEquals(probes.size(), entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).hasDoc()) {
+                assertProbeOf(probes.get(i), entries.get(i).getDoc());
+            } else {
+                Assert.assertNull(probes.get(i), "entry " + i);
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchParsedDetails() throws Exception {
+        byte[] encoded = ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setDetailsResponse(DetailsResponse.newBuilder().setDocV2(SyntheticDocuments.app("com.example.a"))
+                        .setFooterHtml("footer"))).build().toByteArray();
+        byte[] empty = ResponseWrapper.newBuilder().setPayload(Payload.newBuilder()
+                .setDetailsResponse(DetailsResponse.newBuilder().setFooterHtml("footer"))).build().toByteArray();
+
+        assertProbeOf(VersionProbe.DETAILS_PROJECTION.project(LazyResponseWrapper.wrap(encoded)),
+                ResponseWrapper.parseFrom(encoded).getPayload().getDetailsResponse().getDocV2());
+        Assert.assertNull(VersionProbe.DETAILS_PROJECTION.project(LazyResponseWrapper.wrap(empty)));
+    }
+
+    @Test(expectedExceptions = InvalidProtocolBufferException.class)
+    public void shouldRejectTruncatedDocument() throws Exception {
+        byte[] encoded = DetailsResponse.newBuilder().setDocV2(SyntheticDocuments.app("com.example.a")).build()
+                .toByteArray();
+
+        VersionProbe.scanDetailsResponse(encoded, 0, encoded.length - 10);
+    }
+
+    @Test
+    public void shouldMatchEmulatorDetails() throws Exception {
+        FdfeEmulator emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 2);
+        emulator.start();
+        try {
+            GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            service.setToken("emulated-token");
+            emulator.route(service);
+            List<String> packageNames = Arrays.asList("com.example.a", "com.example.unavailable", "com.example.c");
+
+            List<VersionProbe> probes = service.bulkVersions(packageNames);
+            BulkDetailsResponse bulkDetails = service.bulkDetails(packageNames);
+
+            Assert.assertEquals(probes.size(), bulkDetails.getEntryCount());
+            for (int i = 0; i < probes.size(); i++) {
+                assertProbeOf(probes.get(i), bulkDetails.getEntry(i).getDoc());
+            }
+            assertProbeOf(service.detailsVersion("com.example.a"), service.details("com.example.a").getDocV2());
+        } finally {
+            emulator.close();
+        }
+    }
+
+    private static void assertProbeOf(VersionProbe probe, DocV2 doc) {
+        AppDetails appDetails = doc.getDetails().getAppDetails();
+        Assert.assertEquals(probe.getDocid(), doc.getDocid());
+        Assert.assertEquals(probe.getVersionCode(), appDetails.getVersionCode());
+        Assert.assertEquals(probe.getVersionString(), appDetails.getVersionString());
+        Assert.assertEquals(probe.getUploadDate(), appDetails.getUploadDate());
+        Assert.assertEquals(probe.getOfferType(), doc.getOfferCount() == 0 ? 0 : doc.getOffer(0).getOfferType());
+    }
+}
@@ -0,0 +1,200 @@
+package com.akdeniz.googleplaycrawler.cache;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+public class TestResponseCache {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("response-cache").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedBeyondMemoryBound() {
+        ResponseCache cache = new ResponseCache(null, 25);
+        cache.put("a", entry(10));
+        cache.put("b", entry(10));
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("c", entry(10));
+
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+        cache.close();
+    }
+
+    @Test
+    public void shouldPersistAcrossInstances() {
+        ResponseCache cache = new ResponseCache(directory);
+        CacheEntry entry = new CacheEntry(new byte[]{1, 2, 3}, "\"v1\"", System.currentTimeMillis() + 60000,
+                System.currentTimeMillis() + 120000);
+        cache.put("details?doc=a", entry);
+        cache.close();
+
+        ResponseCache reopened = new ResponseCache(directory);
+        CacheEntry read = reopened.get("details?doc=a");
+        Assert.assertNotNull(read);
+        Assert.assertEquals(read.getResponse(), new byte[]{1, 2, 3});
+        Assert.assertEquals(read.getEtag(), "\"v1\"");
+        Assert.assertEquals(read.getSoftExpiresAt(), entry.getSoftExpiresAt());
+        Assert.assertEquals(read.getExpiresAt(), entry.getExpiresAt());
+        Assert.assertNull(reopened.get("details?doc=b"));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldDropExpiredEntries() {
+        ResponseCache cache = new ResponseCache(directory);
+        long now = System.currentTimeMillis();
+        cache.put("stale", new CacheEntry(new byte[1], null, now - 2000, now + 60000));
+        cache.put("expired", new CacheEntry(new byte[1], null, now - 2000, now - 1000));
+
+        Assert.assertFalse(cache.get("stale").isFresh(System.currentTimeMillis()));
+        Assert.assertNull(cache.get("expired"));
+        Assert.assertEquals(directory.list().length, 1);
+        cache.close();
+    }
+
+    @Test
+    public void shouldKeepValidatorOfExpiredEntries() throws Exception {
+        ResponseCache cache = new ResponseCache(directory);
+        long now = System.currentTimeMillis();
+        cache.put("validated", new CacheEntry(new byte[]{1}, "\"v1\"", now + 10, now + 20));
+        cache.close();
+        Thread.sleep(50);
+
+        ResponseCache reopened = new ResponseCache(directory);
+        Assert.assertNull(reopened.get("validated"));
+        CacheEntry validator = reopened.getValidator("validated");
+        Assert.assertNotNull(validator);
+        Assert.assertEquals(validator.getEtag(), "\"v1\"");
+        Assert.assertEquals(validator.getResponse(), new byte[]{1});
+        reopened.close();
+    }
+
+    @Test
+    public void shouldIgnoreCorruptFiles() throws Exception {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.put("a", entry(10));
+        cache.close();
+        File file = directory.listFiles()[0];
+        Files.write(file.toPath(), new byte[]{0, 0, 0, 1, 0});
+
+        ResponseCache reopened = new ResponseCache(directory);
+        Assert.assertNull(reopened.get("a"));
+        Assert.assertFalse(file.exists());
+        reopened.close();
+    }
+
+    @Test
+    public void shouldClearMemoryAndDisk() {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.put("a", entry(10));
+        cache.put("b", entry(10));
+        cache.clear();
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(directory.list().length, 0);
+        cache.close();
+    }
+
+    @Test
+    public void shouldRunOneRevalidationPerKey() throws Exception {
+        ResponseCache cache = new ResponseCache();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        cache.revalidate("a", refresh);
+        cache.revalidate("a", refresh);
+        release.countDown();
+
+        final CountDownLatch done = new CountDownLatch(1);
+        cache.revalidate("b", new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(runs.get(), 1);
+        cache.close();
+    }
+
+    @Test
+    public void shouldServeRepeatedRequestsFromCache() throws Exception {
+        FdfeEmulator emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.start();
+        try {
+            GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            service.setToken("emulated-token");
+            emulator.route(service);
+            ResponseCache cache = new ResponseCache(directory);
+            service.setResponseCache(cache);
+
+            DetailsResponse first = service.details("com.example.app");
+            DetailsResponse second = service.details("com.example.app");
+
+            Assert.assertEquals(second, first);
+            Assert.assertEquals(emulator.getRequestCount(), 1);
+            cache.close();
+
+            // a new process finds entries on disk
+            GooglePlayAPI restarted = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            restarted.setToken("emulated-token");
+            emulator.route(restarted);
+            restarted.setResponseCache(new ResponseCache(directory));
+            Assert.assertEquals(restarted.details("com.example.app"), first);
+            Assert.assertEquals(emulator.getRequestCount(), 1);
+
+            // other device profiles do not share entries
+            GooglePlayAPI other = new GooglePlayAPI("user@example.com", "password", "4b1d2e3f5a6c7890");
+            other.setToken("emulated-token");
+            emulator.route(other);
+            other.setResponseCache(restarted.getResponseCache());
+            other.details("com.example.app");
+            Assert.assertEquals(emulator.getRequestCount(), 2);
+            restarted.getResponseCache().close();
+        } finally {
+            emulator.close();
+        }
+    }
+
+    private static CacheEntry entry(int length) {
+        long now = System.currentTimeMillis();
+        return new CacheEntry(new byte[length], null, now + 60000, now + 120000);
+    }
+}
@@ -0,0 +1,259 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.GooglePlayException;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+import com.akdeniz.googleplaycrawler.misc.Base64;
+
+/**
+ * Downloads from {@link FdfeEmulator}, aborting downloads half way to check
+ * how they are resumed.
+ */
+public class TestApkDownloader {
+
+    private static final long APK_SIZE = 1024 * 1024;
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI service;
+    private ApkDownloader downloader;
+    private File directory;
+    private File target;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 8);
+        emulator.setApkSize(APK_SIZE);
+        emulator.start();
+        service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+        downloader = new ApkDownloader(service);
+        downloader.setBufferSize(16 * 1024);
+        directory = Files.createTempDirectory("apk-downloader").toFile();
+        target = new File(directory, "app.apk");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        emulator.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void shouldDownloadAndVerify() throws Exception {
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertEquals(result.getSize(), APK_SIZE);
+        Assert.assertEquals(result.getTransferredBytes(), APK_SIZE);
+        Assert.assertFalse(result.isResumed());
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+        Assert.assertEquals(directory.list().length, 1, "part files are left behind");
+    }
+
+    @Test
+    public void shouldResumeAbortedDownload() throws Exception {
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        abortAt(deliveryData, APK_SIZE / 3);
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertTrue(result.isResumed());
+        Assert.assertTrue(result.getTransferredBytes() < APK_SIZE, String.valueOf(result.getTransferredBytes()));
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+    }
+
+    @Test
+    public void shouldResumeAbortedSegments() throws Exception {
+        downloader.setSegmentThreshold(64 * 1024);
+        downloader.setSegments(4);
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        abortAt(deliveryData, APK_SIZE / 2);
+        Assert.assertTrue(new File(target.getPath() + ".part.segments").exists());
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertTrue(result.isResumed());
+        Assert.assertTrue(result.getTransferredBytes() < APK_SIZE, String.valueOf(result.getTransferredBytes()));
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+    }
+
+    @Test
+    public void shouldDiscardPartOfOtherVersion() throws Exception {
+        abortAt(service.deliveryData("com.example.app", 3, 1, "23"), APK_SIZE / 3);
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 4, 1, "23");
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertFalse(result.isResumed());
+        Assert.assertEquals(result.getTransferredBytes(), APK_SIZE);
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+    }
+
+    @Test
+    public void shouldRestartWhenETagChanged() throws Exception {
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        abortAt(deliveryData, APK_SIZE / 3);
+        File meta = new File(target.getPath() + ".part.meta");
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(meta);
+        properties.load(in);
+        in.close();
+        Assert.assertNotNull(properties.getProperty("etag"));
+        properties.setProperty("etag", "\"stale\"");
+        OutputStream out = new FileOutputStream(meta);
+        properties.store(out, null);
+        out.close();
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertEquals(result.getTransferredBytes(), APK_SIZE);
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+    }
+
+    @Test
+    public void shouldDiscardCorruptedPart() throws Exception {
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        abortAt(deliveryData, APK_SIZE / 3);
+        RandomAccessFile part = new RandomAccessFile(target.getPath() + ".part", "rw");
+        part.seek(100);
+        int value = part.read();
+        part.seek(100);
+        part.write(value ^ 0xff);
+        part.close();
+
+        try {
+            downloader.download(deliveryData, target);
+            Assert.fail("corrupted download should not be accepted");
+        } catch (GooglePlayException e) {
+            Assert.assertFalse(target.exists());
+            Assert.assertFalse(new File(target.getPath() + ".part").exists());
+        }
+
+        downloader.download(deliveryData, target);
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+    }
+
+    @Test
+    public void shouldDownloadGzippedVariant() throws Exception {
+        emulator.setGzipOffered(true);
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        Assert.assertTrue(deliveryData.hasGzippedDownloadUrl());
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertEquals(result.getSize(), APK_SIZE);
+        Assert.assertEquals(result.getWireBytes(), deliveryData.getGzippedDownloadSize());
+        Assert.assertEquals(result.getTransferredBytes(), APK_SIZE);
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+        Assert.assertEquals(directory.list().length, 1, "part files are left behind");
+    }
+
+    @Test
+    public void shouldResumeAbortedGzippedVariant() throws Exception {
+        emulator.setGzipOffered(true);
+        downloader.setSegmentThreshold(64 * 1024);
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        abortAt(deliveryData, APK_SIZE / 2);
+        Assert.assertTrue(new File(target.getPath() + ".gz.part").exists());
+
+        DownloadResult result = downloader.download(deliveryData, target);
+
+        Assert.assertTrue(result.isResumed());
+        Assert.assertTrue(result.getWireBytes() < deliveryData.getGzippedDownloadSize());
+        Assert.assertTrue(result.getTransferredBytes() < APK_SIZE);
+        Assert.assertEquals(signature(target), deliveryData.getSignature());
+    }
+
+    @Test
+    public void shouldRebuildFromPatch() throws Exception {
+        ApkStore store = new ApkStore(new File(directory, "store"));
+        downloader.setBaseStore(store);
+        downloader.download("com.example.app", 3, 1, "23", new File(directory, "v3.apk"));
+        emulator.setPatchesOffered(true);
+
+        DownloadResult result = downloader.download("com.example.app", 4, 1, "23", target);
+
+        // data only patch is a little larger than the APK it carries
+        Assert.assertTrue(result.getTransferredBytes() > APK_SIZE, String.valueOf(result.getTransferredBytes()));
+        Assert.assertEquals(signature(target), service.deliveryData("com.example.app", 4, 1, "23").getSignature());
+        Assert.assertNotNull(store.get("com.example.app", 4));
+    }
+
+    @Test
+    public void shouldFallBackFromTruncatedPatch() throws Exception {
+        downloader.setBaseStore(new ApkStore(new File(directory, "store")));
+        downloader.download("com.example.app", 3, 1, "23", new File(directory, "v3.apk"));
+        emulator.setPatchesOffered(true);
+        emulator.setPatchesTruncated(true);
+
+        DownloadResult result = downloader.download("com.example.app", 4, 1, "23", target);
+
+        Assert.assertEquals(result.getTransferredBytes(), APK_SIZE);
+        Assert.assertEquals(signature(target), service.deliveryData("com.example.app", 4, 1, "23").getSignature());
+        Assert.assertFalse(new File(target.getPath() + ".patch").exists());
+    }
+
+    /**
+     * Leaves a partial download behind by failing once given number of bytes
+     * are on disk.
+     */
+    private void abortAt(AndroidAppDeliveryData deliveryData, final long bytes) throws IOException {
+        downloader.setListener(new DownloadListener() {
+            @Override
+            public void onProgress(File file, long downloaded, long total) {
+                if (downloaded >= bytes) {
+                    throw new IllegalStateException("Aborted at " + downloaded);
+                }
+            }
+        });
+        try {
+            downloader.download(deliveryData, target);
+            Assert.fail("download should be aborted");
+        } catch (IllegalStateException e) {
+            // expected from a single stream
+        } catch (IOException e) {
+            // expected from segments
+        } finally {
+            downloader.setListener(null);
+        }
+        Assert.assertFalse(target.exists());
+        Assert.assertTrue(new File(target.getPath() + ".part").length() > 0
+                || new File(target.getPath() + ".gz.part").length() > 0);
+    }
+
+    private static String signature(File file) throws Exception {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        sha1.update(Files.readAllBytes(file.toPath()));
+        return Base64.encodeToString(sha1.digest(), Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+    }
+}
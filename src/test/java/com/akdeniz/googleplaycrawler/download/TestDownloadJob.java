@@ -0,0 +1,97 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidAppDeliveryData;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+public class TestDownloadJob {
+
+    private static final long APK_SIZE = 256 * 1024;
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI service;
+    private ApkDownloader downloader;
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.setApkSize(APK_SIZE);
+        emulator.start();
+        service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+        downloader = new ApkDownloader(service);
+        directory = Files.createTempDirectory("download-job").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        emulator.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldDownloadAllFiles() throws Exception {
+        final AtomicLong reported = new AtomicLong();
+        downloader.setListener(new DownloadListener() {
+            @Override
+            public void onProgress(File target, long downloaded, long total) {
+                Assert.assertEquals(target, directory);
+                Assert.assertEquals(total, APK_SIZE);
+                reported.set(downloaded);
+            }
+        });
+
+        DownloadJob job = downloader.downloadAll("com.example.app", 3, 1, "23", directory);
+        List<DownloadResult> results = job.await();
+
+        Assert.assertEquals(results.size(), 1);
+        Assert.assertEquals(results.get(0).getFile(), new File(directory, "base.apk"));
+        Assert.assertEquals(results.get(0).getSize(), APK_SIZE);
+        Assert.assertEquals(job.getDownloaded(), APK_SIZE);
+        Assert.assertEquals(reported.get(), APK_SIZE);
+        Assert.assertTrue(job.isDone());
+    }
+
+    @Test(expectedExceptions = InterruptedIOException.class)
+    public void shouldThrowInterruptedIOExceptionWhenCancelled() throws Exception {
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        emulator.setLatency(2000, 0);
+
+        DownloadJob job = downloader.downloadAll("com.example.app", deliveryData, directory);
+        job.cancel();
+        job.await();
+    }
+
+    @Test
+    public void shouldKeepInterruptStatus() throws Exception {
+        AndroidAppDeliveryData deliveryData = service.deliveryData("com.example.app", 3, 1, "23");
+        emulator.setLatency(2000, 0);
+
+        DownloadJob job = downloader.downloadAll("com.example.app", deliveryData, directory);
+        Thread.currentThread().interrupt();
+        try {
+            job.await();
+            Assert.fail("await should be interrupted");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        Assert.assertTrue(job.getCompletion().isCancelled());
+    }
+}
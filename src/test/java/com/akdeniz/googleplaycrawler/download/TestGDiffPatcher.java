@@ -0,0 +1,115 @@
+package com.akdeniz.googleplaycrawler.download;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlayException;
+
+public class TestGDiffPatcher {
+
+    private File baseFile;
+    private RandomAccessFile base;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        baseFile = File.createTempFile("base", ".apk");
+        Files.write(baseFile.toPath(), "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII));
+        base = new RandomAccessFile(baseFile, "r");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        base.close();
+        baseFile.delete();
+    }
+
+    @Test
+    public void shouldApplyDataAndCopyCommands() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream patch = header(bytes);
+        // DATA of 3 bytes
+        patch.writeByte(3);
+        patch.writeBytes("xyz");
+        // COPY_USHORT_UBYTE
+        patch.writeByte(249);
+        patch.writeShort(10);
+        patch.writeByte(6);
+        // DATA_USHORT
+        patch.writeByte(247);
+        patch.writeShort(2);
+        patch.writeBytes("--");
+        // COPY_INT_INT
+        patch.writeByte(254);
+        patch.writeInt(0);
+        patch.writeInt(4);
+        // COPY_LONG_INT
+        patch.writeByte(255);
+        patch.writeLong(18);
+        patch.writeInt(2);
+        patch.writeByte(0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = new GDiffPatcher(4).apply(base, new ByteArrayInputStream(bytes.toByteArray()), out);
+
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.US_ASCII), "xyzabcdef--0123ij");
+        Assert.assertEquals(length, 17);
+    }
+
+    @Test(expectedExceptions = GooglePlayException.class)
+    public void shouldRejectOtherFormats() throws Exception {
+        byte[] patch = "PK\u0003\u0004 not a patch".getBytes(StandardCharsets.US_ASCII);
+        new GDiffPatcher().apply(base, new ByteArrayInputStream(patch), new ByteArrayOutputStream());
+    }
+
+    @Test(expectedExceptions = GooglePlayException.class)
+    public void shouldRejectCopyOutOfBase() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream patch = header(bytes);
+        // COPY_USHORT_UBYTE past end of 20 byte base
+        patch.writeByte(249);
+        patch.writeShort(15);
+        patch.writeByte(6);
+        patch.writeByte(0);
+
+        new GDiffPatcher().apply(base, new ByteArrayInputStream(bytes.toByteArray()), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void shouldFailOnTruncatedPatch() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream patch = header(bytes);
+        patch.writeByte(10);
+        patch.writeBytes("0123456789");
+        patch.writeByte(0);
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 4);
+
+        try {
+            new GDiffPatcher().apply(base, new ByteArrayInputStream(truncated), new ByteArrayOutputStream());
+            Assert.fail("truncated patch should not be applied");
+        } catch (EOFException e) {
+            // not a GooglePlayException, so downloader must handle any IOException
+        } catch (IOException e) {
+            Assert.fail("unexpected failure", e);
+        }
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes) throws IOException {
+        DataOutputStream patch = new DataOutputStream(bytes);
+        patch.writeInt(0xd1ffd1ff);
+        patch.writeByte(4);
+        return patch;
+    }
+}
@@ -0,0 +1,122 @@
+package com.akdeniz.googleplaycrawler.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+import com.akdeniz.googleplaycrawler.metrics.EndpointMetrics;
+import com.akdeniz.googleplaycrawler.metrics.MetricsRegistry;
+
+public class TestInflatingEntity {
+
+    @Test
+    public void shouldInflateGzippedResponse() throws Exception {
+        byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+        for (int i = 0; i < content.length; i += 2) {
+            content[i] = 0;
+        }
+        byte[] gzipped = gzip(content);
+        HttpResponse response = response(gzipped, "gzip");
+        EndpointMetrics metrics = new EndpointMetrics(Endpoint.DETAILS);
+
+        InflatingEntity.decode(response, metrics);
+
+        Assert.assertTrue(response.getEntity() instanceof InflatingEntity);
+        Assert.assertNull(response.getFirstHeader("Content-Encoding"));
+        Assert.assertNull(response.getFirstHeader("Content-Length"));
+        Assert.assertNull(response.getEntity().getContentEncoding());
+        Assert.assertEquals(response.getEntity().getContentLength(), -1);
+        Assert.assertEquals(EntityUtils.toByteArray(response.getEntity()), content);
+
+        Assert.assertEquals(metrics.getCompressedResponseCount(), 1);
+        Assert.assertEquals(metrics.getBytesCompressed(), gzipped.length);
+        Assert.assertEquals(metrics.getBytesInflated(), content.length);
+    }
+
+    @Test
+    public void shouldReportOnceWhenClosedEarly() throws Exception {
+        byte[] content = new byte[100000];
+        HttpResponse response = response(gzip(content), "GZIP ");
+        EndpointMetrics metrics = new EndpointMetrics(Endpoint.DETAILS);
+        InflatingEntity.decode(response, metrics);
+
+        InputStream in = response.getEntity().getContent();
+        Assert.assertEquals(in.read(new byte[10]), 10);
+        in.close();
+        in.close();
+
+        Assert.assertEquals(metrics.getCompressedResponseCount(), 1);
+        Assert.assertEquals(metrics.getBytesInflated(), 10);
+    }
+
+    @Test
+    public void shouldLeaveOtherEncodingsAlone() throws Exception {
+        HttpResponse identity = response(new byte[]{1, 2, 3}, null);
+        HttpResponse deflated = response(new byte[]{1, 2, 3}, "deflate");
+
+        InflatingEntity.decode(identity, null);
+        InflatingEntity.decode(deflated, null);
+
+        Assert.assertTrue(identity.getEntity() instanceof ByteArrayEntity);
+        Assert.assertTrue(deflated.getEntity() instanceof ByteArrayEntity);
+        Assert.assertEquals(deflated.getFirstHeader("Content-Encoding").getValue(), "deflate");
+    }
+
+    @Test
+    public void shouldInflateEmulatorResponses() throws Exception {
+        FdfeEmulator emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 2);
+        emulator.start();
+        try {
+            GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+            service.setToken("emulated-token");
+            emulator.route(service);
+            MetricsRegistry registry = new MetricsRegistry();
+            service.setMetrics(registry);
+
+            DetailsResponse details = service.details("com.example.app");
+
+            Assert.assertEquals(details.getDocV2().getDocid(), "com.example.app");
+            EndpointMetrics metrics = registry.get(Endpoint.DETAILS);
+            Assert.assertEquals(metrics.getCompressedResponseCount(), 1);
+            Assert.assertEquals(metrics.getBytesInflated(), details.getDocV2().getSerializedSize(), 64);
+            Assert.assertTrue(metrics.getBytesCompressed() < metrics.getBytesInflated());
+        } finally {
+            emulator.close();
+        }
+    }
+
+    private static HttpResponse response(byte[] body, String encoding) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ByteArrayEntity entity = new ByteArrayEntity(body);
+        if (encoding != null) {
+            entity.setContentEncoding(encoding);
+            response.setHeader("Content-Encoding", encoding);
+        }
+        response.setHeader("Content-Length", String.valueOf(body.length));
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static byte[] gzip(byte[] content) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(content);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,73 @@
+package com.akdeniz.googleplaycrawler.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestLatencyHistogram {
+
+    private static final int LAST = LatencyHistogram.index(Long.MAX_VALUE);
+
+    @Test
+    public void shouldPlaceValuesWithinBucketBounds() {
+        for (long micros = 0; micros < 100000; micros++) {
+            assertWithinBucket(micros);
+        }
+        for (int exponent = 3; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            assertWithinBucket(power - 1);
+            assertWithinBucket(power);
+            assertWithinBucket(power + 1);
+        }
+        assertWithinBucket(Long.MAX_VALUE);
+    }
+
+    private static void assertWithinBucket(long micros) {
+        int index = LatencyHistogram.index(micros);
+        Assert.assertTrue(index >= 0 && index <= LAST, micros + " -> " + index);
+        Assert.assertTrue(LatencyHistogram.lowerBound(index) <= micros, micros + " -> " + index);
+        Assert.assertTrue(micros <= LatencyHistogram.upperBound(index), micros + " -> " + index);
+    }
+
+    @Test
+    public void shouldCoverRangeWithoutGaps() {
+        Assert.assertEquals(LatencyHistogram.lowerBound(0), 0);
+        for (int i = 0; i < LAST; i++) {
+            Assert.assertEquals(LatencyHistogram.lowerBound(i + 1), LatencyHistogram.upperBound(i) + 1, "bucket " + i);
+        }
+        Assert.assertEquals(LatencyHistogram.upperBound(LAST), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldKeepBucketsWithinRelativeError() {
+        for (int i = 8; i < LAST; i++) {
+            long width = LatencyHistogram.upperBound(i) - LatencyHistogram.lowerBound(i) + 1;
+            Assert.assertTrue(width * 8 <= LatencyHistogram.lowerBound(i), "bucket " + i);
+        }
+    }
+
+    @Test
+    public void shouldCountLongLatenciesInLastBucket() {
+        Assert.assertEquals(LatencyHistogram.index(1L << 41), LAST);
+        Assert.assertEquals(LatencyHistogram.index(Long.MAX_VALUE / 2), LAST);
+        Assert.assertTrue(LatencyHistogram.index((1L << 40) - 1) < LAST);
+    }
+
+    @Test
+    public void shouldReportPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.percentile(0.5), 0);
+
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+        histogram.record(-5);
+
+        Assert.assertEquals(histogram.getCount(), 1001);
+        Assert.assertEquals(histogram.getSum(), 500500);
+        Assert.assertEquals(histogram.getMax(), 1000);
+        long median = histogram.percentile(0.5);
+        Assert.assertTrue(median >= 500 && median <= 500 * 9 / 8, String.valueOf(median));
+        Assert.assertEquals(histogram.percentile(1), 1000);
+        Assert.assertEquals(histogram.percentile(0), 0);
+    }
+}
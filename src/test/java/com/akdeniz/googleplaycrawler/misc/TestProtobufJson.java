@@ -0,0 +1,35 @@
+package com.akdeniz.googleplaycrawler.misc;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.AggregateRating;
+import com.akdeniz.googleplaycrawler.GooglePlay.AndroidCheckinResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.AppDetails;
+
+public class TestProtobufJson {
+
+    @Test
+    public void shouldQuoteSignedLongs() {
+        AppDetails appDetails = AppDetails.newBuilder().setInstallationSize(-9007199254740993L).build();
+
+        Assert.assertEquals(ProtobufJson.toJson(appDetails), "{\"installationSize\":\"-9007199254740993\"}");
+    }
+
+    @Test
+    public void shouldWriteUnsignedLongsUnsigned() {
+        AggregateRating rating = AggregateRating.newBuilder().setType(2).setRatingsCount(-1L).build();
+        AndroidCheckinResponse checkin = AndroidCheckinResponse.newBuilder().setAndroidId(0x8000000000000000L)
+                .build();
+
+        Assert.assertEquals(ProtobufJson.toJson(rating), "{\"type\":2,\"ratingsCount\":\"18446744073709551615\"}");
+        Assert.assertEquals(ProtobufJson.toJson(checkin), "{\"androidId\":\"9223372036854775808\"}");
+    }
+
+    @Test
+    public void shouldWriteNonFiniteNumbersAsNull() {
+        AggregateRating rating = AggregateRating.newBuilder().setStarRating(Float.NaN).build();
+
+        Assert.assertEquals(ProtobufJson.toJson(rating), "{\"starRating\":null}");
+    }
+}
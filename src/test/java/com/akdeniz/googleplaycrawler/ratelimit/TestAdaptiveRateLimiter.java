@@ -0,0 +1,63 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import java.net.InetSocketAddress;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.Endpoint;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+/**
+ * Runs {@link AdaptiveRateLimiter} against throttling {@link FdfeEmulator}.
+ */
+public class TestAdaptiveRateLimiter {
+
+    private FdfeEmulator emulator;
+    private GooglePlayAPI service;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.start();
+        service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        service.setBackoff(new Backoff(10, 2000));
+        service.setMaxRetries(5);
+        emulator.route(service);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        emulator.close();
+    }
+
+    @Test
+    public void shouldSlowDownWhenThrottled() throws Exception {
+        AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+        rateLimiter.setBucket(Endpoint.DETAILS, new TokenBucket(20, 1, 20, 0.1, 0.5, 1, 100));
+        service.setRateLimiter(rateLimiter);
+        emulator.setMaxRequestsPerSecond(5);
+
+        for (int i = 0; i < 10; i++) {
+            service.details("com.example.app" + i);
+        }
+
+        Assert.assertTrue(rateLimiter.getThrottleCount(Endpoint.DETAILS) >= 1);
+        Assert.assertTrue(rateLimiter.getRate(Endpoint.DETAILS) < 20, rateLimiter.toString());
+    }
+
+    @Test
+    public void shouldNotLimitEndpointsWithoutBucket() throws Exception {
+        AdaptiveRateLimiter rateLimiter = AdaptiveRateLimiter.withDefaults();
+        service.setRateLimiter(rateLimiter);
+
+        Assert.assertEquals(rateLimiter.getRate(Endpoint.SEARCH), Double.POSITIVE_INFINITY);
+        Assert.assertEquals(rateLimiter.reserve(Endpoint.SEARCH), 0);
+        service.search("maps", 0, 5);
+        Assert.assertEquals(rateLimiter.getThrottleCount(Endpoint.SEARCH), 0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBackoff {
+
+    @Test
+    public void shouldDoubleDelayWithJitter() {
+        Backoff backoff = new Backoff(100, 10000);
+
+        for (int i = 0; i < 100; i++) {
+            assertBetween(backoff.delayMillis(0), 50, 100);
+            assertBetween(backoff.delayMillis(3), 400, 800);
+        }
+    }
+
+    @Test
+    public void shouldCapDelayAtMax() {
+        Backoff backoff = new Backoff(100, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            assertBetween(backoff.delayMillis(10), 500, 1000);
+            // shifting would overflow
+            assertBetween(backoff.delayMillis(70), 500, 1000);
+        }
+    }
+
+    @Test
+    public void shouldHonourRetryAfter() {
+        Backoff backoff = new Backoff(10, 5000);
+
+        Assert.assertEquals(backoff.delayMillis(0, 3000), 3000);
+        Assert.assertEquals(backoff.delayMillis(0, 60000), 5000);
+        assertBetween(backoff.delayMillis(0, -1), 5, 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectMaxBelowBase() {
+        new Backoff(1000, 100);
+    }
+
+    private static void assertBetween(long value, long min, long max) {
+        Assert.assertTrue(value >= min && value <= max, value + " is not in [" + min + ", " + max + "]");
+    }
+}
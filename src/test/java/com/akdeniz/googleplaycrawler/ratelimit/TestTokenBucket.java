@@ -0,0 +1,81 @@
+package com.akdeniz.googleplaycrawler.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestTokenBucket {
+
+    @Test
+    public void shouldSpendSavedPermitsFirst() {
+        TokenBucket bucket = new TokenBucket(10, 1, 10, 1, 0.5, 2);
+
+        Assert.assertEquals(bucket.reserve(), 0);
+        Assert.assertEquals(bucket.reserve(), 0);
+        long waitNanos = bucket.reserve();
+        Assert.assertTrue(waitNanos > TimeUnit.MILLISECONDS.toNanos(50), String.valueOf(waitNanos));
+        Assert.assertTrue(waitNanos <= TimeUnit.MILLISECONDS.toNanos(100), String.valueOf(waitNanos));
+        Assert.assertEquals(bucket.getAcquireCount(), 3);
+    }
+
+    @Test
+    public void shouldIncreaseUpToMaxRate() {
+        TokenBucket bucket = new TokenBucket(1, 1, 2, 0.4, 0.5, 1);
+
+        bucket.increase();
+        Assert.assertEquals(bucket.getRate(), 1.4, 1e-9);
+        bucket.increase();
+        bucket.increase();
+        Assert.assertEquals(bucket.getRate(), 2.0, 1e-9);
+    }
+
+    @Test
+    public void shouldDecreaseOnFirstThrottle() {
+        TokenBucket bucket = new TokenBucket(8, 1, 10, 1, 0.5, 1, 60000);
+
+        bucket.decrease();
+        Assert.assertEquals(bucket.getRate(), 4.0, 1e-9);
+    }
+
+    @Test
+    public void shouldCountBurstOfThrottlesAsOneDecrease() {
+        TokenBucket bucket = new TokenBucket(8, 1, 10, 1, 0.5, 1, 60000);
+
+        for (int i = 0; i < 10; i++) {
+            bucket.decrease();
+        }
+        Assert.assertEquals(bucket.getRate(), 4.0, 1e-9);
+        Assert.assertEquals(bucket.getThrottleCount(), 10);
+    }
+
+    @Test
+    public void shouldDecreaseAgainAfterCoolDown() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 1, 100, 1, 0.5, 1, 50);
+
+        bucket.decrease();
+        bucket.decrease();
+        Assert.assertEquals(bucket.getRate(), 50.0, 1e-9);
+        Thread.sleep(80);
+        bucket.decrease();
+        Assert.assertEquals(bucket.getRate(), 25.0, 1e-9);
+    }
+
+    @Test
+    public void shouldNotDropBelowMinRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 60, 100, 1, 0.5, 1, 0);
+
+        bucket.decrease();
+        Assert.assertEquals(bucket.getRate(), 60.0, 1e-9);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectInitialRateOutOfRange() {
+        new TokenBucket(20, 1, 10, 1, 0.5, 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectDecreaseFactorOfOne() {
+        new TokenBucket(5, 1, 10, 1, 1, 1);
+    }
+}
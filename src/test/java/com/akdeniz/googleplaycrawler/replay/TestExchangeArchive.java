@@ -0,0 +1,100 @@
+package com.akdeniz.googleplaycrawler.replay;
+
+import java.io.File;
+import java.io.UTFDataFormatException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlay.BulkDetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlay.DetailsResponse;
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+/**
+ * Records a crawl of {@link FdfeEmulator} and replays it.
+ */
+public class TestExchangeArchive {
+
+    private FdfeEmulator emulator;
+    private File archive;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.start();
+        archive = File.createTempFile("exchanges", ".gpcx");
+        archive.delete();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        emulator.close();
+        archive.delete();
+    }
+
+    private GooglePlayAPI newService() {
+        GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+        return service;
+    }
+
+    @Test
+    public void shouldReplayRecordedCrawl() throws Exception {
+        GooglePlayAPI recorder = newService();
+        ExchangeWriter writer = new ExchangeWriter(archive);
+        recorder.startRecording(writer);
+        DetailsResponse details = recorder.details("com.example.app");
+        BulkDetailsResponse bulkDetails = recorder.bulkDetails(Arrays.asList("com.example.a", "com.example.b"));
+        writer.close();
+
+        List<Exchange> exchanges = ExchangeReader.readAll(archive);
+        Assert.assertEquals(exchanges.size(), 2);
+        // requests routed to another host are recorded with that host
+        Assert.assertTrue(exchanges.get(0).getUri().startsWith(emulator.getTargetHost().toURI()),
+                exchanges.get(0).getUri());
+
+        long requests = emulator.getRequestCount();
+        GooglePlayAPI replayer = newService();
+        ReplayHttpClient replay = new ReplayHttpClient(archive, 0);
+        replayer.setClient(replay);
+
+        Assert.assertEquals(replayer.details("com.example.app"), details);
+        Assert.assertEquals(replayer.bulkDetails(Arrays.asList("com.example.a", "com.example.b")), bulkDetails);
+        Assert.assertEquals(replay.getMissCount(), 0);
+        Assert.assertEquals(emulator.getRequestCount(), requests);
+    }
+
+    @Test
+    public void shouldNotWritePartOfUnserialisableRecord() throws Exception {
+        char[] value = new char[70000];
+        Arrays.fill(value, 'x');
+        Exchange tooLong = new Exchange(1, 2, "GET", "https://example.com/a", null, 200, "OK",
+                new String[][]{{"X-Long", new String(value)}}, 0, new byte[0]);
+        Exchange valid = new Exchange(3, 4, "POST", "https://example.com/b", "digest", 200, "OK",
+                new String[][]{{"ETag", "\"1\""}}, 3, new byte[]{1, 2, 3});
+
+        ExchangeWriter writer = new ExchangeWriter(archive);
+        try {
+            writer.write(tooLong);
+            Assert.fail("Header longer than 64 KB should not be written");
+        } catch (UTFDataFormatException expected) {
+            // nothing of the record is written
+        }
+        writer.write(valid);
+        writer.close();
+
+        List<Exchange> exchanges = ExchangeReader.readAll(archive);
+        Assert.assertEquals(exchanges.size(), 1);
+        Exchange read = exchanges.get(0);
+        Assert.assertEquals(read.getKey(), valid.getKey());
+        Assert.assertEquals(read.getHeaders(), valid.getHeaders());
+        Assert.assertEquals(read.getBody(), valid.getBody());
+    }
+}
@@ -0,0 +1,112 @@
+package com.akdeniz.googleplaycrawler.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.akdeniz.googleplaycrawler.GooglePlayAPI;
+import com.akdeniz.googleplaycrawler.SessionPool;
+import com.akdeniz.googleplaycrawler.emulator.FdfeEmulator;
+
+/**
+ * Runs {@link CrawlerServer} on a {@link SessionPool} of
+ * {@link FdfeEmulator} sessions.
+ */
+public class TestCrawlerServer {
+
+    private FdfeEmulator emulator;
+    private SessionPool pool;
+    private CrawlerServer server;
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        emulator = new FdfeEmulator(new InetSocketAddress("127.0.0.1", 0), 4);
+        emulator.start();
+        emulator.setApkSize(256 * 1024);
+        GooglePlayAPI service = new GooglePlayAPI("user@example.com", "password", "3a0c1d2e4f5b6789");
+        service.setToken("emulated-token");
+        emulator.route(service);
+        pool = new SessionPool(Arrays.asList(service));
+        directory = Files.createTempDirectory("crawler-server").toFile();
+        server = new CrawlerServer(pool, new InetSocketAddress("127.0.0.1", 0), 2);
+        server.setDownloadDirectory(directory);
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        server.close();
+        pool.close();
+        emulator.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldServeDetails() throws Exception {
+        HttpURLConnection connection = get("/details?doc=com.example.app");
+
+        Assert.assertEquals(connection.getResponseCode(), 200);
+        Assert.assertTrue(new String(read(connection.getInputStream()), StandardCharsets.UTF_8)
+                .contains("\"docid\":\"com.example.app\""));
+    }
+
+    @Test
+    public void shouldDownloadLatestVersion() throws Exception {
+        HttpURLConnection connection = get("/download?doc=com.example.app");
+
+        Assert.assertEquals(connection.getResponseCode(), 200);
+        Assert.assertEquals(connection.getContentLengthLong(), 256 * 1024);
+        Assert.assertEquals(read(connection.getInputStream()).length, 256 * 1024);
+        Assert.assertEquals(directory.listFiles().length, 0);
+    }
+
+    @Test
+    public void shouldAnswerNotFoundWithoutOffer() throws Exception {
+        HttpURLConnection connection = get("/download?doc=com.example.unavailable");
+
+        Assert.assertEquals(connection.getResponseCode(), 404);
+        Assert.assertTrue(new String(read(connection.getErrorStream()), StandardCharsets.UTF_8).contains("error"));
+        Assert.assertEquals(directory.listFiles().length, 0);
+    }
+
+    @Test
+    public void shouldRejectInvalidParameters() throws Exception {
+        Assert.assertEquals(get("/download").getResponseCode(), 400);
+        Assert.assertEquals(get("/download?doc=com.example.app&vc=latest").getResponseCode(), 400);
+    }
+
+    private HttpURLConnection get(String path) throws IOException {
+        InetSocketAddress address = server.getAddress();
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + address.getPort() + path).openConnection();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}